@@ -179,7 +179,6 @@ dependencies {
     }
     "withUnifiedPushImplementation"(libs.unifiedpush.connector.ui)
 
-    implementation(libs.nanohttpd)
     implementation(libs.androidx.documentfile)
 }
 
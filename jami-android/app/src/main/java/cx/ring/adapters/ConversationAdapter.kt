@@ -166,23 +166,78 @@ class ConversationAdapter(
     @SuppressLint("NotifyDataSetChanged")
     fun updateDataset(list: MutableList<Interaction>) {
         Log.d(TAG, "updateDataset: list size=" + list.size)
-        when {
-            mInteractions.isEmpty() -> {
-                mInteractions = list
-                notifyDataSetChanged()
-            }
-            list.size > mInteractions.size -> {
-                val oldSize = mInteractions.size
-                mInteractions = list
-                notifyItemRangeInserted(oldSize, list.size)
-            }
-            else -> {
-                mInteractions = list
-                notifyDataSetChanged()
+        val old = mInteractions
+        mInteractions = list
+        if (old.isEmpty()) {
+            notifyDataSetChanged()
+            return
+        }
+        // Only notify the part between the common start and the common end of the lists
+        val minSize = minOf(old.size, list.size)
+        var start = 0
+        while (start < minSize && isSameItem(old[start], list[start])) start++
+        var end = 0
+        while (end < minSize - start && isSameItem(old[old.size - 1 - end], list[list.size - 1 - end])) end++
+        val removed = old.size - start - end
+        val inserted = list.size - start - end
+        val changed = minOf(removed, inserted)
+        if (changed > 0) notifyItemRangeChanged(start, changed)
+        if (removed > changed) notifyItemRangeRemoved(start + changed, removed - changed)
+        if (inserted > changed) notifyItemRangeInserted(start + changed, inserted - changed)
+        // Neighbours may have to update how they are grouped with the changed items
+        if (removed != 0 || inserted != 0) {
+            if (start > 0) notifyItemChanged(start - 1)
+            if (end > 0) notifyItemChanged(start + inserted)
+        }
+    }
+
+    private fun isSameItem(a: Interaction, b: Interaction): Boolean =
+        a === b || if (a.isSwarm) a.messageId == b.messageId else a.id == b.id && a.type == b.type
+
+    /**
+     * Applies changes of the conversation history, by position.
+     * @return true if interactions were added at the end of the history, null if the changes
+     * don't match the displayed history, that must then be refreshed
+     */
+    fun applyChanges(changes: HistoryChanges): Boolean? {
+        for (range in changes.removed.asReversed()) {
+            if (range.end > mInteractions.size || !matches(range))
+                return null
+            mInteractions.subList(range.position, range.end).clear()
+            notifyItemRangeRemoved(range.position, range.count)
+            if (range.position > 0) notifyItemChanged(range.position - 1)
+            if (range.position < mInteractions.size) notifyItemChanged(range.position)
+        }
+        var addedAtEnd = false
+        for (range in changes.inserted) {
+            if (range.position > mInteractions.size)
+                return null
+            mInteractions.addAll(range.position, range.interactions)
+            notifyItemRangeInserted(range.position, range.count)
+            if (range.end == mInteractions.size) {
+                addedAtEnd = true
+                // Find previous last not invalid.
+                getPreviousInteractionFromPosition(range.position)?.let { interactionNotInvalid ->
+                    notifyItemChanged(mInteractions.lastIndexOf(interactionNotInvalid))
+                }
+            } else {
+                if (range.position > 0) notifyItemChanged(range.position - 1)
+                notifyItemChanged(range.end)
             }
         }
+        for (range in changes.changed) {
+            if (range.end > mInteractions.size || !matches(range))
+                return null
+            range.interactions.forEachIndexed { i, interaction -> mInteractions[range.position + i] = interaction }
+            notifyItemRangeChanged(range.position, range.count)
+        }
+        return addedAtEnd
     }
 
+    /** True if the displayed interactions of [range] are the ones of the range */
+    private fun matches(range: HistoryChanges.Range): Boolean =
+        range.interactions.withIndex().all { (i, interaction) -> isSameItem(mInteractions[range.position + i], interaction) }
+
     fun getMessageFromPosition(position: Int): Interaction? {
         return if (position < mInteractions.size) mInteractions[position] else null
     }
@@ -218,6 +273,19 @@ class ConversationAdapter(
                 i++
             }
         } else {
+            // Older history pages are inserted before the loaded history.
+            var low = 0
+            var high = mInteractions.size
+            while (low < high) {
+                val mid = (low + high) ushr 1
+                if (mInteractions[mid].timestamp <= e.timestamp) low = mid + 1 else high = mid
+            }
+            if (low < mInteractions.size) {
+                mInteractions.add(low, e)
+                notifyItemInserted(low)
+                notifyItemChanged(low + 1)
+                return false
+            }
             val update = mInteractions.isNotEmpty()
             mInteractions.add(e)
             notifyItemInserted(mInteractions.size - 1)
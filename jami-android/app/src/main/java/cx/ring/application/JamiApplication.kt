@@ -44,6 +44,7 @@ import cx.ring.linkpreview.LinkPreview
 import cx.ring.services.AndroidExposedServicesService
 import cx.ring.services.CallServiceImpl.Companion.CONNECTION_SERVICE_TELECOM_API_SDK_COMPATIBILITY
 import cx.ring.utils.AndroidFileUtils
+import cx.ring.utils.AvatarCache
 import cx.ring.views.AvatarFactory
 import io.reactivex.rxjava3.core.Completable
 import io.reactivex.rxjava3.core.Observable
@@ -140,6 +141,7 @@ abstract class JamiApplication : Application() {
     override fun onLowMemory() {
         super.onLowMemory()
         AvatarFactory.clearCache()
+        AvatarCache.clearCache()
         Glide.get(this).clearMemory()
         LinkPreview.clearCache()
     }
@@ -222,6 +224,7 @@ abstract class JamiApplication : Application() {
         super.onCreate()
         instance = this
         LinkPreview.init(this)
+        AvatarCache.init(this)
 
         // Launch logging if previously set up by user (info is stored in shared preferences).
         // Subscribe on it (first element) to initialize pipe construction.
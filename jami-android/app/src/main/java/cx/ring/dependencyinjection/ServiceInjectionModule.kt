@@ -16,7 +16,9 @@
  */
 package cx.ring.dependencyinjection
 
+import android.app.ActivityManager
 import android.content.Context
+import androidx.core.content.getSystemService
 import cx.ring.services.*
 import cx.ring.utils.DeviceUtils
 import dagger.Module
@@ -38,8 +40,9 @@ import javax.inject.Singleton
 object ServiceInjectionModule {
     @Provides
     @Singleton
-    fun provideSettingsService(@ApplicationContext appContext: Context, accountService: AccountService, deviceService: DeviceRuntimeService): PreferencesService {
-        return SharedPreferencesServiceImpl(appContext, accountService, deviceService)
+    fun provideSettingsService(@ApplicationContext appContext: Context, accountService: AccountService, deviceService: DeviceRuntimeService,
+                               historyService: HistoryService): PreferencesService {
+        return SharedPreferencesServiceImpl(appContext, accountService, deviceService, historyService)
     }
 
     @Provides
@@ -146,6 +149,7 @@ object ServiceInjectionModule {
     @Provides
     @Singleton
     fun provideConversationFacade(
+        @ApplicationContext appContext: Context,
         historyService: HistoryService,
         callService: CallService,
         contactService: ContactService,
@@ -163,7 +167,9 @@ object ServiceInjectionModule {
             notificationService,
             hardwareService,
             deviceRuntimeService,
-            preferencesService
+            preferencesService,
+            // Loaded conversation histories may use up to 1/16 of the app heap
+            (appContext.getSystemService<ActivityManager>()?.memoryClass ?: 64) * 1024L * 1024L / 16
         )
     }
 
@@ -934,6 +934,7 @@ class CallFragment : BaseSupportFragment<CallPresenter, CallView>(), CallView,
                 .withContact(participantInfo[0].contact)
                 .withCircleCrop(true)
                 .withPresence(false)
+                .withSize(binding.contactBubble.layoutParams.width)
                 .build(requireActivity()))
             generateParticipantOverlay(participantInfo)
             presenter.prepareBottomSheetButtonsStatus()
@@ -35,12 +35,14 @@ import cx.ring.interfaces.AppBarStateListener
 import cx.ring.views.AvatarDrawable
 import dagger.hilt.android.AndroidEntryPoint
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers
-import io.reactivex.rxjava3.core.Single
+import io.reactivex.rxjava3.core.Observable
 import io.reactivex.rxjava3.disposables.CompositeDisposable
 import net.jami.model.ContactViewModel
+import net.jami.model.Uri
 import net.jami.services.AccountService
 import net.jami.services.AccountService.ConnectionStatus
 import net.jami.services.ContactService
+import java.util.concurrent.TimeUnit
 import javax.inject.Inject
 
 @AndroidEntryPoint
@@ -113,16 +115,7 @@ class ConnectionMonitorFragment: Fragment() {
                             .setPositiveButton(android.R.string.ok, null)
                             .show()
                     }
-                    if (connection.connectionTime > 0L) {
-                        it.connectionTime.text = DateUtils.getRelativeTimeSpanString(
-                            connection.connectionTime,
-                            System.currentTimeMillis(),
-                            DateUtils.SECOND_IN_MILLIS
-                        )
-                        it.connectionTime.isVisible = true
-                    } else {
-                        it.connectionTime.isVisible = false
-                    }
+                    bindConnectionTime(it, connection)
                 } else {
                     it.channels.isVisible = false
                     it.channels.setOnClickListener(null)
@@ -140,6 +133,33 @@ class ConnectionMonitorFragment: Fragment() {
             }
         }
 
+        override fun onBindViewHolder(holder: ConnectionViewHolder, position: Int, payloads: List<Any>) {
+            val connection = connections[position].connection
+            if (payloads.contains(PAYLOAD_CONNECTION_TIME) && holder.connBinding != null && connection != null) {
+                if (connection.status == ConnectionStatus.Connected)
+                    bindConnectionTime(holder.connBinding, connection)
+            } else {
+                onBindViewHolder(holder, position)
+            }
+        }
+
+        private fun bindConnectionTime(binding: ItemDeviceConnectionBinding, connection: AccountService.DeviceConnection) {
+            if (connection.connectionTime > 0L) {
+                binding.connectionTime.text = DateUtils.getRelativeTimeSpanString(
+                    connection.connectionTime,
+                    System.currentTimeMillis(),
+                    DateUtils.SECOND_IN_MILLIS
+                )
+                binding.connectionTime.isVisible = true
+            } else {
+                binding.connectionTime.isVisible = false
+            }
+        }
+
+        fun refreshConnectionTimes() {
+            notifyItemRangeChanged(0, connections.size, PAYLOAD_CONNECTION_TIME)
+        }
+
         fun setData(newConnections: List<DeviceConnectionViewModel>) {
             val diff = DiffUtil.calculateDiff(object : DiffUtil.Callback() {
                 override fun getOldListSize(): Int = connections.size
@@ -161,8 +181,7 @@ class ConnectionMonitorFragment: Fragment() {
                         oldItem.contact.contact.uri == newItem.contact.contact.uri
                                 && oldItem.contact.displayName == newItem.contact.displayName
                     } else {
-                        // force update of connection time on refresh
-                        false
+                        oldItem.connection == newItem.connection
                     }
                 }
 
@@ -171,18 +190,25 @@ class ConnectionMonitorFragment: Fragment() {
             diff.dispatchUpdatesTo(this)
         }
         override fun getItemCount(): Int = connections.size
+
+        companion object {
+            private const val PAYLOAD_CONNECTION_TIME = "connectionTime"
+        }
     }
 
     override fun onStart() {
         super.onStart()
-        disposableBag.add((service.monitorConnections()
-            .switchMapSingle { (accountId, connections) ->
-                if (connections.isEmpty())
-                    Single.just(emptyList())
+        val peers = arguments?.getStringArray(KEY_PEERS)?.toSet()
+        // Contact profiles and names are loaded once per peer by the contact service, and kept up to date
+        disposableBag.add(service.monitorConnections(peers)
+            .switchMap { changes ->
+                if (changes.connections.isEmpty())
+                    Observable.just(emptyList())
                 else
-                    Single.zip(connections
+                    Observable.combineLatest(changes.connections
                         .map { (peer, connections) ->
-                            contactService.getLoadedContact(accountId, peer).map { Pair(it, connections) }
+                            contactService.observeContact(changes.accountId, Uri.fromString(peer), false)
+                                .map { Pair(it, connections) }
                         }) { it.map { it as Pair<ContactViewModel, List<AccountService.DeviceConnection>> } }
             }
             .observeOn(AndroidSchedulers.mainThread())
@@ -196,7 +222,12 @@ class ConnectionMonitorFragment: Fragment() {
                     }
                     list
                 })
-            }))
+            })
+        // Connections are only emitted when they change: refresh the connection times locally
+        disposableBag.add(Observable.interval(CONNECTION_TIME_REFRESH_S, CONNECTION_TIME_REFRESH_S, TimeUnit.SECONDS, AndroidSchedulers.mainThread())
+            .subscribe {
+                (list?.adapter as? ConnectionAdapter)?.refreshConnectionTimes()
+            })
     }
 
     override fun onStop() {
@@ -204,4 +235,9 @@ class ConnectionMonitorFragment: Fragment() {
         disposableBag.clear()
     }
 
-}
\ No newline at end of file
+    companion object {
+        /** Optional peers to monitor the connections with, all peers if absent */
+        const val KEY_PEERS = "peers"
+        private const val CONNECTION_TIME_REFRESH_S = 10L
+    }
+}
@@ -62,7 +62,6 @@ import cx.ring.service.DRingService
 import cx.ring.service.LocationSharingService
 import cx.ring.services.NotificationServiceImpl
 import cx.ring.services.SharedPreferencesServiceImpl.Companion.getConversationColor
-import cx.ring.services.SharedPreferencesServiceImpl.Companion.getConversationPreferences
 import cx.ring.services.SharedPreferencesServiceImpl.Companion.getConversationSymbol
 import cx.ring.utils.*
 import cx.ring.utils.ContentUri.getShareItems
@@ -83,13 +82,13 @@ import net.jami.model.Call.CallStatus
 import net.jami.model.interaction.DataTransfer
 import net.jami.model.interaction.Interaction
 import net.jami.model.interaction.TextMessage
+import net.jami.services.HistoryService
 import net.jami.services.NotificationService
 import net.jami.services.PeerServicesService
 import net.jami.services.PeerServicesStatus
 import net.jami.smartlist.ConversationItemViewModel
 import java.io.File
 import java.util.*
-import androidx.core.content.edit
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import cx.ring.client.HomeActivity
 import javax.inject.Inject
@@ -104,7 +103,8 @@ class ConversationFragment : BaseSupportFragment<ConversationPresenter, Conversa
     private var mAdapter: ConversationAdapter? = null
     private var mSearchAdapter: ConversationAdapter? = null
     private val animation = ValueAnimator()
-    private var mPreferences: SharedPreferences? = null
+    /** Conversation whose local preferences hold the pending message */
+    private var mPreferencesPath: ConversationPath? = null
     private var mCurrentPhoto: File? = null
     private var mCurrentFileAbsolutePath: String? = null
     private val mCompositeDisposable = CompositeDisposable()
@@ -124,6 +124,7 @@ class ConversationFragment : BaseSupportFragment<ConversationPresenter, Conversa
     private var inlineAudioRecorder: InlineAudioRecorder? = null
 
     @Inject lateinit var peerServicesService: PeerServicesService
+    @Inject lateinit var mHistoryService: HistoryService
     @Named("UiScheduler") @Inject lateinit var uiScheduler: Scheduler
 
     private fun isImeAnimation(a: WindowInsetsAnimationCompat): Boolean {
@@ -314,10 +315,9 @@ class ConversationFragment : BaseSupportFragment<ConversationPresenter, Conversa
                         msgSend.visibility = View.GONE
                         emojiSend.visibility = View.VISIBLE
                     }
-                    mPreferences?.let { preferences ->
-                        if (hasMessage)
-                            preferences.edit { putString(KEY_PREFERENCE_PENDING_MESSAGE, message) }
-                        else preferences.edit { remove(KEY_PREFERENCE_PENDING_MESSAGE) }
+                    mPreferencesPath?.let { path ->
+                        mHistoryService.setConversationPreferences(path.accountId, path.conversationUri,
+                            mapOf(KEY_PREFERENCE_PENDING_MESSAGE to if (hasMessage) message else null))
                     }
                 }
             })
@@ -372,13 +372,19 @@ class ConversationFragment : BaseSupportFragment<ConversationPresenter, Conversa
             }
         }
         binding?.apply {
-            mPreferences?.let { preferences ->
-                val pendingMessage = preferences.getString(KEY_PREFERENCE_PENDING_MESSAGE, null)
-                if (!pendingMessage.isNullOrEmpty()) {
-                    msgInputTxt.setText(pendingMessage)
-                    msgSend.visibility = View.VISIBLE
-                    emojiSend.visibility = View.GONE
-                }
+            mPreferencesPath?.let { path ->
+                mCompositeDisposable.add(mHistoryService.loadConversationPreferences(path.accountId)
+                    .observeOn(DeviceUtils.uiScheduler)
+                    .subscribe({
+                        // Preferences are loaded, so they are read without waiting
+                        val pendingMessage = mHistoryService.getConversationPreferences(path.accountId, path.conversationUri)[KEY_PREFERENCE_PENDING_MESSAGE]
+                        // Not replacing what was typed meanwhile
+                        if (!pendingMessage.isNullOrEmpty() && msgInputTxt.text.isNullOrEmpty()) {
+                            msgInputTxt.setText(pendingMessage)
+                            msgSend.visibility = View.VISIBLE
+                            emojiSend.visibility = View.GONE
+                        }
+                    }) { e -> Log.w(TAG, "Unable to load the pending message", e) })
             }
 
             histList.addOnScrollListener(object : RecyclerView.OnScrollListener() {
@@ -804,6 +810,26 @@ class ConversationFragment : BaseSupportFragment<ConversationPresenter, Conversa
         mAdapter?.update(element)
     }
 
+    override fun applyChanges(changes: HistoryChanges) {
+        val adapter = mAdapter ?: return
+        val addedAtEnd = adapter.applyChanges(changes)
+        if (addedAtEnd == null) {
+            Log.w(TAG, "History changes don't match the displayed history, refreshing it")
+            presenter.refreshHistory()
+            return
+        }
+        if (addedAtEnd) {
+            val last = changes.inserted.last().interactions.last()
+            if (last.type != Interaction.InteractionType.INVALID) {
+                scrollToEnd()
+                if (changes.inserted.any { range -> range.interactions.any { it.isIncoming && !it.body.isNullOrEmpty() } })
+                    announceIncomingMessageForAccessibility()
+            }
+        }
+        if (changes.inserted.isNotEmpty())
+            loading = false
+    }
+
     override fun removeElement(element: Interaction) {
         mAdapter?.remove(element)
     }
@@ -935,16 +961,10 @@ class ConversationFragment : BaseSupportFragment<ConversationPresenter, Conversa
         mSearchAdapter = ConversationAdapter(this, presenter, isSearch = true)
         presenter.init(path.conversationUri, path.accountId)
 
-        // Load shared preferences. Usually useful for non-swarm conversations.
-        try {
-            mPreferences = getConversationPreferences(
-                    requireContext(), path.accountId, path.conversationUri
-            ).also { sharedPreferences ->
-                sharedPreferences.edit { remove(KEY_PREFERENCE_CONVERSATION_LAST_READ) }
-            }
-        } catch (e: Exception) {
-            Log.e(TAG, "Unable to load conversation preferences")
-        }
+        // Local conversation preferences. Usually useful for non-swarm conversations.
+        mPreferencesPath = path
+        mHistoryService.setConversationPreferences(path.accountId, path.conversationUri,
+            mapOf(KEY_PREFERENCE_CONVERSATION_LAST_READ to null))
 
         var connection = locationServiceConnection
         if (connection == null) {
@@ -39,6 +39,15 @@ class DatabaseHelper(context: Context?, dbDirectory: String) :
     val interactionDataDao: Dao<Interaction, Int> by lazy { getDao(Interaction::class.java) }
     val conversationDataDao: Dao<ConversationHistory, Int> by lazy { getDao(ConversationHistory::class.java) }
 
+    /**
+     * Enables write-ahead logging, so that reads from the history readers are not blocked by
+     * a write in progress on the account writer (see HistoryService).
+     */
+    override fun onConfigure(db: SQLiteDatabase) {
+        super.onConfigure(db)
+        db.enableWriteAheadLogging()
+    }
+
     /**
      * This is called when the database is first created. Usually you should call createTable statements here to create
      * the tables that will store your data.
@@ -49,6 +58,10 @@ class DatabaseHelper(context: Context?, dbDirectory: String) :
             try {
                 TableUtils.createTable(connectionSource, ConversationHistory::class.java)
                 TableUtils.createTable(connectionSource, Interaction::class.java)
+                createLastInteractionTable(db)
+                createPreferencesTable(db)
+                createSwarmMessageTable(db)
+                createMessageIndexTables(db)
                 db.setTransactionSuccessful()
             } catch (e: SQLException) {
                 Log.e(TAG, "Can't create database", e)
@@ -101,6 +114,11 @@ class DatabaseHelper(context: Context?, dbDirectory: String) :
                     7 -> updateDatabaseFrom7(db)
                     8 -> updateDatabaseFrom8(connectionSource)
                     9 -> updateDatabaseFrom9(db)
+                    10 -> updateDatabaseFrom10(db)
+                    11 -> updateDatabaseFrom11(db)
+                    12 -> updateDatabaseFrom12(db)
+                    13 -> updateDatabaseFrom13(db)
+                    14 -> updateDatabaseFrom14(db)
                 }
                 fromVersion++
             }
@@ -395,8 +413,269 @@ FROM   historydata
         }
     }
 
+    /**
+     * This updates the database to version 11 which adds the conversation_last_interaction table,
+     * populated from the existing interactions.
+     *
+     * @param db the database to migrate
+     * @throws SQLiteException
+     */
+    @Throws(SQLiteException::class)
+    private fun updateDatabaseFrom10(db: SQLiteDatabase?) {
+        if (db != null && db.isOpen) {
+            try {
+                Log.d(TAG, "updateDatabaseFrom10: Will begin migration from database version 10 to next.")
+                db.beginTransaction()
+                createLastInteractionTable(db)
+                db.execSQL(
+                    """
+    INSERT OR REPLACE INTO conversation_last_interaction (conversation, interaction)
+    SELECT conversation, interaction FROM (
+        SELECT conversations.id AS conversation,
+               (SELECT interactions.id FROM interactions
+                WHERE interactions.conversation = conversations.id
+                ORDER BY interactions.timestamp DESC, interactions.id DESC LIMIT 1) AS interaction
+        FROM conversations)
+    WHERE interaction IS NOT NULL
+    """.trimIndent()
+                )
+                db.setTransactionSuccessful()
+                db.endTransaction()
+                Log.d(TAG, "updateDatabaseFrom10: Migration from database version 10 to next, done.")
+            } catch (exception: SQLiteException) {
+                Log.e(TAG, "updateDatabaseFrom10: Migration from database version 10 to next, failed.", exception)
+                throw exception
+            }
+        }
+    }
+
+    /**
+     * This updates the database to version 12 which adds the conversation_preferences table.
+     * Preferences are moved there from the legacy shared preferences by the history service.
+     *
+     * @param db the database to migrate
+     * @throws SQLiteException
+     */
+    @Throws(SQLiteException::class)
+    private fun updateDatabaseFrom11(db: SQLiteDatabase?) {
+        if (db != null && db.isOpen) {
+            try {
+                Log.d(TAG, "updateDatabaseFrom11: Will begin migration from database version 11 to next.")
+                createPreferencesTable(db)
+                Log.d(TAG, "updateDatabaseFrom11: Migration from database version 11 to next, done.")
+            } catch (exception: SQLiteException) {
+                Log.e(TAG, "updateDatabaseFrom11: Migration from database version 11 to next, failed.", exception)
+                throw exception
+            }
+        }
+    }
+
+    /**
+     * This updates the database to version 13 which adds the swarm_messages table, a cache of
+     * the recent messages of swarm conversations. It is filled as conversations are loaded.
+     *
+     * @param db the database to migrate
+     * @throws SQLiteException
+     */
+    @Throws(SQLiteException::class)
+    private fun updateDatabaseFrom12(db: SQLiteDatabase?) {
+        if (db != null && db.isOpen) {
+            try {
+                Log.d(TAG, "updateDatabaseFrom12: Will begin migration from database version 12 to next.")
+                createSwarmMessageTable(db)
+                Log.d(TAG, "updateDatabaseFrom12: Migration from database version 12 to next, done.")
+            } catch (exception: SQLiteException) {
+                Log.e(TAG, "updateDatabaseFrom12: Migration from database version 12 to next, failed.", exception)
+                throw exception
+            }
+        }
+    }
+
+    /**
+     * This updates the database to version 14 which adds the message_index table and its
+     * message_search full-text index. Existing legacy text messages are indexed, swarm
+     * messages are indexed as they are loaded or received.
+     *
+     * @param db the database to migrate
+     * @throws SQLiteException
+     */
+    @Throws(SQLiteException::class)
+    private fun updateDatabaseFrom13(db: SQLiteDatabase?) {
+        if (db != null && db.isOpen) {
+            try {
+                Log.d(TAG, "updateDatabaseFrom13: Will begin migration from database version 13 to next.")
+                createMessageIndexTables(db)
+                indexLegacyMessages(db)
+                Log.d(TAG, "updateDatabaseFrom13: Migration from database version 13 to next, done.")
+            } catch (exception: SQLiteException) {
+                Log.e(TAG, "updateDatabaseFrom13: Migration from database version 13 to next, failed.", exception)
+                throw exception
+            }
+        }
+    }
+
+    /**
+     * This updates the database to version 15 which adds the trigger keeping
+     * conversation_last_interaction up to date when the timestamp of an interaction changes.
+     *
+     * @param db the database to migrate
+     * @throws SQLiteException
+     */
+    @Throws(SQLiteException::class)
+    private fun updateDatabaseFrom14(db: SQLiteDatabase?) {
+        if (db != null && db.isOpen) {
+            try {
+                Log.d(TAG, "updateDatabaseFrom14: Will begin migration from database version 14 to next.")
+                createLastInteractionTable(db)
+                Log.d(TAG, "updateDatabaseFrom14: Migration from database version 14 to next, done.")
+            } catch (exception: SQLiteException) {
+                Log.e(TAG, "updateDatabaseFrom14: Migration from database version 14 to next, failed.", exception)
+                throw exception
+            }
+        }
+    }
+
+    /**
+     * Creates the table of the searchable messages, by conversation and message id, and the
+     * full-text index of their text, kept up to date by triggers (see HistoryService).
+     * Legacy messages are indexed by interaction id, with the participant as conversation.
+     */
+    private fun createMessageIndexTables(db: SQLiteDatabase) {
+        db.execSQL(
+            "CREATE TABLE IF NOT EXISTS `message_index` " +
+                    "(`id` INTEGER PRIMARY KEY AUTOINCREMENT, `conversation` TEXT NOT NULL, `message_id` TEXT NOT NULL, " +
+                    "`author` TEXT, `type` TEXT, `timestamp` INTEGER NOT NULL, `body` TEXT, `data` TEXT, `interaction` INTEGER, " +
+                    "UNIQUE (`conversation`, `message_id`));"
+        )
+        db.execSQL(
+            "CREATE INDEX IF NOT EXISTS `message_index_conversation_timestamp_idx` " +
+                    "ON `message_index` ( `conversation`, `timestamp` );"
+        )
+        db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `message_search` USING fts4(content=`message_index`, `body`, tokenize=unicode61);")
+        db.execSQL(
+            "CREATE TRIGGER IF NOT EXISTS `message_index_before_update` BEFORE UPDATE ON `message_index` " +
+                    "BEGIN DELETE FROM `message_search` WHERE docid = OLD.id; END;"
+        )
+        db.execSQL(
+            "CREATE TRIGGER IF NOT EXISTS `message_index_before_delete` BEFORE DELETE ON `message_index` " +
+                    "BEGIN DELETE FROM `message_search` WHERE docid = OLD.id; END;"
+        )
+        db.execSQL(
+            "CREATE TRIGGER IF NOT EXISTS `message_index_after_update` AFTER UPDATE ON `message_index` " +
+                    "BEGIN INSERT INTO `message_search` (docid, `body`) VALUES (NEW.id, NEW.body); END;"
+        )
+        db.execSQL(
+            "CREATE TRIGGER IF NOT EXISTS `message_index_after_insert` AFTER INSERT ON `message_index` " +
+                    "BEGIN INSERT INTO `message_search` (docid, `body`) VALUES (NEW.id, NEW.body); END;"
+        )
+    }
+
+    /**
+     * Indexes the existing legacy text messages, by interaction id with the participant as
+     * conversation, like HistoryService does when they are inserted.
+     */
+    private fun indexLegacyMessages(db: SQLiteDatabase) {
+        db.execSQL(
+            "INSERT OR IGNORE INTO `message_index` (`conversation`, `message_id`, `author`, `type`, `timestamp`, `body`, `interaction`) " +
+                    "SELECT c.`participant`, CAST(i.`id` AS TEXT), i.`author`, 'text/plain', i.`timestamp`, i.`body`, i.`id` " +
+                    "FROM `interactions` AS i JOIN `conversations` AS c ON c.`id` = i.`conversation` " +
+                    "WHERE i.`type` = 'TEXT';"
+        )
+    }
+
+    /**
+     * Creates the table caching the recent messages of swarm conversations, by conversation id and
+     * message id, with the message timestamp to find the most recent ones (see HistoryService).
+     */
+    private fun createSwarmMessageTable(db: SQLiteDatabase) {
+        db.execSQL(
+            "CREATE TABLE IF NOT EXISTS `swarm_messages` " +
+                    "(`conversation` TEXT NOT NULL, `message_id` TEXT NOT NULL, `timestamp` INTEGER NOT NULL, " +
+                    "`data` TEXT NOT NULL, PRIMARY KEY (`conversation`, `message_id`));"
+        )
+        db.execSQL(
+            "CREATE INDEX IF NOT EXISTS `swarm_messages_timestamp_idx` " +
+                    "ON `swarm_messages` ( `conversation`, `timestamp` );"
+        )
+    }
+
+    /**
+     * Creates the table holding the local preferences of each conversation, by conversation uri.
+     */
+    private fun createPreferencesTable(db: SQLiteDatabase) {
+        db.execSQL(
+            "CREATE TABLE IF NOT EXISTS `conversation_preferences` " +
+                    "(`conversation` TEXT NOT NULL, `key` TEXT NOT NULL, `value` TEXT NOT NULL, " +
+                    "PRIMARY KEY (`conversation`, `key`));"
+        )
+    }
+
+    /**
+     * Creates the table holding the most recent interaction of each conversation, used to load the smartlist,
+     * and the triggers maintaining it when interactions are inserted, moved in time or deleted.
+     * Also indexes interactions by conversation and timestamp, to find the most recent interaction of a conversation.
+     */
+    private fun createLastInteractionTable(db: SQLiteDatabase) {
+        db.execSQL(
+            "CREATE TABLE IF NOT EXISTS `conversation_last_interaction` " +
+                    "(`conversation` INTEGER PRIMARY KEY NOT NULL, `interaction` INTEGER NOT NULL);"
+        )
+        db.execSQL(
+            "CREATE INDEX IF NOT EXISTS `interactions_conversation_timestamp_idx` " +
+                    "ON `interactions` ( `conversation`, `timestamp`, `id` );"
+        )
+        db.execSQL(
+            """
+    CREATE TRIGGER IF NOT EXISTS `interactions_last_insert` AFTER INSERT ON interactions
+    WHEN NOT EXISTS (SELECT 1 FROM conversation_last_interaction AS l
+                     JOIN interactions AS i ON i.id = l.interaction
+                     WHERE l.conversation = NEW.conversation
+                       AND (i.timestamp > NEW.timestamp OR (i.timestamp = NEW.timestamp AND i.id > NEW.id)))
+    BEGIN
+        INSERT OR REPLACE INTO conversation_last_interaction (conversation, interaction) VALUES (NEW.conversation, NEW.id);
+    END
+    """.trimIndent()
+        )
+        db.execSQL(
+            """
+    CREATE TRIGGER IF NOT EXISTS `interactions_last_delete` AFTER DELETE ON interactions
+    WHEN OLD.id = (SELECT interaction FROM conversation_last_interaction WHERE conversation = OLD.conversation)
+    BEGIN
+        DELETE FROM conversation_last_interaction WHERE conversation = OLD.conversation;
+        INSERT INTO conversation_last_interaction (conversation, interaction)
+        SELECT conversation, id FROM interactions WHERE conversation = OLD.conversation
+        ORDER BY timestamp DESC, id DESC LIMIT 1;
+    END
+    """.trimIndent()
+        )
+        db.execSQL(
+            """
+    CREATE TRIGGER IF NOT EXISTS `interactions_last_update` AFTER UPDATE OF timestamp, conversation ON interactions
+    WHEN OLD.timestamp IS NOT NEW.timestamp OR OLD.conversation IS NOT NEW.conversation
+    BEGIN
+        DELETE FROM conversation_last_interaction WHERE conversation IN (OLD.conversation, NEW.conversation);
+        INSERT INTO conversation_last_interaction (conversation, interaction)
+        SELECT conversation, id FROM interactions WHERE conversation = NEW.conversation
+        ORDER BY timestamp DESC, id DESC LIMIT 1;
+        INSERT INTO conversation_last_interaction (conversation, interaction)
+        SELECT conversation, id FROM interactions WHERE conversation = OLD.conversation AND OLD.conversation IS NOT NEW.conversation
+        ORDER BY timestamp DESC, id DESC LIMIT 1;
+    END
+    """.trimIndent()
+        )
+        db.execSQL(
+            """
+    CREATE TRIGGER IF NOT EXISTS `conversations_last_delete` AFTER DELETE ON conversations
+    BEGIN
+        DELETE FROM conversation_last_interaction WHERE conversation = OLD.id;
+    END
+    """.trimIndent()
+        )
+    }
+
     /**
      * Removes all the data from the database, ie all the tables.
+     * Virtual tables are dropped first, with the shadow tables holding their data.
      *
      * @param db the SQLiteDatabase to work with
      */
@@ -404,17 +683,21 @@ FROM   historydata
         if (db != null && db.isOpen) {
             Log.d(TAG, "clearDatabase: Will clear database.")
             val tableNames = ArrayList<String>()
-            db.rawQuery("SELECT name FROM sqlite_master WHERE type='table'", null).use { c ->
+            db.rawQuery("SELECT name FROM sqlite_master WHERE type='table' AND name NOT LIKE 'sqlite_%' " +
+                    "ORDER BY sql LIKE 'CREATE VIRTUAL TABLE%' DESC", null).use { c ->
                 tableNames.ensureCapacity(c.count)
                 while (c.moveToNext()) tableNames.add(c.getString(0))
             }
             try {
                 db.beginTransaction()
-                for (tableName in tableNames) {
-                    db.execSQL("DROP TABLE $tableName;")
+                try {
+                    for (tableName in tableNames) {
+                        db.execSQL("DROP TABLE IF EXISTS `$tableName`;")
+                    }
+                    db.setTransactionSuccessful()
+                } finally {
+                    db.endTransaction()
                 }
-                db.setTransactionSuccessful()
-                db.endTransaction()
                 Log.d(TAG, "clearDatabase: Database is cleared")
             } catch (exc: SQLiteException) {
                 exc.printStackTrace()
@@ -426,7 +709,7 @@ FROM   historydata
         private val TAG = DatabaseHelper::class.java.simpleName
 
         // any time you make changes to your database objects, you may have to increase the database version
-        private const val DATABASE_VERSION = 10
+        private const val DATABASE_VERSION = 15
     }
 
     init {
@@ -40,6 +40,7 @@ import io.reactivex.rxjava3.disposables.CompositeDisposable
 import net.jami.model.Conversation
 import net.jami.model.Settings
 import net.jami.services.*
+import java.util.concurrent.TimeUnit
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -182,6 +183,10 @@ class DRingService : Service() {
         monitor.disable(this)
         mHardwareService.unregisterCameraDetectionCallback()
         mDisposableBag.clear()
+        // Written on the database executors, off the main thread
+        mHistoryService.flushUpdates()
+            .timeout(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            .subscribe({}) { e -> Log.w(TAG, "Unable to write pending history updates", e) }
         isRunning = false
     }
 
@@ -383,6 +388,7 @@ class DRingService : Service() {
         const val KEY_TRANSFER_ID = "transferId"
         const val KEY_TEXT_REPLY = "textReply"
         private const val NOTIFICATION_ID = 1
+        private const val FLUSH_TIMEOUT_MS = 1000L
         var isRunning = false
     }
 }
\ No newline at end of file
@@ -17,7 +17,6 @@
 package cx.ring.services
 
 import android.content.Context
-import fi.iki.elonen.NanoHTTPD
 import io.reactivex.rxjava3.core.Observable
 import io.reactivex.rxjava3.subjects.BehaviorSubject
 import net.jami.daemon.JamiService
@@ -25,6 +24,7 @@ import net.jami.services.AccountService
 import net.jami.services.ExposedServiceInfo
 import net.jami.services.ExposedServiceType
 import net.jami.services.ExposedServicesService
+import net.jami.services.FileHttpServer
 import net.jami.utils.Log
 import java.io.File
 import java.io.IOException
@@ -34,7 +34,7 @@ class AndroidExposedServicesService(
     private val context: Context,
 ) : ExposedServicesService() {
     /** key = "$accountId/$serviceId" */
-    private val runningServers = mutableMapOf<String, NanoHTTPD>()
+    private val runningServers = mutableMapOf<String, FileHttpServer>()
 
     private val hostingActiveSubject = BehaviorSubject.createDefault(false).toSerialized()
 
@@ -76,8 +76,8 @@ class AndroidExposedServicesService(
 
     private fun serverKey(accountId: String, serviceId: String) = "$accountId/$serviceId"
 
-    private fun startServer(accountId: String, serviceId: String, directory: String): NanoHTTPD? {
-        val server: NanoHTTPD = if (isContentUri(directory)) {
+    private fun startServer(accountId: String, serviceId: String, directory: String): FileHttpServer? {
+        val server: FileHttpServer = if (isContentUri(directory)) {
             DocumentFileHttpServer.create(directory, context)
                 ?: return run { Log.e(TAG, "startServer: invalid SAF URI '$directory'"); null }
         } else {
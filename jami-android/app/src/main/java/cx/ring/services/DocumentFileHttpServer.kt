@@ -22,45 +22,16 @@ import android.net.Uri
 import android.os.ParcelFileDescriptor
 import android.webkit.MimeTypeMap
 import androidx.documentfile.provider.DocumentFile
-import fi.iki.elonen.NanoHTTPD
+import net.jami.services.FileHttpServer
 import net.jami.utils.Log
-import java.io.FileInputStream
-import java.io.FilterInputStream
 import java.io.IOException
-import java.net.ServerSocket
-
-// Parses "Range: bytes=start-end", "bytes=start-", "bytes=-suffix".
-// Returns Pair(start, end) inclusive, or null if absent/invalid.
-private fun parseRangeHeader(header: String?, fileSize: Long): Pair<Long, Long>? {
-    if (header == null || !header.startsWith("bytes=")) return null
-    val spec = header.removePrefix("bytes=").trim()
-    val dash = spec.indexOf('-')
-    if (dash < 0) return null
-    val startStr = spec.substring(0, dash).trim()
-    val endStr = spec.substring(dash + 1).trim()
-    return try {
-        when {
-            startStr.isEmpty() -> {
-                val suffix = endStr.toLong()
-                if (suffix <= 0) return null
-                Pair(maxOf(0L, fileSize - suffix), fileSize - 1)
-            }
-            endStr.isEmpty() -> Pair(startStr.toLong(), fileSize - 1)
-            else -> {
-                val s = startStr.toLong(); val e = endStr.toLong()
-                if (s > e) return null
-                Pair(s, minOf(e, fileSize - 1))
-            }
-        }.takeIf { (s, e) -> s >= 0 && s < fileSize && s <= e }
-    } catch (_: NumberFormatException) { null }
-}
 
 class DocumentFileHttpServer private constructor(
     private val rootDoc: DocumentFile,
     private val contentResolver: ContentResolver,
     private val context: Context,
     port: Int,
-) : NanoHTTPD("localhost", port) {
+) : FileHttpServer(port = port) {
     private val docCache = java.util.Collections.synchronizedMap(
         object : LinkedHashMap<String, DocumentFile>(64, 0.75f, true) {
             override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, DocumentFile>) = size > 256
@@ -69,17 +40,17 @@ class DocumentFileHttpServer private constructor(
 
     val boundPort: Int get() = listeningPort
 
-    override fun serve(session: IHTTPSession): Response {
-        val urlPath = session.uri.trimStart('/').trimEnd('/')
+    override fun resolve(path: String): Resource {
+        val urlPath = path.trimStart('/').trimEnd('/')
         val segments = if (urlPath.isEmpty()) emptyList() else urlPath.split('/')
 
         val target = resolveWithCache(urlPath, segments)
 
         return when {
-            target == null -> newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Not Found")
+            target == null -> Resource.Page(Status.NOT_FOUND, MIME_PLAINTEXT, "Not Found")
             target.isDirectory -> serveDirectory(target, urlPath)
-            target.isFile -> serveFile(target, session.headers["range"])
-            else -> newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Not Found")
+            target.isFile -> serveFile(target)
+            else -> Resource.Page(Status.NOT_FOUND, MIME_PLAINTEXT, "Not Found")
         }
     }
 
@@ -99,58 +70,27 @@ class DocumentFileHttpServer private constructor(
         return current
     }
 
-    private fun serveFile(file: DocumentFile, rangeHeader: String?): Response {
+    private fun serveFile(file: DocumentFile): Resource {
         val ext = file.name?.substringAfterLast('.', "")?.lowercase() ?: ""
         val mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(ext) ?: file.type ?: "application/octet-stream"
-        return try {
-            val fileSize = file.length()
-            if (fileSize <= 0) {
-                // Size unknown (some SAF providers return 0) — fall back to chunked, no Range support
-                val stream = contentResolver.openInputStream(file.uri)
-                    ?: return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, "Cannot open file")
-                return newChunkedResponse(Response.Status.OK, mime, stream)
-                    .also { it.addHeader("Cache-Control", "public, max-age=300") }
+        val fileSize = file.length()
+        if (fileSize <= 0) {
+            // Size unknown (some SAF providers return 0) — stream until the end, no Range support
+            return Resource.Stream(mime) {
+                contentResolver.openInputStream(file.uri) ?: throw IOException("Cannot open file")
             }
-
-            val range = parseRangeHeader(rangeHeader, fileSize)
-
-            if (rangeHeader != null && range == null) {
-                // Range header present but unparseable/out-of-bounds → 416
-                return newFixedLengthResponse(
-                    Response.Status.RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT, "Range Not Satisfiable"
-                ).also { it.addHeader("Content-Range", "bytes */$fileSize") }
-            }
-
-            val (start, end) = range ?: Pair(0L, fileSize - 1)
-            val length = end - start + 1
-            val status = if (range != null) Response.Status.PARTIAL_CONTENT else Response.Status.OK
-
-            // Open via ParcelFileDescriptor for efficient lseek on range seeks.
-            // Wrap in FilterInputStream so closing the stream also closes the PFD.
-            val pfd: ParcelFileDescriptor = contentResolver.openFileDescriptor(file.uri, "r")
-                ?: return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, "Cannot open file")
-            val fis = FileInputStream(pfd.fileDescriptor)
-            if (start > 0) fis.channel.position(start)
-            val stream = object : FilterInputStream(fis) {
-                override fun close() = try { super.close() } finally { pfd.close() }
-            }
-
-            newFixedLengthResponse(status, mime, stream, length).also { r ->
-                r.addHeader("Accept-Ranges", "bytes")
-                r.addHeader("Cache-Control", "public, max-age=300")
-                if (range != null)
-                    r.addHeader("Content-Range", "bytes $start-$end/$fileSize")
-            }
-        } catch (e: IOException) {
-            Log.e(TAG, "serveFile: error reading '${file.name}'", e)
-            newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, "Internal Error")
+        }
+        // The channel closes the file descriptor when closed
+        return Resource.File(fileSize, file.lastModified(), mime) {
+            val pfd = contentResolver.openFileDescriptor(file.uri, "r") ?: throw IOException("Cannot open file")
+            ParcelFileDescriptor.AutoCloseInputStream(pfd).channel
         }
     }
 
-    private fun serveDirectory(dir: DocumentFile, urlPath: String): Response {
+    private fun serveDirectory(dir: DocumentFile, urlPath: String): Resource {
         // Prefer index.html if present
         val index = dir.findFile("index.html")
-        if (index != null && index.isFile) return serveFile(index, null)
+        if (index != null && index.isFile) return serveFile(index)
 
         val displayPath = "/$urlPath".ifEmpty { "/" }
         val sb = StringBuilder()
@@ -177,7 +117,7 @@ class DocumentFileHttpServer private constructor(
             }
 
         sb.append("</table></body></html>")
-        return newFixedLengthResponse(Response.Status.OK, "text/html", sb.toString())
+        return Resource.Page(Status.OK, MIME_HTML, sb.toString())
     }
 
     private fun formatSize(bytes: Long): String = when {
@@ -189,13 +129,6 @@ class DocumentFileHttpServer private constructor(
     companion object {
         private const val TAG = "DocumentFileHttpServer"
 
-        private fun pickFreePort(): Int = try {
-            ServerSocket(0).use { it.localPort }
-        } catch (e: IOException) {
-            Log.e(TAG, "Failed to pick free port", e)
-            0
-        }
-
         fun create(treeUri: String, context: Context, port: Int = 0): DocumentFileHttpServer? {
             val uri = Uri.parse(treeUri)
             val doc = DocumentFile.fromTreeUri(context, uri)
@@ -203,9 +136,8 @@ class DocumentFileHttpServer private constructor(
                 Log.e(TAG, "create: URI is not a valid directory tree: $treeUri")
                 return null
             }
-            val boundPort = if (port == 0) pickFreePort() else port
-            Log.i(TAG, "create: root='${doc.name}' uri='${doc.uri}' port=$boundPort")
-            return DocumentFileHttpServer(doc, context.contentResolver, context, boundPort)
+            Log.i(TAG, "create: root='${doc.name}' uri='${doc.uri}' port=$port")
+            return DocumentFileHttpServer(doc, context.contentResolver, context, port)
         }
     }
 }
@@ -17,106 +17,48 @@
 package cx.ring.services
 
 import android.webkit.MimeTypeMap
-import fi.iki.elonen.NanoHTTPD
+import net.jami.services.FileHttpServer
 import net.jami.utils.Log
 import java.io.File
-import java.io.FileInputStream
-import java.io.IOException
-import java.net.ServerSocket
-
-// Parses "Range: bytes=start-end", "bytes=start-", "bytes=-suffix".
-// Returns Pair(start, end) inclusive, or null if absent/invalid.
-private fun parseRangeHeader(header: String?, fileSize: Long): Pair<Long, Long>? {
-    if (header == null || !header.startsWith("bytes=")) return null
-    val spec = header.removePrefix("bytes=").trim()
-    val dash = spec.indexOf('-')
-    if (dash < 0) return null
-    val startStr = spec.substring(0, dash).trim()
-    val endStr = spec.substring(dash + 1).trim()
-    return try {
-        when {
-            startStr.isEmpty() -> {
-                // bytes=-N: last N bytes
-                val suffix = endStr.toLong()
-                if (suffix <= 0) return null
-                Pair(maxOf(0L, fileSize - suffix), fileSize - 1)
-            }
-            endStr.isEmpty() -> Pair(startStr.toLong(), fileSize - 1)
-            else -> {
-                val s = startStr.toLong(); val e = endStr.toLong()
-                if (s > e) return null
-                Pair(s, minOf(e, fileSize - 1))
-            }
-        }.takeIf { (s, e) -> s >= 0 && s < fileSize && s <= e }
-    } catch (_: NumberFormatException) { null }
-}
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
 
 class EmbeddedHttpServer(
     private val rootDirectory: File,
     port: Int = 0,
-) : NanoHTTPD("localhost", if (port == 0) pickFreePort() else port) {
+) : FileHttpServer(port = port) {
+    private val rootPath = rootDirectory.canonicalPath
+
     val boundPort: Int get() = listeningPort
 
-    override fun serve(session: IHTTPSession): Response {
-        val uriPath = session.uri.trimStart('/')
+    override fun resolve(path: String): Resource {
+        val uriPath = path.trimStart('/')
 
         // Resolve the requested path relative to the root, rejecting traversal
         val target = File(rootDirectory, uriPath).canonicalFile
-        if (!target.absolutePath.startsWith(rootDirectory.canonicalPath)) {
-            Log.w(TAG, "Path traversal rejected: ${session.uri}")
-            return newFixedLengthResponse(Response.Status.FORBIDDEN, MIME_PLAINTEXT, "Forbidden")
+        if (!target.absolutePath.startsWith(rootPath)) {
+            Log.w(TAG, "Path traversal rejected: $path")
+            return Resource.Page(Status.FORBIDDEN, MIME_PLAINTEXT, "Forbidden")
         }
 
         return when {
             target.isDirectory -> serveDirectory(target, uriPath)
-            target.isFile -> serveFile(target, session.headers["range"])
-            else -> newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Not Found")
+            target.isFile -> serveFile(target)
+            else -> Resource.Page(Status.NOT_FOUND, MIME_PLAINTEXT, "Not Found")
         }
     }
 
-    private fun serveFile(file: File, rangeHeader: String?): Response {
-        val ext = file.extension.lowercase()
-        val mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(ext) ?: "application/octet-stream"
-        val lastModifiedFmt = java.text.SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", java.util.Locale.US)
-            .apply { timeZone = java.util.TimeZone.getTimeZone("GMT") }
-            .format(java.util.Date(file.lastModified()))
-        return try {
-            val fileSize = file.length()
-            val range = parseRangeHeader(rangeHeader, fileSize)
-
-            if (range != null) {
-                val (start, end) = range
-                if (start >= fileSize || start > end) {
-                    return newFixedLengthResponse(
-                        Response.Status.RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT, "Range Not Satisfiable"
-                    ).also { it.addHeader("Content-Range", "bytes */$fileSize") }
-                }
-                val length = end - start + 1
-                val fis = FileInputStream(file)
-                fis.channel.position(start)   // efficient lseek — no byte-by-byte skipping
-                newFixedLengthResponse(Response.Status.PARTIAL_CONTENT, mime, fis, length).also { r ->
-                    r.addHeader("Content-Range", "bytes $start-$end/$fileSize")
-                    r.addHeader("Accept-Ranges", "bytes")
-                    r.addHeader("Last-Modified", lastModifiedFmt)
-                    r.addHeader("Cache-Control", "public, max-age=300")
-                }
-            } else {
-                newFixedLengthResponse(Response.Status.OK, mime, FileInputStream(file), fileSize).also { r ->
-                    r.addHeader("Accept-Ranges", "bytes")
-                    r.addHeader("Last-Modified", lastModifiedFmt)
-                    r.addHeader("Cache-Control", "public, max-age=300")
-                }
-            }
-        } catch (e: IOException) {
-            Log.e(TAG, "Error reading file: ${file.path}", e)
-            newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, "Internal Error")
+    private fun serveFile(file: File): Resource {
+        val mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(file.extension.lowercase()) ?: "application/octet-stream"
+        return Resource.File(file.length(), file.lastModified(), mime) {
+            FileChannel.open(file.toPath(), StandardOpenOption.READ)
         }
     }
 
-    private fun serveDirectory(dir: File, urlPath: String): Response {
+    private fun serveDirectory(dir: File, urlPath: String): Resource {
         // Try index.html first
         val index = File(dir, "index.html")
-        if (index.isFile) return serveFile(index, null)
+        if (index.isFile) return serveFile(index)
 
         // Generate a directory listing
         val displayPath = "/$urlPath".trimEnd('/').ifEmpty { "/" }
@@ -141,7 +83,7 @@ class EmbeddedHttpServer(
             }
 
         sb.append("</table></body></html>")
-        return newFixedLengthResponse(Response.Status.OK, "text/html", sb.toString())
+        return Resource.Page(Status.OK, MIME_HTML, sb.toString())
     }
 
     private fun formatSize(bytes: Long): String = when {
@@ -152,13 +94,5 @@ class EmbeddedHttpServer(
 
     companion object {
         private const val TAG = "EmbeddedHttpServer"
-        private fun pickFreePort(): Int {
-            return try {
-                ServerSocket(0).use { it.localPort }
-            } catch (e: IOException) {
-                Log.e(TAG, "Failed to pick free port", e)
-                0
-            }
-        }
     }
 }
@@ -19,11 +19,9 @@ package cx.ring.services
 import android.content.Context
 import com.j256.ormlite.dao.Dao
 import com.j256.ormlite.support.ConnectionSource
-import cx.ring.fragments.ConversationFragment
 import cx.ring.history.DatabaseHelper
 import net.jami.model.ConversationHistory
 import net.jami.model.interaction.Interaction
-import net.jami.model.Uri
 import net.jami.services.HistoryService
 import java.io.File
 import java.util.concurrent.ConcurrentHashMap
@@ -82,15 +80,29 @@ class HistoryServiceImpl(private val mContext: Context) : HistoryService() {
         if (accountDir.exists()) deleteFolder(accountDir)
     }
 
-    override fun setMessageNotified(accountId: String, conversationUri: Uri, lastId: String) {
-        val preferences = mContext.getSharedPreferences(accountId + "_" + conversationUri.uri, Context.MODE_PRIVATE)
-        preferences.edit()
-            .putString(ConversationFragment.KEY_PREFERENCE_CONVERSATION_LAST_READ, lastId).apply()
+    /**
+     * Conversation preferences used to be stored in a shared preferences file per conversation,
+     * named after the account id and the conversation uri.
+     */
+    override fun loadLegacyConversationPreferences(accountId: String): Map<String, Map<String, String>> {
+        val prefix = accountId + "_"
+        val files = File(mContext.dataDir, SHARED_PREFERENCES_DIR).list() ?: return emptyMap()
+        val preferences = HashMap<String, Map<String, String>>()
+        for (file in files) {
+            if (!file.startsWith(prefix) || !file.endsWith(SHARED_PREFERENCES_SUFFIX))
+                continue
+            val name = file.removeSuffix(SHARED_PREFERENCES_SUFFIX)
+            val values = HashMap<String, String>()
+            for ((key, value) in mContext.getSharedPreferences(name, Context.MODE_PRIVATE).all)
+                if (value != null) values[key] = value.toString()
+            preferences[name.substring(prefix.length)] = values
+        }
+        return preferences
     }
 
-    override fun getLastMessageNotified(accountId: String, conversationUri: Uri): String? {
-        val preferences = mContext.getSharedPreferences(accountId + "_" + conversationUri.uri, Context.MODE_PRIVATE)
-        return preferences.getString(ConversationFragment.KEY_PREFERENCE_CONVERSATION_LAST_READ, null)
+    override fun deleteLegacyConversationPreferences(accountId: String, conversations: Collection<String>) {
+        for (conversation in conversations)
+            mContext.deleteSharedPreferences(accountId + "_" + conversation)
     }
 
     /**
@@ -110,5 +122,7 @@ class HistoryServiceImpl(private val mContext: Context) : HistoryService() {
 
     companion object {
         private const val DATABASE_NAME = "history.db"
+        private const val SHARED_PREFERENCES_DIR = "shared_prefs"
+        private const val SHARED_PREFERENCES_SUFFIX = ".xml"
     }
 }
\ No newline at end of file
@@ -60,8 +60,6 @@ import cx.ring.utils.ConversationPath
 import cx.ring.utils.DeviceUtils
 import cx.ring.views.AvatarDrawable
 import cx.ring.views.AvatarFactory
-import cx.ring.views.AvatarFactory.toAdaptiveIcon
-import cx.ring.views.AvatarFactory.toBitmap
 import io.reactivex.rxjava3.core.Completable
 import io.reactivex.rxjava3.core.Maybe
 import io.reactivex.rxjava3.core.Single
@@ -99,6 +97,7 @@ class NotificationServiceImpl(
     private val callNotifications = ConcurrentHashMap<Int, Notification>()
     private val dataTransferNotifications = ConcurrentHashMap<Int, Notification>()
     private val fileTransferNotificationWorker = Schedulers.io().createWorker()
+    private val textNotificationCoalescer = TextNotificationCoalescer(Schedulers.computation(), onUpdate = ::updateTextNotification)
     private var pendingNotificationActions = ArrayList<() -> Unit>()
     private var pendingScreenshareCallbacks = HashMap<String, () -> Unit>()
     @Volatile private var callServiceStarted = false
@@ -579,8 +578,15 @@ class NotificationServiceImpl(
         return dataTransferNotifications[notificationId]
     }
 
-    override fun showTextNotification(conversation: Conversation) {
-        val texts = conversation.unreadTextMessages
+    override fun showTextNotification(conversation: Conversation, message: TextMessage?) {
+        if (!conversation.isNotificationEnabled || (!conversation.isBubble && conversation.isVisible)) {
+            cancelTextNotification(conversation.accountId, conversation.uri)
+            return
+        }
+        textNotificationCoalescer.update(conversation, message)
+    }
+
+    private fun updateTextNotification(conversation: Conversation, texts: TreeMap<Long, TextMessage>) {
         if (!conversation.isNotificationEnabled) {
             cancelTextNotification(conversation.accountId, conversation.uri)
             return
@@ -711,12 +717,11 @@ class NotificationServiceImpl(
         messageNotificationBuilder
             .setBubbleMetadata(NotificationCompat.BubbleMetadata.Builder(
                 PendingIntent.getActivity(mContext, 0, intentBubble, ContentUri.mutable(PendingIntent.FLAG_UPDATE_CURRENT)),
-                AvatarDrawable.Builder()
+                IconCompat.createWithAdaptiveBitmap(AvatarDrawable.Builder()
                     .withViewModel(cvm)
                     .withCircleCrop(false)
                     .withPresence(false)
-                    .build(mContext)
-                    .toAdaptiveIcon(avatarSize))
+                    .toAdaptiveBitmap(mContext, avatarSize)))
                 .setDesiredHeight(600)
                 .build())
             //.addPerson(conversationPerson)
@@ -1068,6 +1073,7 @@ class NotificationServiceImpl(
 
     override fun cancelTextNotification(accountId: String, contact: net.jami.model.Uri) {
         val notificationId = getTextNotificationId(accountId, contact)
+        textNotificationCoalescer.cancel(accountId, contact)
         notificationManager.cancel(notificationId)
         mNotificationBuilders.remove(notificationId)
     }
@@ -1094,6 +1100,7 @@ class NotificationServiceImpl(
     override fun cancelAll() {
         notificationManager.cancelAll()
         mNotificationBuilders.clear()
+        textNotificationCoalescer.clear()
     }
 
     private fun getIncomingTrustNotificationId(accountId: String): Int {
@@ -1114,30 +1121,27 @@ class NotificationServiceImpl(
                 .withContact(contact)
                 .withCircleCrop(true)
                 .withPresence(false)
-                .build(mContext)
-                .toBitmap(avatarSize)
+                .toBitmap(mContext, avatarSize)
         } catch (e: Exception) {
             null
         }
 
     private fun getAdaptiveContactPicture(contact: ContactViewModel): IconCompat? =
         try {
-            AvatarDrawable.Builder()
+            IconCompat.createWithAdaptiveBitmap(AvatarDrawable.Builder()
                 .withContact(contact)
                 .withCircleCrop(false)
                 .withPresence(false)
-                .build(mContext)
-                .toAdaptiveIcon(avatarSize)
+                .toAdaptiveBitmap(mContext, avatarSize))
         } catch (e: Exception) {
             null
         }
 
     private fun getContactPicture(conversation: Conversation): Bitmap? =
         try {
-            mContactService.getLoadedConversation(conversation).flatMap { vm ->
-                AvatarFactory.getAvatar(mContext, vm)
-                    .map { it.toBitmap(avatarSize) }
-            }.blockingGet()
+            mContactService.getLoadedConversation(conversation)
+                .map { vm -> getAvatar(vm) }
+                .blockingGet()
         } catch (e: Exception) {
             null
         }
@@ -1155,11 +1159,13 @@ class NotificationServiceImpl(
         }
 
     private fun getProfile(vm: ConversationItemViewModel): Pair<Bitmap, String> =
-        Pair(AvatarDrawable.Builder()
+        Pair(getAvatar(vm), vm.title)
+
+    private fun getAvatar(vm: ConversationItemViewModel): Bitmap =
+        AvatarDrawable.Builder()
             .withViewModel(vm)
             .withCircleCrop(true)
-            .build(mContext)
-            .toBitmap(avatarSize), vm.title)
+            .toBitmap(mContext, avatarSize)
 
     private fun getProfile(accountId:String, contact: Contact): ContactViewModel =
         getProfileSingle(accountId, contact).blockingGet()
@@ -22,7 +22,6 @@ import android.os.Build
 import android.text.TextUtils
 import androidx.annotation.ColorInt
 import androidx.appcompat.app.AppCompatDelegate
-import androidx.core.content.edit
 import androidx.preference.PreferenceManager
 import cx.ring.R
 import cx.ring.application.JamiApplication
@@ -36,11 +35,13 @@ import net.jami.model.Settings
 import net.jami.model.Uri
 import net.jami.services.AccountService
 import net.jami.services.DeviceRuntimeService
+import net.jami.services.HistoryService
 import net.jami.services.PreferencesService
 import java.util.*
 import kotlin.collections.HashMap
 
-class SharedPreferencesServiceImpl(private val context: Context, accountService: AccountService, deviceService: DeviceRuntimeService)
+class SharedPreferencesServiceImpl(private val context: Context, accountService: AccountService, deviceService: DeviceRuntimeService,
+                                   private val historyService: HistoryService)
     : PreferencesService(accountService, deviceService) {
     private val mNotifiedRequests: MutableMap<String, MutableSet<String>> = HashMap()
     private val mDonationSettingsSubject: Subject<DonationSettings> by lazy {
@@ -124,25 +125,23 @@ class SharedPreferencesServiceImpl(private val context: Context, accountService:
     }
 
     /**
-     * Load conversation preferences from the shared preferences.
+     * Load conversation preferences from the account database.
      */
     override fun getConversationPreferences(
         accountId: String,
         conversationUri: Uri,
     ): Map<String, String> =
-        getConversationPreferences(context, accountId, conversationUri)
-            .all.mapValuesTo(HashMap()) { (_, v) -> v.toString() }
+        historyService.getConversationPreferences(accountId, conversationUri)
 
     /**
-     * Save conversation preferences to the shared preferences.
+     * Save conversation preferences to the account database.
      */
     override fun setConversationPreferences(
         accountId: String,
         conversationUri: Uri,
         preferences: Map<String, String>,
     ) =
-        getConversationPreferences(context, accountId, conversationUri)
-            .edit { preferences.forEach { (k, v) -> putString(k, v) } }
+        historyService.setConversationPreferences(accountId, conversationUri, preferences)
 
 
     override fun hasNetworkConnected(): Boolean = NetworkUtils.isConnectivityAllowed(context)
@@ -220,9 +219,6 @@ class SharedPreferencesServiceImpl(private val context: Context, accountService:
         const val PREF_EXTENSIONS = "extensions"
         private const val PREF_LOG_IS_ACTIVE = "log_is_active"
 
-        fun getConversationPreferences(context: Context, accountId: String, conversationUri: Uri): SharedPreferences =
-            context.getSharedPreferences(accountId + "_" + conversationUri.uri, Context.MODE_PRIVATE)
-
         /** Compute conversation color from preference value, fallback on default */
         fun getConversationColor(context: Context, @ColorInt color: Int) =
             if (color != 0) color else context.getColor(R.color.conversation_primary_background)
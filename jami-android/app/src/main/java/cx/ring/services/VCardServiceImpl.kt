@@ -22,6 +22,7 @@ import ezvcard.VCard
 import net.jami.utils.VCardUtils
 import android.graphics.Bitmap
 import android.util.Base64
+import cx.ring.utils.AvatarCache
 import cx.ring.utils.BitmapUtils
 import ezvcard.parameter.ImageType
 import ezvcard.property.Photo
@@ -68,15 +69,7 @@ class VCardServiceImpl(private val mContext: Context) : VCardService() {
             .subscribeOn(Schedulers.io())
             .cache()
 
-    override fun loadConversationProfile(info: Map<String, String>): Single<Profile> =
-        Single.fromCallable {
-            val title = info["title"]
-            Profile(if (title.isNullOrBlank()) null else title, BitmapUtils.base64ToBitmap(info["avatar"]), info["description"])
-        }
-            .subscribeOn(Schedulers.computation())
-            .cache()
-
-    override fun base64ToBitmap(base64: String?): Any? = BitmapUtils.base64ToBitmap(base64)
+    override fun base64ToBitmap(base64: String?): Any? = AvatarCache.decode(base64)
 
     companion object {
         fun loadProfile(context: Context, account: Account): Observable<Profile> {
@@ -132,38 +125,26 @@ class VCardServiceImpl(private val mContext: Context) : VCardService() {
             if (cacheName.exists() && cacheName.lastModified() >= profileFile.lastModified()) {
                 return Profile(
                     cacheName.readText(),
-                    if (cachePicture.exists()) BitmapUtils.bytesToBitmap(cachePicture.readBytes()) else null
+                    AvatarCache.decode(cachePicture)
                 )
             }
 
             // Case 3: read profile from disk and update cache
             val (name, picture) = VCardUtils.readData(VCardUtils.loadFromDisk(profileFile))
             cacheName.writeText(name ?: "")
-            if (picture != null) {
-                BitmapUtils.bytesToBitmap(picture)?.let { bitmap ->
-                    BitmapUtils.createScaledBitmap(bitmap, 512).apply {
-                        if (this === bitmap) {
-                            // Case 3a: bitmap is already small enough, cache it as-is
-                            Schedulers.io().createWorker().schedule {
-                                cachePicture.outputStream().use {
-                                    it.write(picture)
-                                }
-                            }
-                            return Profile(name, bitmap)
-                        }
-                        bitmap.recycle()
-                    }
-                }?.let { scaledBitmap ->
-                    // Case 3b: bitmap is too big, reduce it and write to cache
-                    Schedulers.io().createWorker().schedule {
-                        cachePicture.outputStream().use {
-                            scaledBitmap.compress(Bitmap.CompressFormat.JPEG, 88, it)
-                        }
+            val bitmap = AvatarCache.decode(picture) ?: return Profile(name, null)
+            Schedulers.io().createWorker().schedule {
+                cachePicture.outputStream().use {
+                    if (bitmap.width < AvatarCache.MAX_SIZE && bitmap.height < AvatarCache.MAX_SIZE) {
+                        // Case 3a: bitmap is already small enough, cache it as-is
+                        it.write(picture)
+                    } else {
+                        // Case 3b: bitmap was reduced, write the reduced bitmap to cache
+                        bitmap.compress(Bitmap.CompressFormat.JPEG, 88, it)
                     }
-                    return Profile(name, scaledBitmap)
                 }
             }
-            return Profile(name, null)
+            return Profile(name, bitmap)
         }
     }
 }
\ No newline at end of file
@@ -476,6 +476,7 @@ class TVCallFragment : BaseSupportFragment<CallPresenter, CallView>(), CallView
                 .withContact(participantInfo[0].contact)
                 .withCircleCrop(true)
                 .withPresence(false)
+                .withSize(binding.contactBubble.layoutParams.width)
                 .build(requireContext()))
 
             generateParticipantOverlay(participantInfo)
@@ -32,6 +32,8 @@ import net.jami.services.ConversationFacade
 
 class ContactCardPresenter(context: Context, val conversationFacade: ConversationFacade, resId: Int) :
     AbstractCardPresenter<CardView>(ContextThemeWrapper(context, resId)) {
+    private val avatarSize = context.resources.getDimensionPixelSize(R.dimen.default_image_card_width)
+
     override fun onCreateView() = CardView(context).apply {
         setMainImage(ContextCompat.getDrawable(context, R.drawable.tv_item_selected_background), false)
         setTitleSingleLine(true)
@@ -53,6 +55,7 @@ class ContactCardPresenter(context: Context, val conversationFacade: Conversatio
                 .withViewModel(vm)
                 .withPresence(false)
                 .withCircleCrop(false)
+                .withSize(avatarSize)
                 .build(context), vm.presenceStatus) }
             .observeOn(AndroidSchedulers.mainThread())
             .subscribe { vm -> cardView.apply {
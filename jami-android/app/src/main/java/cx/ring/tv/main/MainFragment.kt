@@ -417,17 +417,15 @@ class MainFragment : BaseBrowseFragment<MainPresenter>(), MainView {
 
         @SuppressLint("RestrictedApi")
         private fun buildProgram(context: Context, vm: ConversationItemViewModel, launcherName: String?, channelId: Long): Single<PreviewProgram> {
-            return AvatarDrawable.Builder()
+            val avatar = AvatarDrawable.Builder()
                 .withViewModel(vm)
                 .withPresence(false)
-                .buildAsync(context)
-                .map { avatar: AvatarDrawable ->
+            return Single.fromCallable { avatar.toBitmap(context, 256) }
+                .map { bitmapAvatar: Bitmap ->
                     val file = AndroidFileUtils.createImageFile(context)
-                    val bitmapAvatar = BitmapUtils.drawableToBitmap(avatar, 256)
                     BufferedOutputStream(FileOutputStream(file)).use { os ->
                         bitmapAvatar.compress(Bitmap.CompressFormat.PNG, 100, os)
                     }
-                    bitmapAvatar.recycle()
                     val uri = FileProvider.getUriForFile(context, ContentUri.AUTHORITY_FILES, file)
 
                     // Grant permission to launcher
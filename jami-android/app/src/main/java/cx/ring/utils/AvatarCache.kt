@@ -0,0 +1,182 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package cx.ring.utils
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.util.Base64
+import android.util.Log
+import android.util.LruCache
+import io.reactivex.rxjava3.schedulers.Schedulers
+import net.jami.utils.HashUtils
+import net.jami.utils.toHex
+import java.io.File
+import java.util.WeakHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Decoded avatars, shared by the smartlist, notifications, calls and TV cards.
+ *
+ * Avatars are decoded once per image and size bucket (a power of two between [MIN_SIZE] and
+ * [MAX_SIZE]) and kept in a memory-bounded LRU cache keyed by content hash and bucket. Decoded
+ * thumbnails are also written to the cache directory so they survive restarts.
+ *
+ * Returned bitmaps are shared and must not be recycled or modified.
+ */
+object AvatarCache {
+    private val TAG = AvatarCache::class.simpleName!!
+    private const val CACHE_DIR_NAME = "avatars"
+    private val DISK_MAX_AGE = TimeUnit.DAYS.toMillis(30)
+
+    /** Smallest size bucket, in pixels */
+    const val MIN_SIZE = 64
+    /** Largest size bucket, in pixels, also the size at which profile pictures are cached */
+    const val MAX_SIZE = 512
+
+    private var cacheDir: File? = null
+
+    private val bitmaps = object : LruCache<String, Bitmap>((Runtime.getRuntime().maxMemory() / 16).toInt()) {
+        override fun sizeOf(key: String, value: Bitmap) = value.allocationByteCount
+    }
+
+    /** Content keys of the bitmaps in use, to find their copies at other sizes */
+    private val keys = WeakHashMap<Bitmap, String>()
+    private val nextKey = AtomicLong()
+
+    fun init(context: Context) {
+        val dir = File(context.cacheDir, CACHE_DIR_NAME)
+        if (!dir.exists()) {
+            dir.mkdirs()
+        }
+        cacheDir = dir
+        Schedulers.io().scheduleDirect {
+            val limit = System.currentTimeMillis() - DISK_MAX_AGE
+            dir.listFiles()?.forEach { if (it.lastModified() < limit) it.delete() }
+        }
+    }
+
+    fun clearCache() {
+        bitmaps.evictAll()
+    }
+
+    /** Size bucket used for an avatar displayed at [size] pixels */
+    fun bucket(size: Int): Int {
+        var bucket = MIN_SIZE
+        while (bucket < size && bucket < MAX_SIZE)
+            bucket *= 2
+        return bucket
+    }
+
+    /** Decodes a base64 encoded picture, as found in conversation infos */
+    fun decode(base64: String?, size: Int = MAX_SIZE): Bitmap? = if (base64.isNullOrEmpty()) null else
+        get(HashUtils.md5(base64).toHex(), size, true) { bucket ->
+            try {
+                decode(Base64.decode(base64, Base64.DEFAULT), bucket)
+            } catch (e: IllegalArgumentException) {
+                null
+            }
+        }
+
+    /** Decodes a picture, as found in a vCard */
+    fun decode(data: ByteArray?, size: Int = MAX_SIZE): Bitmap? = if (data == null || data.isEmpty()) null else
+        get(HashUtils.md5(data).toHex(), size, true) { bucket -> decode(data, bucket) }
+
+    /** Decodes a picture file, that is already a thumbnail */
+    fun decode(file: File, size: Int = MAX_SIZE): Bitmap? = if (!file.exists()) null else
+        get(HashUtils.md5("${file.absolutePath}:${file.lastModified()}:${file.length()}").toHex(), size, false) { bucket ->
+            decode(file.readBytes(), bucket)
+        }
+
+    /**
+     * Provides [bitmap] for display at [size] pixels, scaled down to the matching bucket.
+     * Scaled copies are cached for as long as [bitmap] is in use.
+     */
+    fun scaled(bitmap: Bitmap, size: Int): Bitmap {
+        val bucket = bucket(size)
+        if (bitmap.width <= bucket && bitmap.height <= bucket)
+            return bitmap
+        return get(keyOf(bitmap), bucket, false) { BitmapUtils.createScaledBitmap(bitmap, it) } ?: bitmap
+    }
+
+    /** Content key of a bitmap, changing when its content changes */
+    fun keyOf(bitmap: Bitmap): String {
+        val key = synchronized(keys) { keys.getOrPut(bitmap) { "b" + nextKey.incrementAndGet() } }
+        return if (bitmap.isMutable) "$key:${bitmap.generationId}" else key
+    }
+
+    /** Provides a rendered avatar for [key], rendering it with [render] on cache miss */
+    fun rendered(key: String, render: () -> Bitmap): Bitmap {
+        val cacheKey = "r:$key"
+        return bitmaps.get(cacheKey) ?: render().also { bitmaps.put(cacheKey, it) }
+    }
+
+    private fun get(hash: String, size: Int, thumbnail: Boolean, decode: (bucket: Int) -> Bitmap?): Bitmap? {
+        val bucket = bucket(size)
+        val key = "${hash}_$bucket"
+        bitmaps.get(key)?.let { return it }
+        val bitmap = (if (thumbnail) readThumbnail(key) else null)
+            ?: decode(bucket)?.also { if (thumbnail) writeThumbnail(key, it) }
+            ?: return null
+        synchronized(keys) { keys[bitmap] = hash }
+        bitmaps.put(key, bitmap)
+        return bitmap
+    }
+
+    /** Decodes [data] with a sample size close to [bucket], then scales it to fit */
+    private fun decode(data: ByteArray, bucket: Int): Bitmap? {
+        val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        BitmapFactory.decodeByteArray(data, 0, data.size, options)
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null
+        options.inSampleSize = BitmapUtils.calculateInSampleSize(options, bucket, bucket)
+        options.inJustDecodeBounds = false
+        val bitmap = BitmapFactory.decodeByteArray(data, 0, data.size, options) ?: return null
+        return BitmapUtils.createScaledBitmap(bitmap, bucket).also {
+            if (it !== bitmap) bitmap.recycle()
+        }
+    }
+
+    private fun readThumbnail(key: String): Bitmap? {
+        val file = File(cacheDir ?: return null, key)
+        if (!file.exists()) return null
+        return BitmapFactory.decodeFile(file.path).also {
+            if (it == null) file.delete()
+            else file.setLastModified(System.currentTimeMillis())
+        }
+    }
+
+    private fun writeThumbnail(key: String, bitmap: Bitmap) {
+        val dir = cacheDir ?: return
+        Schedulers.io().scheduleDirect {
+            val file = File(dir, key)
+            val tmpFile = File(dir, "$key.tmp")
+            try {
+                tmpFile.outputStream().use {
+                    if (bitmap.hasAlpha()) bitmap.compress(Bitmap.CompressFormat.PNG, 100, it)
+                    else bitmap.compress(Bitmap.CompressFormat.JPEG, 88, it)
+                }
+                if (!tmpFile.renameTo(file))
+                    tmpFile.delete()
+            } catch (e: Exception) {
+                Log.w(TAG, "Can't write avatar thumbnail", e)
+                tmpFile.delete()
+            }
+        }
+    }
+}
@@ -126,6 +126,7 @@ class SmartListViewHolder : RecyclerView.ViewHolder {
                     if (binding.photo.setAvatar(AvatarDrawable.Builder()
                         .withViewModel(conversationItemViewModel)
                         .withCircleCrop(true)
+                        .withSize(binding.photo.layoutParams.width)
                         .build(binding.photo.context)))
                         binding.photo.startAnimation(fadeIn())
                 })
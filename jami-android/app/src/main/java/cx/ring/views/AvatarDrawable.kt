@@ -27,7 +27,10 @@ import androidx.annotation.ColorRes
 import androidx.core.content.ContextCompat
 import cx.ring.R
 import cx.ring.services.VCardServiceImpl
+import cx.ring.utils.AvatarCache
 import cx.ring.utils.DeviceUtils.isTv
+import cx.ring.views.AvatarFactory.toAdaptiveBitmap
+import cx.ring.views.AvatarFactory.toBitmap
 import io.reactivex.rxjava3.core.Observable
 import io.reactivex.rxjava3.core.Single
 import net.jami.model.*
@@ -182,6 +185,7 @@ class AvatarDrawable : Drawable {
         private var showPresence = true
         private var isChecked = false
         private var isGroup = false
+        private var size = 0
         fun withUri(uri: Uri): Builder {
             this.id = uri.rawUriString
             return this
@@ -226,6 +230,12 @@ class AvatarDrawable : Drawable {
             return this
         }
 
+        /** Draws photos from [AvatarCache], scaled for an avatar of [size] pixels */
+        fun withSize(size: Int): Builder {
+            this.size = size
+            return this
+        }
+
         fun withNameData(profileName: String?, username: String?) =
             withName(if (profileName.isNullOrEmpty()) username else profileName)
 
@@ -292,14 +302,33 @@ class AvatarDrawable : Drawable {
                 .withOnlineState(vm.presenceStatus)
                 .withCheck(vm.isChecked)
 
-        fun build(context: Context): AvatarDrawable =
-            AvatarDrawable(context, photos, name, id, circleCrop, isGroup).also {
+        fun build(context: Context): AvatarDrawable {
+            val photos = if (size > 0) photos?.mapTo(ArrayList()) { AvatarCache.scaled(it, size) } else photos
+            return AvatarDrawable(context, photos, name, id, circleCrop, isGroup).also {
                 it.setPresenceStatus(presenceStatus)
                 it.setChecked(isChecked)
                 it.showPresence = showPresence
             }
+        }
 
         fun buildAsync(context: Context): Single<AvatarDrawable> = Single.fromCallable { build(context) }
+
+        /** Renders the avatar at [size] pixels, or provides the same avatar rendered before */
+        fun toBitmap(context: Context, size: Int): Bitmap =
+            AvatarCache.rendered(renderKey(context, size, false)) {
+                withSize(size).build(context).toBitmap(size)
+            }
+
+        /** Renders the avatar as an adaptive icon bitmap at [size] pixels, see [toBitmap] */
+        fun toAdaptiveBitmap(context: Context, size: Int): Bitmap =
+            AvatarCache.rendered(renderKey(context, size, true)) {
+                withSize(size).build(context).toAdaptiveBitmap(size)
+            }
+
+        private fun renderKey(context: Context, size: Int, adaptive: Boolean): String =
+            listOf(id, name, photos?.joinToString(",") { AvatarCache.keyOf(it) }, circleCrop, isGroup,
+                showPresence, presenceStatus, isChecked,
+                size, adaptive, context.resources.configuration.uiMode).joinToString("|")
     }
 
     fun update(contact: ContactViewModel) {
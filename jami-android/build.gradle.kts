@@ -5,6 +5,7 @@ plugins {
     alias(libs.plugins.ksp) apply false
     alias(libs.plugins.protobuf) apply false
     alias(libs.plugins.google.services) apply false
+    alias(libs.plugins.jmh) apply false
 }
 
 allprojects {
@@ -4,6 +4,7 @@ plugins {
     id("kotlin")
     id("java")
     kotlin("kapt")
+    alias(libs.plugins.jmh)
 }
 
 dependencies {
@@ -22,6 +23,9 @@ dependencies {
 
     // Required -- JUnit 4 framework
     testImplementation(libs.junit)
+    // In-memory databases for the history tests
+    testImplementation(libs.ormlite.jdbc)
+    testImplementation(libs.sqlite.jdbc)
     // RxJava
     implementation(libs.rxjava)
     // gson
@@ -39,4 +43,15 @@ kotlin {
     compilerOptions {
         jvmTarget.set(JvmTarget.JVM_17)
     }
-}
\ No newline at end of file
+}
+
+// Micro-benchmarks: ./gradlew :libjamiclient:jmh
+// Results are written as JSON so that runs can be compared between builds.
+jmh {
+    jmhVersion = libs.versions.jmh
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+}
+
+// Benchmarks use internal classes of the module
+kotlin.target.compilations.getByName("jmh").associateWith(kotlin.target.compilations.getByName("main"))
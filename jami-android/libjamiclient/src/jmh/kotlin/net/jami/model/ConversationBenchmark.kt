@@ -0,0 +1,102 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.model
+
+import net.jami.model.interaction.Interaction
+import net.jami.utils.SilentLogService
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+/**
+ * Adding swarm messages to a conversation, in the orders they are received from the daemon:
+ * new messages (in order), history loaded backward (reverse) and merged branches (shuffled).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class ConversationBenchmark {
+    @Param("100", "1000")
+    var size = 0
+
+    private lateinit var inOrder: List<Interaction>
+    private lateinit var reverse: List<Interaction>
+    private lateinit var shuffled: List<Interaction>
+
+    @Setup
+    fun setUpTrial() {
+        // Messages received before their parent are logged
+        SilentLogService.install()
+    }
+
+    /** Interactions are mutated when added, so they are created again for each invocation. */
+    @Setup(Level.Invocation)
+    fun setUp() {
+        inOrder = messages()
+        reverse = messages().reversed()
+        shuffled = messages().shuffled(Random(size.toLong()))
+    }
+
+    private fun messages() = (0 until size).map { i ->
+        Interaction(ACCOUNT).apply {
+            type = Interaction.InteractionType.TEXT
+            timestamp = i.toLong()
+            setSwarmInfo(CONVERSATION, "m$i", if (i == 0) null else "m${i - 1}")
+        }
+    }
+
+    private fun conversation() = Conversation(ACCOUNT, Uri(Uri.SWARM_SCHEME, CONVERSATION), Conversation.Mode.OneToOne)
+
+    @Benchmark
+    fun addInOrder(): Conversation = conversation().apply {
+        inOrder.forEach { addSwarmElement(it, true) }
+    }
+
+    @Benchmark
+    fun addReverse(): Conversation = conversation().apply {
+        reverse.forEach { addSwarmElement(it, false) }
+    }
+
+    @Benchmark
+    fun addShuffled(): Conversation = conversation().apply {
+        shuffled.forEach { addSwarmElement(it, false) }
+    }
+
+    @Benchmark
+    fun addBatch(): Conversation = conversation().apply {
+        addSwarmElements(inOrder, true)
+    }
+
+    companion object {
+        private const val ACCOUNT = "account"
+        private const val CONVERSATION = "conversation"
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.model
+
+import io.reactivex.rxjava3.disposables.Disposable
+import io.reactivex.rxjava3.subjects.BehaviorSubject
+import net.jami.model.interaction.Interaction
+import net.jami.utils.SilentLogService
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+/**
+ * Keeping the smartlist sorted while the last event of conversations changes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class SmartlistBenchmark {
+    @Param("100", "1000")
+    var conversationCount = 0
+
+    /** Number of conversations receiving a new event in a burst */
+    @Param("1", "50")
+    var burst = 0
+
+    private lateinit var conversations: List<Conversation>
+    private lateinit var subscription: Disposable
+    private val random = Random(0)
+    private var time = 0L
+    private var blackhole: Blackhole? = null
+
+    @Setup
+    fun setUp(blackhole: Blackhole) {
+        SilentLogService.install()
+        this.blackhole = blackhole
+        conversations = (0 until conversationCount).map { i ->
+            Conversation("account", Uri(Uri.SWARM_SCHEME, "c$i"), Conversation.Mode.OneToOne).apply {
+                lastEvent = event(i.toLong())
+            }
+        }
+        time = conversationCount.toLong()
+        subscription = SortedConversations.sort(BehaviorSubject.createDefault(conversations.associateBy { it.uri.uri }))
+            .subscribe { this.blackhole?.consume(it) }
+    }
+
+    @TearDown
+    fun tearDown() {
+        subscription.dispose()
+    }
+
+    private fun event(timestamp: Long) = Interaction("account").apply {
+        this.timestamp = timestamp
+        isIncoming = true
+    }
+
+    @Benchmark
+    fun newEvents() {
+        for (i in 0 until burst)
+            conversations[random.nextInt(conversationCount)].lastEvent = event(++time)
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.model
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+/**
+ * Parsing contact and conversation URIs, and the checks done on them when rendering lists.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class UriBenchmark {
+    private val uris = arrayOf(
+        "jami:" + HEX_ID,
+        "ring:" + HEX_ID,
+        HEX_ID,
+        "swarm:" + HEX_ID,
+        "sip:alice@example.com",
+        "Alice <sip:alice@example.com:5060>"
+    )
+    private val parsed = uris.map { Uri.fromString(it) }
+
+    @Benchmark
+    fun fromString(blackhole: Blackhole) {
+        for (uri in uris)
+            blackhole.consume(Uri.fromString(uri))
+    }
+
+    @Benchmark
+    fun fromStringWithName(blackhole: Blackhole) {
+        for (uri in uris)
+            blackhole.consume(Uri.fromStringWithName(uri))
+    }
+
+    @Benchmark
+    fun properties(blackhole: Blackhole) {
+        for (uri in parsed) {
+            blackhole.consume(uri.isHexId)
+            blackhole.consume(uri.isJami)
+            blackhole.consume(uri.rawRingId)
+            blackhole.consume(uri.uri)
+        }
+    }
+
+    @Benchmark
+    fun equalsAndHashCode(blackhole: Blackhole) {
+        for (uri in parsed) {
+            blackhole.consume(uri.hashCode())
+            blackhole.consume(uri == parsed[0])
+        }
+    }
+
+    companion object {
+        private const val HEX_ID = "3b4a2f8e10d97c5b6a1e0f2d4c8b7a6958473625"
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.services
+
+import io.reactivex.rxjava3.schedulers.Schedulers
+import net.jami.utils.SilentLogService
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Dispatching daemon callbacks for many conversations, as when an account is loaded or
+ * reconnects: each benchmark call dispatches [callbacks] callbacks and waits for all of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class ConversationCallbackDispatcherBenchmark {
+    @Param("1", "100")
+    var conversations = 0
+
+    @Param("1000")
+    var callbacks = 0
+
+    private lateinit var executor: ExecutorService
+    private lateinit var dispatcher: ConversationCallbackDispatcher
+    private lateinit var batched: ConversationCallbackDispatcher.Batched<Int>
+    private lateinit var conversationIds: Array<String>
+    @Volatile
+    private var done: CountDownLatch? = null
+
+    @Setup
+    fun setUp() {
+        SilentLogService.install()
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())
+        dispatcher = ConversationCallbackDispatcher(Schedulers.from(executor), batchWindowMs = 0)
+        batched = dispatcher.batched { _, _, items -> repeat(items.size) { done?.countDown() } }
+        conversationIds = Array(conversations) { "conversation$it" }
+    }
+
+    @TearDown
+    fun tearDown() {
+        dispatcher.dispose()
+        executor.shutdownNow()
+    }
+
+    @Benchmark
+    fun dispatch() {
+        val latch = CountDownLatch(callbacks)
+        for (i in 0 until callbacks)
+            dispatcher.dispatch(ACCOUNT, conversationIds[i % conversations]) { latch.countDown() }
+        latch.await()
+    }
+
+    @Benchmark
+    fun dispatchBatched() {
+        val latch = CountDownLatch(callbacks)
+        done = latch
+        for (i in 0 until callbacks)
+            batched.dispatch(ACCOUNT, conversationIds[i % conversations], i)
+        latch.await()
+    }
+
+    companion object {
+        private const val ACCOUNT = "account"
+    }
+}
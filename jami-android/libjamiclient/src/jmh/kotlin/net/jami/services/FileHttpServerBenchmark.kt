@@ -0,0 +1,137 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.services
+
+import net.jami.utils.SilentLogService
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Threads
+import org.openjdk.jmh.annotations.Warmup
+import java.io.BufferedInputStream
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.net.Socket
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.TimeUnit
+
+/**
+ * Load test of the file server over localhost, as used by peers through a service tunnel:
+ * each thread is a client downloading a file of [FileHttpServerBenchmark.fileSize] bytes on a
+ * kept-alive connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+open class FileHttpServerBenchmark {
+    @Param("4096", "1048576", "16777216")
+    var fileSize = 0
+
+    private lateinit var file: File
+    private lateinit var server: FileHttpServer
+    private var etag: String? = null
+
+    @State(Scope.Thread)
+    open class Client {
+        lateinit var socket: Socket
+        lateinit var input: InputStream
+        lateinit var output: OutputStream
+        val drain = ByteArray(64 * 1024)
+
+        @Setup
+        fun connect(benchmark: FileHttpServerBenchmark) {
+            socket = Socket("localhost", benchmark.server.listeningPort)
+            input = BufferedInputStream(socket.getInputStream())
+            output = socket.getOutputStream()
+        }
+
+        @TearDown
+        fun close() {
+            socket.close()
+        }
+
+        fun get(headers: String = ""): Long {
+            output.write("GET /file HTTP/1.1\r\nHost: localhost\r\n$headers\r\n".toByteArray())
+            var length = 0L
+            while (true) {
+                val line = readLine()
+                if (line.isEmpty()) break
+                if (line.startsWith("Content-Length:", true))
+                    length = line.substringAfter(':').trim().toLong()
+            }
+            var remaining = length
+            while (remaining > 0) {
+                val count = input.read(drain, 0, minOf(drain.size.toLong(), remaining).toInt())
+                if (count < 0) throw IOException("Connection closed")
+                remaining -= count
+            }
+            return length
+        }
+
+        private fun readLine(): String {
+            val line = StringBuilder()
+            while (true) {
+                val c = input.read()
+                if (c < 0) throw IOException("Connection closed")
+                if (c == '\n'.code) return line.toString()
+                if (c != '\r'.code) line.append(c.toChar())
+            }
+        }
+    }
+
+    @Setup
+    fun setUp() {
+        SilentLogService.install()
+        file = File.createTempFile("benchmark", ".bin").apply {
+            writeBytes(ByteArray(fileSize) { it.toByte() })
+        }
+        server = object : FileHttpServer() {
+            override fun resolve(path: String): Resource =
+                Resource.File(file.length(), file.lastModified(), "application/octet-stream") {
+                    FileChannel.open(file.toPath(), StandardOpenOption.READ)
+                }
+        }.apply { start() }
+        etag = "\"${file.length().toString(16)}-${file.lastModified().toString(16)}\""
+    }
+
+    @TearDown
+    fun tearDown() {
+        server.stop()
+        file.delete()
+    }
+
+    @Benchmark
+    fun download(client: Client): Long = client.get()
+
+    @Benchmark
+    fun notModified(client: Client): Long = client.get("If-None-Match: $etag\r\n")
+}
@@ -0,0 +1,33 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.utils
+
+import net.jami.services.LogService
+
+/** Drops log messages, so that benchmarks don't measure logging. */
+object SilentLogService : LogService {
+    override fun e(tag: String, message: String) {}
+    override fun d(tag: String, message: String) {}
+    override fun w(tag: String, message: String) {}
+    override fun i(tag: String, message: String) {}
+    override fun e(tag: String, message: String, e: Throwable) {}
+    override fun d(tag: String, message: String, e: Throwable) {}
+    override fun w(tag: String, message: String, e: Throwable) {}
+    override fun i(tag: String, message: String, e: Throwable) {}
+
+    fun install() = Log.injectLogService(this)
+}
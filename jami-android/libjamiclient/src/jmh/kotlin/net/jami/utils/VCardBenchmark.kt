@@ -0,0 +1,67 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.utils
+
+import ezvcard.Ezvcard
+import ezvcard.VCard
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Reading and writing profiles, with and without a picture.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class VCardBenchmark {
+    /** Size of the profile picture, in bytes */
+    @Param("0", "32768")
+    var pictureSize = 0
+
+    private lateinit var vcard: VCard
+    private lateinit var serialized: String
+
+    @Setup
+    fun setUp() {
+        val picture = if (pictureSize == 0) null else Random(0).nextBytes(pictureSize)
+        vcard = VCardUtils.writeData("jami:3b4a2f8e10d97c5b6a1e0f2d4c8b7a6958473625", "Alice", picture)
+        serialized = VCardUtils.vcardToString(vcard)!!
+    }
+
+    @Benchmark
+    fun parse(): VCard = Ezvcard.parse(serialized).first()
+
+    @Benchmark
+    fun readData(): Pair<String?, ByteArray?> = VCardUtils.readData(Ezvcard.parse(serialized).first())
+
+    @Benchmark
+    fun serialize(): String? = VCardUtils.vcardToString(vcard)
+}
@@ -20,6 +20,7 @@ import io.reactivex.rxjava3.core.Completable
 import io.reactivex.rxjava3.core.Observable
 import io.reactivex.rxjava3.core.Scheduler
 import io.reactivex.rxjava3.disposables.CompositeDisposable
+import io.reactivex.rxjava3.disposables.SerialDisposable
 import io.reactivex.rxjava3.schedulers.Schedulers
 import io.reactivex.rxjava3.subjects.BehaviorSubject
 import io.reactivex.rxjava3.subjects.PublishSubject
@@ -29,7 +30,6 @@ import net.jami.services.ConversationFacade
 import net.jami.model.*
 import net.jami.model.Error
 import net.jami.model.Account.ComposingStatus
-import net.jami.model.Conversation.ElementStatus
 import net.jami.model.Call.CallStatus
 import net.jami.model.interaction.CallHistory
 import net.jami.model.interaction.DataTransfer
@@ -57,6 +57,7 @@ class ConversationPresenter @Inject constructor(
     private var mConversation: Conversation? = null
     private var mConversationUri: Uri? = null
     private var mConversationDisposable: CompositeDisposable? = null
+    private var mHistoryDisposable: SerialDisposable? = null
     private val mVisibilityDisposable = CompositeDisposable().apply {
         mCompositeDisposable.add(this)
     }
@@ -124,6 +125,8 @@ class ConversationPresenter @Inject constructor(
             .subscribe({ conversation: Conversation ->
                 conversation.isVisible = true
                 conversation.isBubble = isBubble
+                if (conversation.isHistoryEvicted)
+                    reloadHistory(conversation)
                 mCompositeDisposable.add(Completable.fromAction {
                     accountService.getAccount(conversation.accountId)?.let { account ->
                         conversationFacade.readMessages(account, conversation, !isBubble)}
@@ -133,6 +136,31 @@ class ConversationPresenter @Inject constructor(
             }) { e -> Log.e(TAG, "Error loading conversation", e) })
     }
 
+    /** Loads again the history of the conversation, evicted while the view was paused */
+    private fun reloadHistory(conversation: Conversation) {
+        mVisibilityDisposable.add(conversationFacade.loadConversationHistory(conversation)
+            .observeOn(uiScheduler)
+            .subscribe({ refreshHistory() })
+            { e -> Log.e(TAG, "Error reloading conversation", e) })
+    }
+
+    /** Shows the history again from the conversation, once the view lost track of its changes */
+    fun refreshHistory() {
+        mConversation?.let { observeHistory(it) }
+    }
+
+    /** Shows the history of the conversation, then its changes */
+    private fun observeHistory(conversation: Conversation) {
+        mHistoryDisposable?.set(conversation.historyUpdates
+            .observeOn(uiScheduler)
+            .subscribe({ update ->
+                when (update) {
+                    is HistorySnapshot -> view?.refreshView(update.interactions)
+                    is HistoryChanges -> view?.applyChanges(update)
+                }
+            }) { e -> Log.e(TAG, "Can't update elements", e) })
+    }
+
     private fun initContact(account: Account, c: ConversationItemViewModel, view: ConversationView) {
         if (account.isJami) {
             Log.w(TAG, "initContact ${c.uri} mode: ${c.mode}")
@@ -203,29 +231,8 @@ class ConversationPresenter @Inject constructor(
             .switchMap { contacts -> Observable.merge(contactService.observeLoadedContact(c.accountId, contacts, true)) }
             .observeOn(uiScheduler)
             .subscribe { contact: ContactViewModel -> this.view?.updateContact(contact) })
-        // Atomically subscribe to the list and subsequent updates
-        synchronized(c) {
-            disposable.add(c.sortedHistory
-                .observeOn(uiScheduler)
-                .subscribe({ conversation -> this.view?.refreshView(conversation) })
-                { e -> Log.e(TAG, "Can't update element", e) })
-
-            disposable.add(c.cleared
-                .observeOn(uiScheduler)
-                .subscribe({ conversation -> this.view?.refreshView(conversation) })
-                { e -> Log.e(TAG, "Can't update elements", e) })
-
-            disposable.add(c.updatedElements
-                .observeOn(uiScheduler)
-                .subscribe({ elementTuple ->
-                    val v = this.view ?: return@subscribe
-                    when (elementTuple.second) {
-                        ElementStatus.ADD -> v.addElement(elementTuple.first)
-                        ElementStatus.UPDATE -> v.updateElement(elementTuple.first)
-                        ElementStatus.REMOVE -> v.removeElement(elementTuple.first)
-                    }
-                }, { e: Throwable -> Log.e(TAG, "Can't update element", e) }))
-        }
+        mHistoryDisposable = SerialDisposable().also { disposable.add(it) }
+        observeHistory(c)
 
         if (showTypingIndicator()) {
             disposable.add(c.composingStatus
@@ -270,7 +277,7 @@ class ConversationPresenter @Inject constructor(
     }
 
     fun loadMore() {
-        mConversationDisposable?.add(accountService.loadMore(mConversation!!).subscribe({}) {})
+        mConversationDisposable?.add(conversationFacade.loadMore(mConversation!!).subscribe({}) {})
     }
 
     fun scrollToMessage(messageId: String) {
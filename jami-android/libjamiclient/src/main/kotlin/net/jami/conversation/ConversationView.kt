@@ -53,6 +53,13 @@ interface ConversationView {
     fun addElement(element: Interaction)
     fun updateElement(element: Interaction)
     fun removeElement(element: Interaction)
+
+    /** Applies changes of the history, by default element by element */
+    fun applyChanges(changes: HistoryChanges) {
+        changes.removed.asReversed().forEach { range -> range.interactions.forEach(::removeElement) }
+        changes.inserted.forEach { range -> range.interactions.forEach(::addElement) }
+        changes.changed.forEach { range -> range.interactions.forEach(::updateElement) }
+    }
     fun setComposingStatus(composingStatus: ComposingStatus)
     fun setConversationColor(color: Int)
     fun setConversationSymbol(symbol: CharSequence)
@@ -70,16 +70,14 @@ class Account(
     private val mLocationStartedSubject: Subject<ContactLocationEntry> = PublishSubject.create()
     private val registrationStateSubject = BehaviorSubject.createDefault(AccountConfig.RegistrationState.valueOf(mVolatileDetails[ConfigKey.ACCOUNT_REGISTRATION_STATUS]))
 
-    private val conversationsWithLastEventSubject: Observable<Array<Any>> = getLatest(conversationMapSubject)
-    private val conversationsSubject: Observable<List<Conversation>> = conversationsWithLastEventSubject.map(::getSorted).replayingShare()
-    val unreadConversations: Observable<Int> = conversationsWithLastEventSubject.map { conversations ->
-        conversations.count {
-            val ev = (it as Pair<Conversation, Interaction>).second
-            !ev.isRead && ev.isIncoming   // a conversation is unread only if its last event is an unread *incoming* message
-        }
-    }
+    /** Sorted conversation list along with its unread count */
+    private val conversationsUpdates: Observable<SortedConversations.Update> = SortedConversations.sort(conversationMapSubject).replayingShare()
+    private val conversationsSubject: Observable<List<Conversation>> = conversationsUpdates.map { it.conversations }
+    val unreadConversations: Observable<Int> = conversationsUpdates.map { it.unreadCount }.distinctUntilChanged()
 
-    private val pendingSubject: Observable<List<Conversation>> = getLatest(pendingMapSubject).map(::getSorted).replayingShare()
+    private val pendingSubject: Observable<List<Conversation>> = SortedConversations.sort(pendingMapSubject)
+        .map { it.conversations }
+        .replayingShare()
 
     var historyLoader: Single<Account>? = null
     var loadedProfile: Single<Profile>? = null
@@ -306,7 +304,7 @@ class Account(
         Log.d(TAG, "Account onDataTransferEvent " + transfer.messageId)
         val conversation = transfer.conversation as Conversation
         val transferEventCode = transfer.transferStatus
-        synchronized(conversation) {
+        conversation.withLock {
             if (transferEventCode == TransferStatus.TRANSFER_CREATED) {
                 conversation.addFileTransfer(transfer)
                 updated(conversation)
@@ -849,19 +847,5 @@ class Account(
         private const val CONTACT_ID = "id"
         private const val CONTACT_CONVERSATION = "conversationId"
         private const val LOCATION_SHARING_EXPIRATION_MS = 1000 * 60 * 2
-
-        private fun getLatest(conversation: Subject<Map<String, Conversation>>) = conversation.switchMap { conversations ->
-            if (conversations.isEmpty()) Observable.just(emptyArray())
-            else Observable.combineLatest(conversations.values.map {
-                conv -> conv.lastEventObservable.map { Pair(conv, it) }
-            }) { it }
-        }
-        private fun getSorted(conversations: Array<Any>): List<Conversation> {
-            if (conversations.isEmpty()) return emptyList()
-            conversations.sortWith { a, b -> Interaction.compare(
-                (b as Pair<Conversation, Interaction>).second,
-                (a as Pair<Conversation, Interaction>).second) }
-            return conversations.map { (it as Pair<Conversation, Interaction>).first }
-        }
     }
 }
@@ -17,14 +17,16 @@
 package net.jami.model
 
 import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.disposables.CompositeDisposable
 import io.reactivex.rxjava3.subjects.BehaviorSubject
 import io.reactivex.rxjava3.subjects.Subject
 import net.jami.model.Call.CallStatus
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.math.min
 
 class Conference(val accountId: String, val id: String) {
-    class ParticipantInfo(val call: Call?, val contact: ContactViewModel, i: Map<String, String>, val pending: Boolean = false) {
+    class ParticipantInfo(val call: Call?, val contact: ContactViewModel, private val i: Map<String, String>, val pending: Boolean = false) {
         val x: Int = i["x"]?.toInt() ?: 0
         val y: Int = i["y"]?.toInt() ?: 0
         val w: Int = i["w"]?.toInt() ?: 0
@@ -46,13 +48,23 @@ class Conference(val accountId: String, val id: String) {
             get() = sinkId ?: contact.contact.uri.uri
 
         override fun hashCode(): Int = Objects.hash(contact.contact.uri, device, call?.id, pending)
+
+        fun withContact(contact: ContactViewModel) = ParticipantInfo(call, contact, i, pending)
+
+        /** True if [other] has the same call, contact and state, so it would be displayed the same way */
+        fun isSameAs(other: ParticipantInfo): Boolean =
+            call === other.call && pending == other.pending && i == other.i
+                    && contact.contact == other.contact.contact
+                    && contact.profile === other.contact.profile
+                    && contact.registeredName == other.contact.registeredName
+                    && contact.presence == other.contact.presence
     }
 
     constructor(call: Call) : this(call.account, call.confId ?: call.id!!) {
         mParticipants.add(call)
     }
 
-    private val mParticipantInfo: Subject<List<ParticipantInfo>> = BehaviorSubject.createDefault(emptyList())
+    private val mParticipantInfo: BehaviorSubject<List<ParticipantInfo>> = BehaviorSubject.createDefault(emptyList())
     private val mPendingCalls: MutableList<ParticipantInfo> = ArrayList()
     private val mPendingSubject: Subject<List<ParticipantInfo>> = BehaviorSubject.createDefault(mPendingCalls)
 
@@ -254,7 +266,24 @@ class Conference(val accountId: String, val id: String) {
     val timestampStart: Long
         get() = mParticipants.minOfOrNull { it.timestamp } ?: Long.MAX_VALUE
 
+    /** Contacts of the participants resolved so far, kept up to date for the duration of the conference */
+    internal val participantContacts: MutableMap<Contact, ContactViewModel> = ConcurrentHashMap()
+    /** Participant contacts observed to update [participantContacts], synchronized on the conference */
+    internal val observedContacts: MutableSet<Contact> = HashSet()
+    /** Updates of [participantContacts], disposed when the conference is removed */
+    internal val participantContactUpdates = CompositeDisposable()
+    /** Last participant info received from the daemon, with the contacts known then */
+    internal var daemonInfo: List<ParticipantInfo> = emptyList()
+
+    /**
+     * Sets the participant info.
+     * Nothing is emitted if [info] is the same as the current participant info.
+     */
+    @Synchronized
     fun setInfo(info: List<ParticipantInfo>) {
+        val current = mParticipantInfo.value!!
+        if (current.size == info.size && current.indices.all { current[it].isSameAs(info[it]) })
+            return
         mParticipantInfo.onNext(info)
     }
 
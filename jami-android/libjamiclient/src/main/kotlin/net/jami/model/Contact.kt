@@ -38,7 +38,23 @@ class Contact(val uri: Uri, val isUser: Boolean = false) {
         loadedProfileSubject.switchMapSingle {it},
         customProfileSubject.switchMapSingle {it},
         ::mergeProfile
-    )
+    ).doOnNext { profile -> profile.displayName?.let { knownDisplayName.onNext(it) } }
+
+    private val knownDisplayName: BehaviorSubject<String> = BehaviorSubject.createDefault("")
+    private val knownRegisteredName: BehaviorSubject<String> = BehaviorSubject.createDefault("")
+
+    /**
+     * Display name and registered name of the contact, as far as they were loaded, or empty.
+     * Observing them doesn't load the profile nor look up the name.
+     */
+    val knownNames: Observable<Pair<String, String>>
+        get() = Observable.combineLatest(knownDisplayName, knownRegisteredName, ::Pair).distinctUntilChanged()
+
+    /** Keeps the registered name of the contact, once looked up */
+    fun setRegisteredName(name: String) {
+        if (name.isNotEmpty())
+            knownRegisteredName.onNext(name)
+    }
 
     var loadedProfile: Single<Profile>? = null
         set(profile) {
@@ -104,6 +120,7 @@ class Contact(val uri: Uri, val isUser: Boolean = false) {
         this.id = id
         mLookupKey = k
         loadedProfile = Single.just(Profile(displayName, null))
+        knownDisplayName.onNext(displayName)
         photoId = photo_id
         if (username == null && displayName.startsWith(Uri.RING_URI_SCHEME)
             || displayName.startsWith(Uri.JAMI_URI_SCHEME)) {
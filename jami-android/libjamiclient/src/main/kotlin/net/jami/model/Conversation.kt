@@ -23,7 +23,9 @@ import io.reactivex.rxjava3.subjects.BehaviorSubject
 import io.reactivex.rxjava3.subjects.PublishSubject
 import io.reactivex.rxjava3.subjects.SingleSubject
 import io.reactivex.rxjava3.subjects.Subject
+import io.reactivex.rxjava3.subjects.UnicastSubject
 import net.jami.model.interaction.*
+import net.jami.services.HistoryService
 import net.jami.utils.Log
 import net.jami.utils.StringUtils
 import java.util.*
@@ -37,11 +39,19 @@ class Conversation(
     val roles: MutableMap<String, MemberRole> = HashMap()
     private val rawHistory: NavigableMap<Long, Interaction> = TreeMap()
     private val currentCalls = ArrayList<Conference>()
-    private val aggregateHistory = ArrayList<Interaction>(32)
+    private val aggregateHistory = InteractionHistory()
 
     val lastDisplayedMessages: MutableMap<String, String> = HashMap()
-    private val updatedElementSubject: Subject<Pair<Interaction, ElementStatus>> = PublishSubject.create()
-    private val clearedSubject: Subject<List<Interaction>> = PublishSubject.create()
+    private val updatedElementSubject: Subject<List<Pair<Interaction, ElementStatus>>> = PublishSubject.create()
+    /** Element changes collected while a batch of swarm elements is applied */
+    private var pendingElementChanges: MutableList<Pair<Interaction, ElementStatus>>? = null
+    private val clearedSubject: Subject<HistorySnapshot> = PublishSubject.create()
+    private val historyChangesSubject: Subject<HistoryChanges> = PublishSubject.create()
+    /** Emissions of the history changes made with the lock held, see [withLock] */
+    private val pendingEmissions = ArrayDeque<() -> Unit>()
+    private var emitting = false
+    /** Version of the history, increased by each change emitted on [historyChanges] or [cleared] */
+    private var historyVersion = 0L
     private val callsSubject: Subject<List<Conference>> = BehaviorSubject.createDefault(emptyList())
     private val activeCallsSubject: Subject<List<ActiveCall>> = BehaviorSubject.createDefault(emptyList())
     private val composingStatusSubject: Subject<Account.ComposingStatus> = BehaviorSubject.createDefault(Account.ComposingStatus.Idle)
@@ -57,6 +67,8 @@ class Conversation(
 
     private val mContactSubject: Subject<List<Contact>> = BehaviorSubject.create()
     var loaded: Single<Conversation>? = null
+    /** Position of the next page of history to load, for non-swarm conversations */
+    var historyCursor: HistoryService.HistoryCursor? = null
     val lastElementLoadedSubject = SingleSubject.create<Completable>()
     val lastElementLoaded = lastElementLoadedSubject.flatMapCompletable { it }
     private val mMessages: MutableMap<String, Interaction> = HashMap(16)
@@ -70,6 +82,10 @@ class Conversation(
 
     private val profileSubject: Subject<Single<Profile>> = BehaviorSubject.createDefault(Profile.EMPTY_PROFILE_SINGLE)
     val profile: Observable<Profile> = profileSubject.switchMapSingle { it }
+    private val profileTitleSubject: BehaviorSubject<String> = BehaviorSubject.createDefault("")
+    /** Title of the conversation profile, or empty. Observing it doesn't load the profile. */
+    val profileTitle: Observable<String>
+        get() = profileTitleSubject
 
     // runtime flag set to true if the user is currently viewing this conversation
     private var mVisible = false
@@ -108,10 +124,44 @@ class Conversation(
     }
 
     val updatedElements: Observable<Pair<Interaction, ElementStatus>>
+        get() = updatedElementSubject.concatMapIterable { it }
+
+    /**
+     * Element changes, in order. A batch of swarm elements (see [addSwarmElements]) or a page of
+     * older history (see [addHistoryPage]) is emitted as a single list, other changes are emitted
+     * as single element lists.
+     */
+    val updatedElementBatches: Observable<List<Pair<Interaction, ElementStatus>>>
         get() = updatedElementSubject
 
+    /**
+     * Changes of the sorted history (see [sortedHistory]), by position. Emitted with
+     * [updatedElementBatches]: a batch of changes is emitted as a single change set.
+     */
+    val historyChanges: Observable<HistoryChanges>
+        get() = historyChangesSubject
+
     val cleared: Observable<List<Interaction>>
-        get() = clearedSubject
+        get() = clearedSubject.map { it.interactions }
+
+    /**
+     * The sorted history, then its changes in order: [HistoryChanges], or a [HistorySnapshot]
+     * when the history is cleared. Changes already part of the first snapshot are skipped.
+     */
+    val historyUpdates: Observable<HistoryUpdate>
+        get() = Observable.defer {
+            val updates = UnicastSubject.create<HistoryUpdate>()
+            synchronized(this) {
+                // Changes made after the snapshot are emitted after this subscription
+                val subscription = Observable.merge<HistoryUpdate>(clearedSubject, historyChangesSubject)
+                    .subscribe(updates::onNext)
+                sortHistory()
+                val snapshot = HistorySnapshot(historyVersion, aggregateHistory.toList())
+                updates.filter { it.version > snapshot.version }
+                    .startWithItem(snapshot)
+                    .doFinally(subscription::dispose)
+            }
+        }
 
     val calls: Observable<List<Conference>>
         get() = callsSubject
@@ -123,8 +173,10 @@ class Conversation(
         get() = composingStatusSubject
 
     val sortedHistory: Single<List<Interaction>> = Single.fromCallable {
-        sortHistory()
-        ArrayList(aggregateHistory)
+        synchronized(this) {
+            sortHistory()
+            aggregateHistory.toList()
+        }
     }
     var lastEvent: Interaction? = null
         set(e) {
@@ -208,17 +260,13 @@ class Conversation(
     fun readMessages(): List<Interaction> {
         val interactions = ArrayList<Interaction>()
         if (isSwarm) {
-            if (aggregateHistory.isNotEmpty()) {
-                var n = aggregateHistory.size
-                do {
-                    if (n == 0) break
-                    val i = aggregateHistory[--n]
-                    if (!i.isRead) {
-                        i.read()
-                        interactions.add(i)
-                        lastRead = i.messageId
-                    }
-                } while (i.type == Interaction.InteractionType.INVALID)
+            for (i in aggregateHistory.reversed()) {
+                if (!i.isRead) {
+                    i.read()
+                    interactions.add(i)
+                    lastRead = i.messageId
+                }
+                if (i.type != Interaction.InteractionType.INVALID) break
             }
         } else {
             for (e in rawHistory.descendingMap().values) {
@@ -258,6 +306,12 @@ class Conversation(
         profileSubject.onNext(profile)
     }
 
+    /** Sets the profile of the conversation, and its [title] available without loading the profile */
+    fun setProfile(profile: Single<Profile>, title: String?) {
+        profileTitleSubject.onNext(title ?: "")
+        profileSubject.onNext(profile)
+    }
+
     fun setMode(mode: Mode) {
         mMode.onNext(mode)
     }
@@ -307,15 +361,14 @@ class Conversation(
             return null
         }
 
-    @Synchronized
-    fun addCall(callHistory: CallHistory) {
+    fun addCall(callHistory: CallHistory) { withLock {
         if (!isSwarm && this@Conversation.callHistory.contains(callHistory)) {
             return
         }
         mDirty = true
         aggregateHistory.add(callHistory)
-        updatedElementSubject.onNext(Pair(callHistory, ElementStatus.ADD))
-    }
+        notifyElement(callHistory, ElementStatus.ADD)
+    } }
 
     private fun setInteractionProperties(interaction: Interaction) {
         interaction.account = accountId
@@ -332,42 +385,42 @@ class Conversation(
 
     fun findContact(uri: Uri): Contact? = contacts.firstOrNull { it.uri == uri }
 
-    fun addTextMessage(txt: TextMessage) {
+    fun addTextMessage(txt: TextMessage) { withLock {
         if (mVisible)
             txt.read()
         setInteractionProperties(txt)
         rawHistory[txt.timestamp] = txt
         mDirty = true
         aggregateHistory.add(txt)
-        updatedElementSubject.onNext(Pair(txt, ElementStatus.ADD))
-    }
+        notifyElement(txt, ElementStatus.ADD)
+    } }
 
-    fun addRequestEvent(request: TrustRequest, contact: Contact) {
+    fun addRequestEvent(request: TrustRequest, contact: Contact) { withLock {
         if (isSwarm) return
         val event = ContactEvent(accountId, contact, request)
         mDirty = true
         aggregateHistory.add(event)
-        updatedElementSubject.onNext(Pair(event, ElementStatus.ADD))
-    }
+        notifyElement(event, ElementStatus.ADD)
+    } }
 
-    fun addContactEvent(contact: Contact) {
+    fun addContactEvent(contact: Contact) { withLock {
         addContactEvent(ContactEvent(accountId, contact))
-    }
+    } }
 
-    fun addContactEvent(contactEvent: ContactEvent) {
+    fun addContactEvent(contactEvent: ContactEvent) { withLock {
         mDirty = true
         aggregateHistory.add(contactEvent)
-        updatedElementSubject.onNext(Pair(contactEvent, ElementStatus.ADD))
-    }
+        notifyElement(contactEvent, ElementStatus.ADD)
+    } }
 
-    fun addFileTransfer(dataTransfer: DataTransfer) {
+    fun addFileTransfer(dataTransfer: DataTransfer) { withLock {
         if (aggregateHistory.contains(dataTransfer)) {
             return
         }
         mDirty = true
         aggregateHistory.add(dataTransfer)
-        updatedElementSubject.onNext(Pair(dataTransfer, ElementStatus.ADD))
-    }
+        notifyElement(dataTransfer, ElementStatus.ADD)
+    } }
 
     private fun isAfter(previous: Interaction, query: Interaction?): Boolean {
         var query = query
@@ -383,8 +436,7 @@ class Conversation(
         }
     }
 
-    @Synchronized
-    fun setLastMessageDisplayed(contactId: String, messageId: String) {
+    fun setLastMessageDisplayed(contactId: String, messageId: String) { withLock {
         // Check if the new message is after the last displayed message (could be not the case).
         val currentLastMessageDisplayed: Interaction? =
             lastDisplayedMessages[contactId]?.let { getMessage(it) }
@@ -400,7 +452,7 @@ class Conversation(
             (isAfter || (currentLastMessageDisplayed == null))) {
             lastDisplayedMessages[contactId] = messageId
 
-            updatedElementSubject.onNext(Pair(newPotentialMessageDisplayed, ElementStatus.UPDATE))
+            notifyElement(newPotentialMessageDisplayed, ElementStatus.UPDATE)
             // Also update the previous messages (such as change from sent to displayed)
             var interaction: Interaction? = newPotentialMessageDisplayed
             while (interaction?.messageId != currentLastMessageDisplayed?.messageId
@@ -408,11 +460,11 @@ class Conversation(
                 && currentLastMessageDisplayed != null
             ) {
                 interaction = mMessages[interaction.parentId]?.apply {
-                    updatedElementSubject.onNext(Pair(this, ElementStatus.UPDATE))
+                    notifyElement(this, ElementStatus.UPDATE)
                 }
             }
         }
-    }
+    } }
 
     @Synchronized
     fun setLastMessageSent(messageId: String) {
@@ -429,12 +481,11 @@ class Conversation(
         }
     }
 
-    @Synchronized
     fun updateSwarmInteraction(
         messageId: String,
         contactUri: Uri,
         newStatus: Interaction.MessageStates,
-    ) {
+    ) { withLock {
         val interaction = mMessages[messageId] ?: return
         if (newStatus == Interaction.MessageStates.DISPLAYED) {
             findContact(contactUri)?.let { contact ->
@@ -450,17 +501,16 @@ class Conversation(
         }
 
         interaction.statusMap = interaction.statusMap.plus(Pair(contactUri.host, newStatus))
-        updatedElementSubject.onNext(Pair(interaction, ElementStatus.UPDATE))
-    }
+        notifyElement(interaction, ElementStatus.UPDATE)
+    } }
 
-    @Synchronized
-    fun updateInteraction(element: Interaction) {
+    fun updateInteraction(element: Interaction) { withLock {
         Log.e(TAG, "updateInteraction: ${element.messageId} ${element.status}")
         if (isSwarm) {
             val e = mMessages[element.messageId]
             if (e != null) {
                 e.status = element.status
-                updatedElementSubject.onNext(Pair(e, ElementStatus.UPDATE))
+                notifyElement(e, ElementStatus.UPDATE)
             } else {
                 Log.e(TAG, "Unable to find swarm message to update: ${element.messageId}")
             }
@@ -471,13 +521,13 @@ class Conversation(
             for (txt in msgs.values) {
                 if (txt.id == element.id) {
                     txt.status = element.status
-                    updatedElementSubject.onNext(Pair(txt, ElementStatus.UPDATE))
+                    notifyElement(txt, ElementStatus.UPDATE)
                     return
                 }
             }
             Log.e(TAG, "Unable to find message to update: ${element.id}")
         }
-    }
+    } }
 
     @Synchronized
     fun sortHistory() {
@@ -485,7 +535,7 @@ class Conversation(
             if (!isSwarm) {
                 aggregateHistory.sortWith { c1, c2 -> c1.timestamp.compareTo(c2.timestamp) }
             }
-            lastEvent = aggregateHistory.lastOrNull { it.type != Interaction.InteractionType.INVALID }
+            lastEvent = aggregateHistory.lastValid
             mDirty = false
         }
     }
@@ -509,8 +559,7 @@ class Conversation(
             val texts = TreeMap<Long, TextMessage>()
             if (isSwarm) {
                 synchronized(this) {
-                    for (j in aggregateHistory.indices.reversed()) {
-                        val i = aggregateHistory[j]
+                    for (i in aggregateHistory.reversed()) {
                         if (i !is TextMessage) continue
                         if (i.isRead || i.isNotified) break
                         texts[i.timestamp] = i
@@ -548,36 +597,25 @@ class Conversation(
         return false
     }
 
-    private fun removeInteraction(interactionId: Long): Boolean {
-        val it = aggregateHistory.iterator()
-        while (it.hasNext()) {
-            val interaction = it.next()
-            if (interactionId == interaction.id.toLong()) {
-                it.remove()
-                return true
-            }
-        }
-        return false
-    }
+    private fun removeInteraction(interactionId: Long): Boolean =
+        aggregateHistory.removeFirst { interactionId == it.id.toLong() }
 
     /**
      * Clears the conversation cache.
      * @param delete true if you do not want to re-add contact events
      */
-    @Synchronized
-    fun clearHistory(delete: Boolean) {
+    fun clearHistory(delete: Boolean) { withLock {
         aggregateHistory.clear()
         rawHistory.clear()
         mDirty = false
         if (!delete && !isSwarm && contacts.size == 1)
             aggregateHistory.add(ContactEvent(accountId, contacts[0]))
-        clearedSubject.onNext(ArrayList(aggregateHistory))
-    }
+        emitCleared()
+    } }
 
     @Synchronized
     fun setHistory(loadedConversation: List<Interaction>) {
         mDirty = true
-        aggregateHistory.ensureCapacity(loadedConversation.size)
         for (i in loadedConversation) {
             val interaction = getTypedInteraction(i)
             setInteractionProperties(interaction)
@@ -587,8 +625,30 @@ class Conversation(
         sortHistory()
     }
 
-    @Synchronized
-    fun addElement(interaction: Interaction) {
+    /**
+     * Adds a page of interactions older than the loaded history, for non-swarm conversations.
+     * The added interactions are emitted as a single batch on [updatedElementBatches].
+     */
+    fun addHistoryPage(olderInteractions: List<Interaction>) { withLock {
+        if (olderInteractions.isEmpty()) return
+        val changes = ArrayList<Pair<Interaction, ElementStatus>>(olderInteractions.size)
+        val loaded = aggregateHistory.toList()
+        aggregateHistory.clear()
+        for (i in olderInteractions) {
+            val interaction = getTypedInteraction(i)
+            setInteractionProperties(interaction)
+            aggregateHistory.add(interaction)
+            rawHistory.putIfAbsent(interaction.timestamp, interaction)
+            changes.add(Pair(interaction, ElementStatus.ADD))
+        }
+        // The page goes first, so the stable sort keeps it before loaded interactions sharing its timestamps
+        loaded.forEach { aggregateHistory.add(it) }
+        mDirty = true
+        sortHistory()
+        publishChanges(changes)
+    } }
+
+    fun addElement(interaction: Interaction) { withLock {
         setInteractionProperties(interaction)
         when (interaction.type) {
             Interaction.InteractionType.TEXT -> addTextMessage(TextMessage(interaction))
@@ -597,6 +657,159 @@ class Conversation(
             Interaction.InteractionType.DATA_TRANSFER -> addFileTransfer(DataTransfer(interaction))
             else -> {}
         }
+    } }
+
+    /**
+     * Adds several swarm interactions to the conversation, in order.
+     * The resulting element changes are emitted as a single batch on [updatedElementBatches].
+     *
+     * @param interactions The interactions to add.
+     * @param newMessage   Indicates whether these are new messages.
+     */
+    fun addSwarmElements(interactions: List<Interaction>, newMessage: Boolean) { withLock {
+        if (pendingElementChanges != null) {
+            interactions.forEach { addSwarmElement(it, newMessage) }
+            return
+        }
+        val fromCache = isHistoryFromCache && !newMessage
+        if (fromCache && interactions.none { it.messageId == aggregateHistory.last?.messageId }) {
+            // The cached messages can't be joined with the loaded ones
+            aggregateHistory.clear()
+            rawHistory.clear()
+            mMessages.clear()
+            emitCleared()
+        }
+        val changes = ArrayList<Pair<Interaction, ElementStatus>>(interactions.size)
+        pendingElementChanges = changes
+        try {
+            if (fromCache)
+                replaceCachedElements(interactions)
+            else
+                interactions.forEach { addSwarmElement(it, newMessage) }
+        } finally {
+            pendingElementChanges = null
+        }
+        if (changes.isNotEmpty())
+            publishChanges(changes)
+    } }
+
+    /**
+     * Shows cached swarm messages while the history is loaded from the daemon.
+     * The messages are replaced by the next messages loaded, see [addSwarmElements].
+     *
+     * @param interactions The cached messages, from the most recent one.
+     * @return false if the history was already loaded
+     */
+    fun addCachedSwarmElements(interactions: List<Interaction>): Boolean = withLock {
+        if (interactions.isEmpty() || !aggregateHistory.isEmpty())
+            return false
+        addSwarmElements(interactions, false)
+        isHistoryFromCache = true
+        return true
+    }
+
+    /**
+     * Updates the cached messages with their loaded version, and adds the other loaded messages:
+     * the messages following the cached ones first, from the oldest, then the older messages.
+     */
+    private fun replaceCachedElements(interactions: List<Interaction>) {
+        isHistoryFromCache = false
+        val loaded = ArrayList<Interaction>(interactions.size)
+        for (interaction in interactions) {
+            val cached = mMessages[interaction.messageId]
+            if (cached != null) {
+                cached.statusMap = interaction.statusMap
+                updateSwarmMessage(interaction)
+            } else loaded.add(interaction)
+        }
+        if (loaded.isEmpty())
+            return
+        val children = loaded.associateBy { it.parentId }
+        var child = aggregateHistory.last?.messageId?.let { children[it] }
+        while (child != null) {
+            addSwarmElement(child, false)
+            child = children[child.messageId]
+        }
+        for (interaction in loaded)
+            if (!mMessages.containsKey(interaction.messageId))
+                addSwarmElement(interaction, false)
+    }
+
+    /**
+     * Runs [block] with the lock on the conversation held, then emits the history changes made
+     * meanwhile, once the lock is released.
+     */
+    inline fun <T> withLock(block: () -> T): T =
+        try {
+            synchronized(this, block)
+        } finally {
+            emitPendingChanges()
+        }
+
+    /**
+     * Emits the queued history changes in order, from a single thread at a time.
+     * Does nothing if this thread holds the lock: they're emitted once it's released.
+     */
+    @PublishedApi
+    internal fun emitPendingChanges() {
+        if (Thread.holdsLock(this))
+            return
+        synchronized(pendingEmissions) {
+            if (emitting) return
+            emitting = true
+        }
+        try {
+            while (true) {
+                val emission = synchronized(pendingEmissions) {
+                    pendingEmissions.pollFirst().also { if (it == null) emitting = false }
+                } ?: return
+                emission()
+            }
+        } catch (e: Throwable) {
+            synchronized(pendingEmissions) { emitting = false }
+            throw e
+        }
+    }
+
+    /** Queues an emission after the previous ones. Must be called with the lock held. */
+    private fun emitLater(emission: () -> Unit) {
+        synchronized(pendingEmissions) { pendingEmissions.addLast(emission) }
+    }
+
+    private fun emitHistoryChanges(changes: HistoryChanges) {
+        changes.version = ++historyVersion
+        emitLater { historyChangesSubject.onNext(changes) }
+    }
+
+    private fun emitCleared() {
+        val snapshot = HistorySnapshot(++historyVersion, aggregateHistory.toList())
+        emitLater { clearedSubject.onNext(snapshot) }
+    }
+
+    private fun notifyElement(interaction: Interaction, status: ElementStatus) {
+        val pending = pendingElementChanges
+        if (pending != null) pending.add(Pair(interaction, status))
+        else publishChanges(listOf(Pair(interaction, status)))
+    }
+
+    /** Queues element changes, and their positions if observed. Removals are located by [removeInteraction]. */
+    private fun publishChanges(changes: List<Pair<Interaction, ElementStatus>>) {
+        emitLater { updatedElementSubject.onNext(changes) }
+        if (!historyChangesSubject.hasObservers())
+            return
+        sortHistory()
+        val added = ArrayList<Interaction>(changes.size)
+        val updated = ArrayList<Interaction>()
+        for ((interaction, status) in changes) {
+            when (status) {
+                ElementStatus.ADD -> added.add(interaction)
+                ElementStatus.UPDATE -> updated.add(interaction)
+                ElementStatus.REMOVE -> {}
+            }
+        }
+        val historyChanges = HistoryChanges.locate(aggregateHistory.size, aggregateHistory.descendingIterator(), added, updated)
+        if (!historyChanges.isEmpty)
+            emitHistoryChanges(historyChanges)
     }
 
     /**
@@ -605,8 +818,7 @@ class Conversation(
      * @param interaction The interaction to add.
      * @param newMessage  Indicates whether it is a new message.
      */
-    @Synchronized
-    fun addSwarmElement(interaction: Interaction, newMessage: Boolean) {
+    fun addSwarmElement(interaction: Interaction, newMessage: Boolean) { withLock {
         // Handle call interaction
         if (interaction is CallHistory && interaction.confId != null) {
             // interaction.duration is changed when the call is ended.
@@ -656,41 +868,14 @@ class Conversation(
 
         if (lastRead != null && lastRead == id) interaction.read()
         if (lastNotified != null && lastNotified == id) interaction.isNotified = true
-        var newLeaf = false
-        var added = false
-        if (aggregateHistory.isEmpty() || aggregateHistory.last().messageId == interaction.parentId) {
-            // New leaf
-            added = true
-            newLeaf = true
-            aggregateHistory.add(interaction)
-            updatedElementSubject.onNext(Pair(interaction, ElementStatus.ADD))
-        } else {
-            // New root or normal node
-            for (i in aggregateHistory.indices) {
-                if (id == aggregateHistory[i].parentId) {
-                    aggregateHistory.add(i, interaction)
-                    updatedElementSubject.onNext(Pair(interaction, ElementStatus.ADD))
-                    added = true
-                    // Checks if the new interaction is the last non-invalid message.
-                    // E.g. could be the case for Call where end call is marked as Invalid.
-                    newLeaf = !aggregateHistory.drop(i + 1)
-                        .any { it.type != Interaction.InteractionType.INVALID }
-                    break
-                }
-            }
-            if (!added) {
-                for (i in aggregateHistory.indices.reversed()) {
-                    if (aggregateHistory[i].messageId == interaction.parentId) {
-                        added = true
-                        newLeaf = true
-                        aggregateHistory.add(i + 1, interaction)
-                        updatedElementSubject.onNext(Pair(interaction, ElementStatus.ADD))
-                        break
-                    }
-                }
-            }
-        }
-        if (newLeaf) {
+        // New leaf, new root or normal node.
+        // A node inserted before its child is still a leaf if only invalid interactions follow
+        // it, e.g. could be the case for Call where end call is marked as Invalid.
+        val placement = aggregateHistory.addSwarm(interaction)
+        val added = placement != InteractionHistory.Placement.DETACHED
+        if (added)
+            notifyElement(interaction, ElementStatus.ADD)
+        if (placement == InteractionHistory.Placement.LEAF) {
             if (isVisible) {
                 interaction.read()
                 setLastMessageRead(id)
@@ -702,30 +887,99 @@ class Conversation(
             Log.e(TAG, "Unable to attach interaction $id with parent ${interaction.parentId}")
         }
         mPendingMessages.remove(id)?.onSuccess(interaction)
-    }
+    } }
 
-    fun updateFileTransfer(transfer: DataTransfer, eventCode: Interaction.TransferStatus) {
+    fun updateFileTransfer(transfer: DataTransfer, eventCode: Interaction.TransferStatus) { withLock {
         val dataTransfer = (if (isSwarm) transfer else findConversationElement(transfer.id)) as? DataTransfer
         if (dataTransfer != null) {
             dataTransfer.transferStatus = eventCode
-            updatedElementSubject.onNext(Pair(dataTransfer, ElementStatus.UPDATE))
+            notifyElement(dataTransfer, ElementStatus.UPDATE)
         }
-    }
+    } }
 
-    @Synchronized
-    fun notifyDataTransferUpdated(transfer: DataTransfer): Boolean {
+    fun notifyDataTransferUpdated(transfer: DataTransfer): Boolean = withLock {
         if (transfer.messageId == null || mMessages[transfer.messageId] !== transfer)
             return false
-        updatedElementSubject.onNext(Pair(transfer, ElementStatus.UPDATE))
+        notifyElement(transfer, ElementStatus.UPDATE)
         return true
     }
 
-    fun removeInteraction(interaction: Interaction) {
+    fun removeInteraction(interaction: Interaction) { withLock {
+        sortHistory()
+        val position: Int
         if (isSwarm) {
-            if (removeSwarmInteraction(interaction.messageId!!)) updatedElementSubject.onNext(Pair(interaction, ElementStatus.REMOVE))
+            val messageId = interaction.messageId!!
+            position = aggregateHistory.indexOfFirst { it.messageId == messageId }
+            if (!removeSwarmInteraction(messageId)) return
         } else {
-            if (removeInteraction(interaction.id.toLong())) updatedElementSubject.onNext(Pair(interaction, ElementStatus.REMOVE))
+            val id = interaction.id
+            position = aggregateHistory.indexOfFirst { it.id == id }
+            if (!removeInteraction(id.toLong())) return
         }
+        notifyElement(interaction, ElementStatus.REMOVE)
+        if (position != -1)
+            emitHistoryChanges(HistoryChanges.removed(position, interaction))
+    } }
+
+    /** True if the history shows cached messages, see [addCachedSwarmElements] */
+    var isHistoryFromCache = false
+        private set
+
+    /** True if the loaded history was released by [evictHistory] and not reloaded since */
+    var isHistoryEvicted = false
+        private set
+    /** Oldest swarm message that was loaded when the history was evicted */
+    var evictedUntil: String? = null
+        private set
+
+    /** Rough estimate of the memory used by the loaded history, in bytes */
+    @Synchronized
+    fun estimateHistorySize(): Long = aggregateHistory.estimatedBytes
+
+    /**
+     * Releases the loaded history of the conversation, keeping [lastEvent] and the read state.
+     * The history must be loaded again with [loaded] cleared, see [startHistoryReload].
+     * @return false if the history is in use and was kept
+     */
+    fun evictHistory(): Boolean {
+        // Histories that can't be loaded again
+        if (if (isSwarm) mode.blockingFirst().let { it == Mode.Request || it == Mode.Syncing } else id == null)
+            return false
+        withLock { synchronized(loadingLock()) {
+            if (mVisible || loading != null || aggregateHistory.isEmpty())
+                return false
+            if (isSwarm)
+                evictedUntil = aggregateHistory.first?.messageId ?: evictedUntil
+            aggregateHistory.clear()
+            rawHistory.clear()
+            mMessages.clear()
+            conferenceStarted.clear()
+            conferenceEnded.clear()
+            mDirty = false
+            historyCursor = null
+            loaded = null
+            isHistoryFromCache = false
+            isHistoryEvicted = true
+            emitCleared()
+        } }
+        return true
+    }
+
+    /**
+     * Clears what was received since the history was evicted, before it is loaded again.
+     * @return the oldest swarm message to load again, if any
+     */
+    fun startHistoryReload(): String? = withLock {
+        if (!isHistoryEvicted)
+            return null
+        isHistoryEvicted = false
+        if (!aggregateHistory.isEmpty()) {
+            aggregateHistory.clear()
+            rawHistory.clear()
+            mMessages.clear()
+            emitCleared()
+        }
+        return evictedUntil.also { evictedUntil = null }
     }
 
     fun removeAll() {
@@ -819,10 +1073,12 @@ class Conversation(
         interaction?.removeReaction(id)
     }
 
-    @Synchronized
-    fun updateSwarmMessage(interaction: Interaction) {
+    fun updateSwarmMessage(interaction: Interaction) { withLock {
         val existingInteraction = interaction.messageId?.let { getMessage(it) } ?: return
-        interaction.parentId?.let { existingInteraction.updateParent(it) }
+        interaction.parentId?.let {
+            existingInteraction.updateParent(it)
+            aggregateHistory.reparent(existingInteraction)
+        }
         existingInteraction.replaceEdits(interaction.history)
         existingInteraction.replaceReactions(interaction.reactions)
         existingInteraction.body = interaction.body
@@ -832,11 +1088,11 @@ class Conversation(
             existingInteraction.transferStatus = Interaction.TransferStatus.FILE_REMOVED
         }
 
-        updatedElementSubject.onNext(Pair(existingInteraction, ElementStatus.UPDATE))
+        notifyElement(existingInteraction, ElementStatus.UPDATE)
         if (lastEvent == existingInteraction) {
             lastEventSubject.onNext(existingInteraction)
         }
-    }
+    } }
 
     data class ActiveCall(val confId: String, val uri: String, val device: String) {
         constructor(map: Map<String, String>) :
@@ -47,5 +47,11 @@ open class ConversationHistory {
         const val COLUMN_CONVERSATION_ID = "id"
         const val COLUMN_PARTICIPANT = "participant"
         const val COLUMN_EXTRA_DATA = "extra_data"
+
+        /** Table holding the local preferences of each conversation, as key-value pairs */
+        const val PREFERENCES_TABLE_NAME = "conversation_preferences"
+        const val COLUMN_PREFERENCES_CONVERSATION = "conversation"
+        const val COLUMN_PREFERENCES_KEY = "key"
+        const val COLUMN_PREFERENCES_VALUE = "value"
     }
 }
\ No newline at end of file
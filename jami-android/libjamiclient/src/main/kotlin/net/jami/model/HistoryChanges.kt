@@ -0,0 +1,98 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.model
+
+import net.jami.model.interaction.Interaction
+import java.util.IdentityHashMap
+
+/**
+ * Changes of the history of a conversation, by position in its sorted history.
+ *
+ * To be applied in order: [removed] ranges, by position before the changes and from the last
+ * one, then [inserted] ranges, by position after the changes and from the first one, then
+ * [changed] ranges, by position after the changes.
+ */
+class HistoryChanges(
+    val removed: List<Range>,
+    val inserted: List<Range>,
+    val changed: List<Range>
+) : HistoryUpdate {
+    override var version = 0L
+        internal set
+
+    /** Consecutive interactions of the history, starting at [position] */
+    class Range(val position: Int, val interactions: List<Interaction>) {
+        val count: Int
+            get() = interactions.size
+        val end: Int
+            get() = position + interactions.size
+    }
+
+    val isEmpty: Boolean
+        get() = removed.isEmpty() && inserted.isEmpty() && changed.isEmpty()
+
+    companion object {
+        /**
+         * Locates added and updated interactions in a history of [size] interactions, walking it
+         * from the last interaction as changes are usually recent. An interaction both added
+         * and updated is only reported as inserted.
+         */
+        fun locate(size: Int, descending: Iterator<Interaction>, added: Collection<Interaction>, updated: Collection<Interaction>): HistoryChanges {
+            val addedSet = IdentityHashMap<Interaction, Unit>(added.size).apply { added.forEach { put(it, Unit) } }
+            val updatedSet = IdentityHashMap<Interaction, Unit>(updated.size).apply {
+                updated.forEach { if (!addedSet.containsKey(it)) put(it, Unit) }
+            }
+            val inserted = ArrayList<Pair<Int, Interaction>>(addedSet.size)
+            val changed = ArrayList<Pair<Int, Interaction>>(updatedSet.size)
+            var remaining = addedSet.size + updatedSet.size
+            var position = size
+            while (remaining > 0 && descending.hasNext()) {
+                val interaction = descending.next()
+                position--
+                if (addedSet.containsKey(interaction)) {
+                    inserted.add(Pair(position, interaction))
+                    remaining--
+                } else if (updatedSet.containsKey(interaction)) {
+                    changed.add(Pair(position, interaction))
+                    remaining--
+                }
+            }
+            return HistoryChanges(emptyList(), ranges(inserted.asReversed()), ranges(changed.asReversed()))
+        }
+
+        /** Merges positions, in increasing order, into ranges of consecutive positions */
+        private fun ranges(positions: List<Pair<Int, Interaction>>): List<Range> {
+            val ranges = ArrayList<Range>()
+            var start = -1
+            var current: MutableList<Interaction>? = null
+            for ((position, interaction) in positions) {
+                if (current != null && start + current.size == position) {
+                    current.add(interaction)
+                } else {
+                    current?.let { ranges.add(Range(start, it)) }
+                    start = position
+                    current = mutableListOf(interaction)
+                }
+            }
+            current?.let { ranges.add(Range(start, it)) }
+            return ranges
+        }
+
+        fun removed(position: Int, interaction: Interaction) =
+            HistoryChanges(listOf(Range(position, listOf(interaction))), emptyList(), emptyList())
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.model
+
+import net.jami.model.interaction.Interaction
+
+/** An update of the sorted history of a conversation, see [Conversation.historyUpdates] */
+sealed interface HistoryUpdate {
+    /** Version of the history once updated: later updates have greater versions */
+    val version: Long
+}
+
+/** The whole sorted history of a conversation */
+class HistorySnapshot(override val version: Long, val interactions: List<Interaction>) : HistoryUpdate
@@ -0,0 +1,314 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.model
+
+import net.jami.model.interaction.Interaction
+
+/**
+ * Ordered history of a conversation.
+ *
+ * Interactions are kept in a doubly linked list so that swarm messages received out of order
+ * can be attached next to their parent or child without shifting or scanning the history.
+ * Swarm messages are indexed by message id and by parent id, and every node carries an order
+ * label (order-maintenance list) so that two positions can be compared in constant time.
+ *
+ * Not thread safe: callers synchronize on the owning [Conversation].
+ */
+class InteractionHistory : Iterable<Interaction> {
+    private class Node(val interaction: Interaction) {
+        /** Estimated size of the interaction when it was added */
+        val bytes = INTERACTION_SIZE_ESTIMATE + 2L * (interaction.body?.length ?: 0)
+        var prev: Node? = null
+        var next: Node? = null
+        var label = 0L
+        /** Parent id this node is indexed under in [children] */
+        var parentKey: String? = null
+    }
+
+    enum class Placement {
+        /** Attached after every other valid interaction */
+        LEAF,
+        /** Attached before an existing interaction */
+        INNER,
+        /** Neither the parent nor a child of the interaction is known */
+        DETACHED
+    }
+
+    private var head: Node? = null
+    private var tail: Node? = null
+    private var lastValidNode: Node? = null
+    private val nodes = HashMap<String, Node>()
+    private val children = HashMap<String, MutableList<Node>>()
+
+    var size = 0
+        private set
+
+    /** Rough estimate of the memory used by the interactions, in bytes, kept as they are added or removed */
+    var estimatedBytes = 0L
+        private set
+
+    fun isEmpty() = size == 0
+
+    val first: Interaction?
+        get() = head?.interaction
+
+    val last: Interaction?
+        get() = tail?.interaction
+
+    /** Last interaction which is not [Interaction.InteractionType.INVALID] */
+    val lastValid: Interaction?
+        get() = lastValidNode?.interaction
+
+    /** Appends an interaction at the end of the history. */
+    fun add(interaction: Interaction) {
+        insertAfter(tail, Node(interaction))
+    }
+
+    /**
+     * Attaches a swarm interaction to the history: right after the last interaction if it is
+     * its parent, otherwise before its first child, otherwise after its parent.
+     */
+    fun addSwarm(interaction: Interaction): Placement {
+        val parentId = interaction.parentId
+        val last = tail
+        if (last == null || last.interaction.messageId == parentId) {
+            add(interaction)
+            return Placement.LEAF
+        }
+        val child = firstChild(interaction.messageId!!)
+        if (child != null) {
+            val validAfter = lastValidNode?.let { it.label >= child.label } ?: false
+            insertAfter(child.prev, Node(interaction))
+            return if (validAfter) Placement.INNER else Placement.LEAF
+        }
+        val parent = if (parentId != null) nodes[parentId] else lastUnindexed()
+        if (parent != null) {
+            insertAfter(parent, Node(interaction))
+            return Placement.LEAF
+        }
+        return Placement.DETACHED
+    }
+
+    /** Updates the parent index after [Interaction.updateParent]. */
+    fun reparent(interaction: Interaction) {
+        val node = findNode(interaction) ?: return
+        unindexParent(node)
+        indexParent(node)
+    }
+
+    fun contains(interaction: Interaction): Boolean = findNode(interaction) != null
+
+    fun remove(interaction: Interaction): Boolean {
+        unlink(findNode(interaction) ?: return false)
+        return true
+    }
+
+    /** Position of the first interaction matching [predicate], or -1 */
+    fun indexOfFirst(predicate: (Interaction) -> Boolean): Int {
+        var node = head
+        var index = 0
+        while (node != null) {
+            if (predicate(node.interaction))
+                return index
+            node = node.next
+            index++
+        }
+        return -1
+    }
+
+    /** Removes the first interaction matching [predicate]. */
+    fun removeFirst(predicate: (Interaction) -> Boolean): Boolean {
+        var node = head
+        while (node != null) {
+            if (predicate(node.interaction)) {
+                unlink(node)
+                return true
+            }
+            node = node.next
+        }
+        return false
+    }
+
+    fun clear() {
+        head = null
+        tail = null
+        lastValidNode = null
+        nodes.clear()
+        children.clear()
+        size = 0
+        estimatedBytes = 0L
+    }
+
+    /** Sorts the history, used for legacy conversations ordered by timestamp. */
+    fun sortWith(comparator: Comparator<in Interaction>) {
+        val sorted = toList().sortedWith(comparator)
+        clear()
+        sorted.forEach { add(it) }
+    }
+
+    fun toList(): MutableList<Interaction> = ArrayList<Interaction>(size).apply {
+        var node = head
+        while (node != null) {
+            add(node.interaction)
+            node = node.next
+        }
+    }
+
+    override fun iterator(): Iterator<Interaction> = NodeIterator(head, true)
+
+    /** Iterates from the most recent interaction to the oldest one. */
+    fun descendingIterator(): Iterator<Interaction> = NodeIterator(tail, false)
+
+    fun reversed(): Iterable<Interaction> = Iterable { descendingIterator() }
+
+    private class NodeIterator(private var node: Node?, private val forward: Boolean) : Iterator<Interaction> {
+        override fun hasNext() = node != null
+        override fun next(): Interaction {
+            val current = node ?: throw NoSuchElementException()
+            node = if (forward) current.next else current.prev
+            return current.interaction
+        }
+    }
+
+    private fun findNode(interaction: Interaction): Node? {
+        interaction.messageId?.let { id ->
+            val node = nodes[id]
+            if (node != null && node.interaction === interaction)
+                return node
+        }
+        var node = head
+        while (node != null) {
+            if (node.interaction === interaction)
+                return node
+            node = node.next
+        }
+        return null
+    }
+
+    private fun firstChild(messageId: String): Node? =
+        children[messageId]?.minByOrNull { it.label }
+
+    /** Swarm roots have no parent id and attach after the last non-swarm element, if any. */
+    private fun lastUnindexed(): Node? {
+        var node = tail
+        while (node != null) {
+            if (node.interaction.messageId == null)
+                return node
+            node = node.prev
+        }
+        return null
+    }
+
+    private fun insertAfter(prev: Node?, node: Node) {
+        val next = if (prev == null) head else prev.next
+        node.label = when {
+            prev == null && next == null -> 0L
+            prev == null -> next!!.label - LABEL_GAP
+            next == null -> prev.label + LABEL_GAP
+            else -> {
+                if (next.label - prev.label < 2)
+                    makeRoomAfter(prev)
+                prev.label + (prev.next!!.label - prev.label) / 2
+            }
+        }
+        node.prev = prev
+        node.next = next
+        if (prev == null) head = node else prev.next = node
+        if (next == null) tail = node else next.prev = node
+        size++
+        estimatedBytes += node.bytes
+
+        node.interaction.messageId?.let { id ->
+            val existing = nodes[id]
+            if (existing == null || existing.label < node.label)
+                nodes[id] = node
+        }
+        indexParent(node)
+        if (node.interaction.type != Interaction.InteractionType.INVALID) {
+            val lastValid = lastValidNode
+            if (lastValid == null || lastValid.label < node.label)
+                lastValidNode = node
+        }
+    }
+
+    /**
+     * Spreads the labels following [node] so that a new node can be inserted right after it.
+     * The window grows until the label span exceeds the square of the number of relabelled
+     * nodes, which keeps relabelling amortized O(log n) per insertion.
+     */
+    private fun makeRoomAfter(node: Node) {
+        var count = 0L
+        var end = node.next
+        while (end != null && end.label - node.label <= (count + 1) * (count + 1)) {
+            count++
+            end = end.next
+        }
+        val step = if (end == null) LABEL_GAP else (end.label - node.label) / (count + 1)
+        var current = node.next
+        var label = node.label
+        while (current !== end) {
+            label += step
+            current!!.label = label
+            current = current.next
+        }
+    }
+
+    private fun unlink(node: Node) {
+        val prev = node.prev
+        val next = node.next
+        if (prev == null) head = next else prev.next = next
+        if (next == null) tail = prev else next.prev = prev
+        node.prev = null
+        node.next = null
+        size--
+        estimatedBytes -= node.bytes
+
+        node.interaction.messageId?.let { id ->
+            if (nodes[id] === node)
+                nodes.remove(id)
+        }
+        unindexParent(node)
+        if (lastValidNode === node) {
+            var n = prev
+            while (n != null && n.interaction.type == Interaction.InteractionType.INVALID)
+                n = n.prev
+            lastValidNode = n
+        }
+    }
+
+    private fun indexParent(node: Node) {
+        val parentId = node.interaction.parentId ?: return
+        node.parentKey = parentId
+        children.getOrPut(parentId) { ArrayList(1) }.add(node)
+    }
+
+    private fun unindexParent(node: Node) {
+        val parentId = node.parentKey ?: return
+        node.parentKey = null
+        children[parentId]?.let { siblings ->
+            siblings.remove(node)
+            if (siblings.isEmpty())
+                children.remove(parentId)
+        }
+    }
+
+    companion object {
+        private const val LABEL_GAP = 1L shl 20
+        /** Estimated memory used by an interaction, besides its body */
+        private const val INTERACTION_SIZE_ESTIMATE = 256L
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.model
+
+import io.reactivex.rxjava3.core.Single
+import java.lang.ref.SoftReference
+
+/**
+ * Profile of a conversation, kept as its raw fields until first subscribed.
+ *
+ * The avatar is only decoded by [decodeAvatar] when the profile is materialized. The
+ * materialized profile is softly referenced: it can be released under memory pressure and is
+ * then materialized again on demand.
+ */
+class LazyProfile(
+    val title: String?,
+    val description: String?,
+    private val avatar: String?,
+    private val decodeAvatar: (String) -> Any?
+) {
+    private var materialized: SoftReference<Profile>? = null
+
+    /** Materializes the profile on subscription */
+    val single: Single<Profile> = Single.fromCallable { materialize() }
+
+    val isMaterialized: Boolean
+        @Synchronized get() = materialized?.get() != null
+
+    @Synchronized
+    fun materialize(): Profile = materialized?.get()
+        ?: Profile(title, avatar?.let(decodeAvatar), description).also { materialized = SoftReference(it) }
+
+    companion object {
+        /** Keeps the profile fields of conversation infos, as provided by the daemon */
+        fun fromInfo(info: Map<String, String>, decodeAvatar: (String) -> Any?) = LazyProfile(
+            info["title"]?.ifBlank { null },
+            info["description"],
+            info["avatar"]?.ifEmpty { null },
+            decodeAvatar
+        )
+    }
+}
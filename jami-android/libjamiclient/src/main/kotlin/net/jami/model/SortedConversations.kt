@@ -0,0 +1,199 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.model
+
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.core.ObservableEmitter
+import io.reactivex.rxjava3.disposables.Disposable
+import net.jami.model.interaction.Interaction
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Keeps a list of conversations sorted by last event, most recent first.
+ *
+ * The list is kept sorted incrementally: when the last event of a conversation changes, only
+ * this conversation is repositioned (binary search) instead of sorting the whole list again.
+ */
+class SortedConversations private constructor(
+    private val emitter: ObservableEmitter<Update>
+) {
+    /**
+     * @param conversations the sorted conversation list
+     * @param unreadCount number of conversations whose last event is an unread incoming message
+     */
+    class Update(
+        val conversations: List<Conversation>,
+        val unreadCount: Int
+    )
+
+    private class Entry(val conversation: Conversation, val key: String) {
+        var timestamp = 0L
+        var unread = false
+        var inserted = false
+        var subscription: Disposable? = null
+    }
+
+    private val entries = HashMap<Conversation, Entry>()
+    private val sorted = ArrayList<Entry>()
+    private var unreadCount = 0
+    private var batching = false
+
+    private val queue = ConcurrentLinkedQueue<Update>()
+    private val wip = AtomicInteger()
+
+    private fun setConversations(conversations: Collection<Conversation>) {
+        val added = ArrayList<Conversation>()
+        synchronized(this) {
+            batching = true
+            val current = if (conversations is Set<*>) conversations else conversations.toHashSet()
+            val it = entries.values.iterator()
+            while (it.hasNext()) {
+                val entry = it.next()
+                if (!current.contains(entry.conversation)) {
+                    it.remove()
+                    entry.subscription?.dispose()
+                    removeEntry(entry)
+                }
+            }
+            for (conversation in conversations) {
+                if (!entries.containsKey(conversation)) {
+                    entries[conversation] = Entry(conversation, conversation.uri.uri)
+                    added.add(conversation)
+                }
+            }
+        }
+        // Last events are behavior subjects: the initial values are delivered during subscribe
+        for (conversation in added) {
+            val entry = synchronized(this) { entries[conversation] } ?: continue
+            val subscription = conversation.lastEventObservable.subscribe { event -> onLastEvent(entry, event) }
+            synchronized(this) {
+                if (entries[conversation] === entry) entry.subscription = subscription
+                else subscription.dispose()
+            }
+        }
+        synchronized(this) {
+            batching = false
+            publish()
+        }
+        drain()
+    }
+
+    private fun onLastEvent(entry: Entry, event: Interaction) {
+        synchronized(this) {
+            if (entries[entry.conversation] !== entry)
+                return
+            val unread = !event.isRead && event.isIncoming // a conversation is unread only if its last event is an unread *incoming* message
+            if (!entry.inserted) {
+                entry.inserted = true
+                entry.timestamp = event.timestamp
+                setUnread(entry, unread)
+                sorted.add(insertionPoint(entry), entry)
+            } else {
+                sorted.removeAt(indexOf(entry))
+                entry.timestamp = event.timestamp
+                setUnread(entry, unread)
+                sorted.add(insertionPoint(entry), entry)
+            }
+            if (!batching)
+                publish()
+        }
+        drain()
+    }
+
+    private fun removeEntry(entry: Entry) {
+        val position = indexOf(entry)
+        if (position < 0) return
+        sorted.removeAt(position)
+        setUnread(entry, false)
+    }
+
+    private fun setUnread(entry: Entry, unread: Boolean) {
+        if (entry.unread != unread) {
+            entry.unread = unread
+            unreadCount += if (unread) 1 else -1
+        }
+    }
+
+    private fun compare(a: Entry, b: Entry): Int {
+        val c = b.timestamp.compareTo(a.timestamp)
+        return if (c != 0) c else a.key.compareTo(b.key)
+    }
+
+    /** Position of the first entry sorted after [entry] */
+    private fun insertionPoint(entry: Entry): Int {
+        var low = 0
+        var high = sorted.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (compare(sorted[mid], entry) <= 0) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    private fun indexOf(entry: Entry): Int {
+        // Entries are unique for a given (timestamp, key): the search lands on the entry itself
+        val position = insertionPoint(entry) - 1
+        if (position >= 0 && sorted[position] === entry) return position
+        return sorted.indexOf(entry)
+    }
+
+    private fun publish() {
+        val list = ArrayList<Conversation>(sorted.size)
+        for (entry in sorted) list.add(entry.conversation)
+        queue.offer(Update(list, unreadCount))
+    }
+
+    /** Emits queued updates in order, outside of the lock */
+    private fun drain() {
+        if (wip.getAndIncrement() != 0) return
+        var missed = 1
+        do {
+            while (true) {
+                val update = queue.poll() ?: break
+                if (!emitter.isDisposed) emitter.onNext(update)
+            }
+            missed = wip.addAndGet(-missed)
+        } while (missed != 0)
+    }
+
+    private fun dispose() {
+        synchronized(this) {
+            for (entry in entries.values) entry.subscription?.dispose()
+            entries.clear()
+            sorted.clear()
+        }
+    }
+
+    companion object {
+        /**
+         * Sorts the conversations emitted by [source], following the last event of each of them.
+         */
+        fun sort(source: Observable<out Map<String, Conversation>>): Observable<Update> =
+            Observable.create { emitter ->
+                val index = SortedConversations(emitter)
+                val subscription = source.subscribe(
+                    { conversations -> index.setConversations(conversations.values) },
+                    emitter::onError,
+                    emitter::onComplete)
+                emitter.setCancellable {
+                    subscription.dispose()
+                    index.dispose()
+                }
+            }
+    }
+}
@@ -18,44 +18,60 @@ package net.jami.model
 
 import java.io.Serializable
 import java.lang.StringBuilder
-import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import java.util.regex.Pattern
 
+/**
+ * Immutable contact, conversation or SIP address.
+ *
+ * Derived properties ([isHexId], [isJami], [uri]...) are computed once, when the Uri is
+ * built, since they are read in tight loops (contact and conversation lookups).
+ * Two Uris are equal when their [username] and [host] are equal.
+ */
 class Uri : Serializable {
     val scheme: String?
     val username: String?
     val host: String
     val port: String?
 
+    val isHexId: Boolean
+    val isSwarm: Boolean
+    val isRendezvous: Boolean
+    val isJami: Boolean
+
+    /** Canonical key of the Uri, used to index contacts and conversations */
+    val uri: String
+    val rawUriString: String
+    private val hash: Int
+
     constructor(scheme: String?, user: String?, host: String, port: String?) {
         this.scheme = scheme
         username = user
         this.host = host
         this.port = port
+        isHexId = isHexId(host) || (user != null && isHexId(user))
+        isSwarm = SWARM_SCHEME == scheme
+        isRendezvous = RENDEZVOUS_SCHEME == scheme || (scheme == null && host.startsWith(RENDEZVOUS_SCHEME))
+        isJami = JAMI_URI_SCHEME == scheme || RING_URI_SCHEME == scheme || (scheme.isNullOrEmpty() && isHexId)
+        val rawRingId = user ?: host
+        if (isSwarm) {
+            uri = scheme + rawRingId
+            rawUriString = uri
+        } else if (isHexId) {
+            uri = rawRingId
+            rawUriString = DEFAULT_CONTACT_SCHEME + rawRingId
+        } else {
+            uri = toString()
+            rawUriString = uri
+        }
+        hash = 31 * (user?.hashCode() ?: 0) + host.hashCode()
     }
 
-    constructor(scheme: String?, host: String) {
-        this.scheme = scheme
-        username = null
-        this.host = host
-        port = null
-    }
+    constructor(scheme: String?, host: String) : this(scheme, null, host, null)
 
     val rawRingId: String
         get() = username ?: host
 
-    val uri: String
-        get() =
-            if (isSwarm) scheme + rawRingId
-            else if (isHexId) rawRingId
-            else toString()
-
-    val rawUriString: String
-        get() =
-            if (isSwarm) scheme + rawRingId
-            else if (isHexId) DEFAULT_CONTACT_SCHEME + rawRingId
-            else toString()
-
     override fun toString(): String {
         val builder = StringBuilder(64)
         if (!scheme.isNullOrEmpty()) {
@@ -75,14 +91,6 @@ class Uri : Serializable {
 
     val isSingleIp: Boolean
         get() = username.isNullOrEmpty() && isIpAddress(host)
-    val isHexId: Boolean
-        get() = HEX_ID_PATTERN.matcher(host).find() || username != null && HEX_ID_PATTERN.matcher(username).find()
-    val isSwarm: Boolean
-        get() = SWARM_SCHEME == scheme
-    val isRendezvous: Boolean
-        get() = RENDEZVOUS_SCHEME == scheme || (scheme == null && host.startsWith(RENDEZVOUS_SCHEME))
-    val isJami: Boolean
-        get() = JAMI_URI_SCHEME == scheme || RING_URI_SCHEME == scheme || (scheme.isNullOrEmpty() && isHexId)
 
     override fun equals(other: Any?): Boolean {
         if (this === other) {
@@ -91,20 +99,17 @@ class Uri : Serializable {
         if (other !is Uri) {
             return false
         }
-        return (username == other.username
+        return (hash == other.hash
+                && username == other.username
                 && host == other.host)
     }
 
-    override fun hashCode(): Int = Objects.hash(scheme, username, host, port)
+    override fun hashCode(): Int = hash
 
     val isEmpty: Boolean
         get() = username.isNullOrEmpty() && host.isEmpty()
 
     companion object {
-        private val ANGLE_BRACKETS_PATTERN = Pattern.compile("^\\s*([^<>]+)?\\s*<([^<>]+)>\\s*$")
-        private val HEX_ID_PATTERN = Pattern.compile("^\\p{XDigit}{40}$", Pattern.CASE_INSENSITIVE)
-        private val RING_URI_PATTERN = Pattern.compile("^\\s*(?:ring(?:[\\s:]+))?(\\p{XDigit}{40})(?:@ring\\.dht)?\\s*$", Pattern.CASE_INSENSITIVE)
-        private val URI_PATTERN = Pattern.compile("^\\s*(\\w+:)?(?:([\\w.]+)@)?(?:([\\d\\w.\\-]+)(?::(\\d+))?)\\s*$", Pattern.CASE_INSENSITIVE)
         const val RING_URI_SCHEME = "ring:"
         const val JAMI_URI_SCHEME = "jami:"
         const val SIP_URI_SCHEME = "sip:"
@@ -116,22 +121,111 @@ class Uri : Serializable {
         private val VALID_IPV4_PATTERN = Pattern.compile(ipv4Pattern, Pattern.CASE_INSENSITIVE)
         private val VALID_IPV6_PATTERN = Pattern.compile(ipv6Pattern, Pattern.CASE_INSENSITIVE)
 
-        fun fromString(uri: String): Uri {
-            val m = URI_PATTERN.matcher(uri)
-            return if (m.find()) {
-                Uri(m.group(1), m.group(2), m.group(3), m.group(4))
+        private const val HEX_ID_LENGTH = 40
+        /** Maximum number of parsed Uris kept by [fromString] */
+        private const val INTERN_TABLE_SIZE = 2048
+        private val internTable = ConcurrentHashMap<String, Uri>()
+
+        /**
+         * Parses a Uri of the form `[scheme:][username@]host[:port]`.
+         * If [uri] doesn't have this form, the whole string is used as host.
+         *
+         * The same string is often parsed again and again (contact ids received from the
+         * daemon), so parsed Uris are kept in a bounded intern table, unless [intern] is false.
+         */
+        fun fromString(uri: String, intern: Boolean = true): Uri {
+            if (!intern)
+                return parse(uri)
+            internTable[uri]?.let { return it }
+            val parsed = parse(uri)
+            if (internTable.size >= INTERN_TABLE_SIZE)
+                internTable.clear()
+            internTable[uri] = parsed
+            return parsed
+        }
+
+        /**
+         * Parses `\s*(\w+:)?(?:([\w.]+)@)?([\w.\-]+)(?::(\d+))?\s*`, without regex.
+         */
+        private fun parse(uri: String): Uri {
+            var start = 0
+            var end = uri.length
+            while (start < end && isSpace(uri[start])) start++
+            while (end > start && isSpace(uri[end - 1])) end--
+
+            // The scheme is only present if the first character after the word prefix is ':'
+            var i = start
+            while (i < end && isWordChar(uri[i])) i++
+            if (i > start && i < end && uri[i] == ':') {
+                val result = parseAddress(uri, uri.substring(start, i + 1), i + 1, end)
+                if (result != null)
+                    return result
+            }
+            return parseAddress(uri, null, start, end) ?: Uri(null, null, uri, null)
+        }
+
+        /** Parses `(?:([\w.]+)@)?([\w.\-]+)(?::(\d+))?` between [start] and [end] */
+        private fun parseAddress(uri: String, scheme: String?, start: Int, end: Int): Uri? {
+            var i = start
+            while (i < end && (isWordChar(uri[i]) || uri[i] == '.')) i++
+            val username: String?
+            val hostStart: Int
+            if (i > start && i < end && uri[i] == '@') {
+                username = uri.substring(start, i)
+                hostStart = i + 1
             } else {
-                Uri(null, null, uri, null)
+                username = null
+                hostStart = start
             }
+            i = hostStart
+            while (i < end && (isWordChar(uri[i]) || uri[i] == '.' || uri[i] == '-')) i++
+            if (i == hostStart)
+                return null
+            val host = uri.substring(hostStart, i)
+            if (i == end)
+                return Uri(scheme, username, host, null)
+            if (uri[i] != ':' || i + 1 == end)
+                return null
+            for (j in i + 1 until end)
+                if (uri[j] !in '0'..'9')
+                    return null
+            return Uri(scheme, username, host, uri.substring(i + 1, end))
+        }
+
+        /** Same characters as `\w` */
+        private fun isWordChar(c: Char) = c in 'a'..'z' || c in 'A'..'Z' || c in '0'..'9' || c == '_'
+
+        /** Same characters as `\s` */
+        private fun isSpace(c: Char) = c == ' ' || c in '\t'..'\r'
+
+        private fun isHexDigit(c: Char) = c in '0'..'9' || c in 'a'..'f' || c in 'A'..'F'
+
+        private fun isHexId(value: String): Boolean {
+            if (value.length != HEX_ID_LENGTH)
+                return false
+            for (c in value)
+                if (!isHexDigit(c))
+                    return false
+            return true
         }
 
+        /**
+         * Parses a Uri with an optional display name, of the form `[name] <uri>`.
+         * @return the Uri and the display name, if any
+         */
         fun fromStringWithName(uriString: String): Pair<Uri, String?> {
-            val m = ANGLE_BRACKETS_PATTERN.matcher(uriString)
-            return if (m.find()) {
-                Pair(fromString(m.group(2)), m.group(1))
-            } else {
-                Pair(fromString(uriString), null)
+            val open = uriString.indexOf('<')
+            val close = uriString.indexOf('>')
+            if (open != -1 && close > open + 1
+                && uriString.indexOf('<', open + 1) == -1
+                && uriString.indexOf('>', close + 1) == -1
+                && (close + 1 until uriString.length).all { isSpace(uriString[it]) }) {
+                var nameStart = 0
+                while (nameStart < open && isSpace(uriString[nameStart])) nameStart++
+                val name = if (nameStart < open) uriString.substring(nameStart, open) else null
+                return Pair(fromString(uriString.substring(open + 1, close)), name)
             }
+            return Pair(fromString(uriString), null)
         }
 
         fun fromId(conversationId: String): Uri = Uri(null, conversationId)
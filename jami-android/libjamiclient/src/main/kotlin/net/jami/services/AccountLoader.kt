@@ -0,0 +1,92 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.services
+
+import io.reactivex.rxjava3.core.Completable
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.core.Scheduler
+import io.reactivex.rxjava3.core.Single
+import io.reactivex.rxjava3.schedulers.Schedulers
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs the stages of account loading in parallel batches, on a bounded pool.
+ *
+ * @param threads maximum number of batches running at the same time
+ * @param batchSize number of items loaded together by a task
+ */
+internal class AccountLoader(
+    private val threads: Int = THREAD_COUNT,
+    private val batchSize: Int = BATCH_SIZE,
+    private val scheduler: Scheduler = Schedulers.from(ThreadPoolExecutor(threads, threads,
+        KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, LinkedBlockingQueue(), NamedThreadFactory("account-loader")).apply {
+        allowCoreThreadTimeOut(true)
+    })
+) {
+    /**
+     * Loads [items] in parallel batches.
+     * @return the non-null results, in the order of [items]
+     */
+    fun <T : Any, R : Any> load(items: List<T>, load: (T) -> R?): Single<List<R>> =
+        Observable.fromIterable(items)
+            .buffer(batchSize)
+            .concatMapEager({ batch ->
+                Single.fromCallable { batch.mapNotNull(load) }
+                    .subscribeOn(scheduler)
+                    .toObservable()
+            }, threads, 1)
+            .concatMapIterable { it }
+            .toList(items.size)
+
+    /**
+     * Loads [items] in parallel batches, highest [priority] first.
+     * Priorities are read again before taking each batch, so they may change while loading.
+     */
+    fun <T : Any> loadByPriority(items: List<T>, priority: (T) -> Long, load: (T) -> Unit): Completable =
+        Completable.defer {
+            val remaining = ArrayList(items)
+            Completable.merge((0 until minOf(threads, (items.size + batchSize - 1) / batchSize)).map {
+                Completable.fromAction {
+                    while (true) {
+                        val batch = nextBatch(remaining, priority)
+                        if (batch.isEmpty())
+                            break
+                        batch.forEach(load)
+                    }
+                }.subscribeOn(scheduler)
+            })
+        }
+
+    private fun <T : Any> nextBatch(remaining: MutableList<T>, priority: (T) -> Long): List<T> =
+        synchronized(remaining) {
+            if (remaining.isEmpty())
+                return emptyList()
+            // Priorities are read once, since they can change during the sort
+            val sorted = remaining.map { Pair(priority(it), it) }.sortedByDescending { it.first }
+            remaining.clear()
+            sorted.forEachIndexed { i, item -> if (i >= batchSize) remaining.add(item.second) }
+            sorted.subList(0, minOf(batchSize, sorted.size)).map { it.second }
+        }
+
+    companion object {
+        private const val THREAD_COUNT = 4
+        private const val BATCH_SIZE = 16
+        private const val KEEP_ALIVE_SECONDS = 10L
+    }
+}
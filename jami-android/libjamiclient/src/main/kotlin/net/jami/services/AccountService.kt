@@ -21,6 +21,7 @@ import io.reactivex.rxjava3.core.Completable
 import io.reactivex.rxjava3.core.Flowable
 import io.reactivex.rxjava3.core.Maybe
 import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.core.Scheduler
 import io.reactivex.rxjava3.core.Single
 import io.reactivex.rxjava3.processors.PublishProcessor
 import io.reactivex.rxjava3.schedulers.Schedulers
@@ -42,7 +43,6 @@ import java.net.URLEncoder
 import java.util.*
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ScheduledExecutorService
-import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
 import kotlin.collections.ArrayList
@@ -63,6 +63,10 @@ class AccountService(
 ) {
     private val scheduler = Schedulers.from(mExecutor)
     private val conversationCallbacks = ConversationCallbackDispatcher()
+    private val accountLoader = AccountLoader()
+    private val loadTimings = ConcurrentHashMap<String, List<LoadTiming>>()
+    private val connectionMonitors = ConcurrentHashMap<String, ConnectionMonitor>()
+    private val swarmMessagesReceived = conversationCallbacks.batched(::swarmMessagesReceivedNow)
     private class ConversationLoad(
         val conversation: Conversation,
         val subject: SingleSubject<Conversation>
@@ -183,6 +187,13 @@ class AccountService(
     private val dataTransfersProcessor = PublishProcessor.create<DataTransfer>()
     val dataTransfers: Flowable<DataTransfer>
         get() = dataTransfersProcessor
+    private val dataTransferProgressProcessor = PublishProcessor.create<List<DataTransfer>>()
+    /** Ongoing transfers whose progress changed, refreshed together */
+    val dataTransferProgress: Flowable<List<DataTransfer>>
+        get() = dataTransferProgressProcessor
+    private val dataTransferTicker = DataTransferTicker(scheduler, fileTransferInfoProvider) {
+        dataTransferProgressProcessor.onNext(it)
+    }
     private val incomingRequestsSubject: Subject<TrustRequest> = PublishSubject.create()
 
     enum class LookupState(state: Int) {
@@ -209,6 +220,19 @@ class AccountService(
     class UserSearchResult(val accountId: String, val query: String, val state: Int = 0, val results: List<Contact> = emptyList())
 
     private val registeredNameSubject: Subject<RegisteredName> = PublishSubject.create()
+
+    /**
+     * Results of the name and address lookups, shared by the contacts, conversations and calls.
+     * Names that were not found are looked up again sooner than found ones, and lookups that
+     * failed because of the network shortly after.
+     */
+    val registrationCache = LookupCache<RegistrationLookup, RegisteredName> { result ->
+        when (result.state) {
+            LookupState.Success -> REGISTRATION_TTL_MS
+            LookupState.Invalid, LookupState.NotFound -> REGISTRATION_NOT_FOUND_TTL_MS
+            LookupState.NetworkError -> REGISTRATION_ERROR_TTL_MS
+        }
+    }
     private val searchResultSubject: Subject<UserSearchResult> = PublishSubject.create()
 
     private data class DeviceRevocationResult (
@@ -272,7 +296,7 @@ class AccountService(
                 .filter { it != AccountConfig.RegistrationState.UNLOADED && it != AccountConfig.RegistrationState.INITIALIZING }
                 .firstElement()
                 .observeOn(scheduler)
-                .flatMapCompletable { Completable.fromAction { loadAccount(account) } }
+                .flatMapCompletable { loadAccount(account) }
                 .subscribe(account.loadedSubject)
         }
         // Cleanup removed accounts
@@ -280,73 +304,148 @@ class AccountService(
         accountsSubject.onNext(newAccounts)
     }
 
-    private fun loadAccount(account: Account) {
+    /** Stages of the loading of a Jami account */
+    enum class LoadStage {
+        /** Devices and contacts */
+        Contacts,
+        /** Conversations with their mode and members, enough to show the conversation list */
+        Conversations,
+        Requests,
+        /** Profiles, preferences and active calls of the conversations */
+        ConversationDetails
+    }
+
+    /** Duration of a stage of the loading of an account */
+    class LoadTiming(val stage: LoadStage, val count: Int, val durationMs: Long)
+
+    /** Conversation loaded with its info, waiting for its details */
+    private class ConversationShell(val conversation: Conversation, val info: Map<String, String>)
+
+    /**
+     * @return the duration of each stage of the last loading of the account, in order
+     */
+    fun getLoadTimings(accountId: String): List<LoadTiming> = loadTimings[accountId] ?: emptyList()
+
+    private fun recordLoadTiming(accountId: String, stage: LoadStage, count: Int, startTime: Long) {
+        val timing = LoadTiming(stage, count, System.currentTimeMillis() - startTime)
+        Log.w(TAG, "$accountId loaded $count ${stage.name} in ${timing.durationMs}ms")
+        loadTimings.merge(accountId, listOf(timing)) { timings, added -> timings + added }
+    }
+
+    /**
+     * Loads a Jami account in stages:
+     * conversations are published as soon as their mode and members are known, so that the
+     * conversation list can be shown, and their details are loaded afterwards, most recent
+     * conversations first.
+     */
+    private fun loadAccount(account: Account): Completable {
         if (!account.isJami) {
-            return
+            return Completable.complete()
         }
-        Log.w(TAG, "${account.accountId} loading devices")
-        account.devices = JamiService.getKnownRingDevices(account.accountId).toNative()
-        Log.w(TAG, "${account.accountId} loading contacts")
-        account.setContacts(JamiService.getContacts(account.accountId).toNative())
-        val conversations: List<String> = JamiService.getConversations(account.accountId)
-        Log.w(TAG, "${account.accountId} loading ${conversations.size} conversations: ")
-        for (conversationId in conversations) {
-            try {
-                val info: Map<String, String> = JamiService.conversationInfos(account.accountId, conversationId).toNativeFromUtf8()
-                //info.forEach { (key, value) -> Log.w(TAG, "conversation info: $key $value") }
-                val isSyncing = "true" == info["syncing"]
-                val mode = if (isSyncing) Conversation.Mode.Syncing
-                    else Conversation.Mode.entries[info["mode"]?.toInt() ?: Conversation.Mode.Syncing.ordinal]
-                val conversation = account.newSwarm(conversationId, mode)
-                if (isSyncing) {
-                    conversation.requestMode =
-                        info["mode"]?.toIntOrNull()?.let {
-                            Conversation.Mode.entries.getOrNull(it)
-                        } ?: Conversation.Mode.OneToOne
-                }
-                conversation.setProfile(mVCardService.loadConversationProfile(info))
-                if (mode == Conversation.Mode.Syncing) {
-                    val created = (info["created"]?.toLong() ?: 0) * 1000L
-                    conversation.lastEvent = ContactEvent(created)
-                }
-                JamiService.getActiveCalls(account.accountId, conversationId)
-                    .map { Conversation.ActiveCall(it) }
-                    .let { conversation.setActiveCalls(it) }
-
-                val preferences = // Load conversation preferences (color, symbol, etc.)
-                    JamiService.getConversationPreferences(account.accountId, conversationId)
-                conversation.updatePreferences(preferences)
-
-                conversation.setLastMessageNotified(mHistoryService.getLastMessageNotified(account.accountId, conversation.uri))
-                for (member in JamiService.getConversationMembers(account.accountId, conversationId)) {
-                    /*for (Map.Entry<String, String> i : member.entrySet()) {
-                        Log.w(TAG, "conversation member: " + i.getKey() + " " + i.getValue());
-                    }*/
-                    val uri = Uri.fromId(member["uri"]!!)
-                    val role = MemberRole.fromString(member["role"] ?: "")
-                    val lastDisplayed = member["lastDisplayed"]
-                    var contact = conversation.findContact(uri)
-                    if (contact == null) {
-                        contact = account.getContactFromCache(uri)
-                        conversation.addContact(contact, role)
-                    }
-                    if (!lastDisplayed.isNullOrEmpty()) {
-                        if (contact.isUser) {
-                            conversation.setLastMessageRead(lastDisplayed)
-                        } else {
-                            conversation.setLastMessageDisplayed(uri.host, lastDisplayed)
-                        }
-                    }
+        val accountId = account.accountId
+        return Single.fromCallable {
+            loadTimings.remove(accountId)
+            val startTime = System.currentTimeMillis()
+            Log.w(TAG, "$accountId loading devices")
+            account.devices = JamiService.getKnownRingDevices(accountId).toNative()
+            Log.w(TAG, "$accountId loading contacts")
+            val contacts = JamiService.getContacts(accountId).toNative()
+            account.setContacts(contacts)
+            recordLoadTiming(accountId, LoadStage.Contacts, contacts.size, startTime)
+            ArrayList(JamiService.getConversations(accountId))
+        }.flatMap { conversations ->
+            Log.w(TAG, "$accountId loading ${conversations.size} conversations")
+            val startTime = System.currentTimeMillis()
+            accountLoader.load(conversations) { loadConversationShell(account, it) }
+                .doOnSuccess { recordLoadTiming(accountId, LoadStage.Conversations, it.size, startTime) }
+        }.flatMapCompletable { conversations ->
+            Completable.fromAction {
+                loadRequests(account)
+                account.setHistoryLoaded()
+            }.andThen(Completable.defer {
+                val startTime = System.currentTimeMillis()
+                accountLoader.loadByPriority(conversations, { it.conversation.lastEvent?.timestamp ?: 0L }) {
+                    loadConversationDetails(account, it)
+                }.doOnComplete { recordLoadTiming(accountId, LoadStage.ConversationDetails, conversations.size, startTime) }
+            })
+        }
+    }
+
+    private fun loadConversationShell(account: Account, conversationId: String): ConversationShell? = try {
+        val info: Map<String, String> = JamiService.conversationInfos(account.accountId, conversationId).toNativeFromUtf8()
+        //info.forEach { (key, value) -> Log.w(TAG, "conversation info: $key $value") }
+        val isSyncing = "true" == info["syncing"]
+        val mode = if (isSyncing) Conversation.Mode.Syncing
+            else Conversation.Mode.entries[info["mode"]?.toInt() ?: Conversation.Mode.Syncing.ordinal]
+        val conversation = account.newSwarm(conversationId, mode)
+        if (isSyncing) {
+            conversation.requestMode =
+                info["mode"]?.toIntOrNull()?.let {
+                    Conversation.Mode.entries.getOrNull(it)
+                } ?: Conversation.Mode.OneToOne
+        }
+        if (mode == Conversation.Mode.Syncing) {
+            val created = (info["created"]?.toLong() ?: 0) * 1000L
+            conversation.lastEvent = ContactEvent(created)
+        }
+        conversation.setLastMessageNotified(mHistoryService.getLastMessageNotified(account.accountId, conversation.uri))
+        // Members are needed to show the conversation and to match one-to-one conversations with contacts
+        for (member in JamiService.getConversationMembers(account.accountId, conversationId)) {
+            /*for (Map.Entry<String, String> i : member.entrySet()) {
+                Log.w(TAG, "conversation member: " + i.getKey() + " " + i.getValue());
+            }*/
+            val uri = Uri.fromId(member["uri"]!!)
+            val role = MemberRole.fromString(member["role"] ?: "")
+            val lastDisplayed = member["lastDisplayed"]
+            var contact = conversation.findContact(uri)
+            if (contact == null) {
+                contact = account.getContactFromCache(uri)
+                conversation.addContact(contact, role)
+            }
+            if (!lastDisplayed.isNullOrEmpty()) {
+                if (contact.isUser) {
+                    conversation.setLastMessageRead(lastDisplayed)
+                } else {
+                    conversation.setLastMessageDisplayed(uri.host, lastDisplayed)
                 }
-                if (!conversation.lastElementLoadedSubject.hasValue())
-                    conversation.lastElementLoadedSubject.onSuccess(loadMore(conversation, 8).ignoreElement().cache())
-                account.conversationStarted(conversation)
-            } catch (e: Exception) {
-                Log.w(TAG, "Error loading conversation", e)
             }
         }
+        if (!conversation.lastElementLoadedSubject.hasValue())
+            conversation.lastElementLoadedSubject.onSuccess(loadMore(conversation, 8).ignoreElement().cache())
+        account.conversationStarted(conversation)
+        ConversationShell(conversation, info)
+    } catch (e: Exception) {
+        Log.w(TAG, "Error loading conversation", e)
+        null
+    }
+
+    private fun setConversationProfile(conversation: Conversation, info: Map<String, String>) {
+        val profile = mVCardService.conversationProfile(info)
+        conversation.setProfile(mVCardService.loadConversationProfile(profile), profile.title)
+    }
+
+    private fun loadConversationDetails(account: Account, shell: ConversationShell) {
+        try {
+            val conversation = shell.conversation
+            val conversationId = conversation.uri.rawRingId
+            setConversationProfile(conversation, shell.info)
+            JamiService.getActiveCalls(account.accountId, conversationId)
+                .map { Conversation.ActiveCall(it) }
+                .let { conversation.setActiveCalls(it) }
+
+            val preferences = // Load conversation preferences (color, symbol, etc.)
+                JamiService.getConversationPreferences(account.accountId, conversationId)
+            conversation.updatePreferences(preferences)
+        } catch (e: Exception) {
+            Log.w(TAG, "Error loading conversation details", e)
+        }
+    }
+
+    private fun loadRequests(account: Account) {
+        val startTime = System.currentTimeMillis()
         Log.w(TAG, "${account.accountId} loading conversation requests")
-        for (requestData in JamiService.getConversationRequests(account.accountId).map { it.toNativeFromUtf8() }) {
+        val requests = JamiService.getConversationRequests(account.accountId).map { it.toNativeFromUtf8() }
+        for (requestData in requests) {
             try {
                 /* for ((key, value) in requestData.entries)
                 Log.e(TAG, "Request: $key $value") */
@@ -363,7 +462,7 @@ class AccountService(
                 Log.w(TAG, "Error loading request", e)
             }
         }
-        account.setHistoryLoaded()
+        recordLoadTiming(account.accountId, LoadStage.Requests, requests.size, startTime)
     }
 
     fun getNewAccountName(prefix: String): String {
@@ -489,6 +588,33 @@ class AccountService(
         }
     }
 
+    /**
+     * Loads the last messages of a swarm conversation, showing its cached messages meanwhile.
+     * @return emits once messages are shown: the cached messages, replaced when loaded, if any
+     */
+    fun loadCachedHistory(conversation: Conversation): Single<Conversation> =
+        mHistoryService.getCachedSwarmMessages(conversation.accountId, conversation.uri.rawRingId)
+            .onErrorReturn { e ->
+                Log.w(TAG, "Unable to read the cached messages of ${conversation.uri}", e)
+                emptyList()
+            }
+            .observeOn(scheduler)
+            .flatMap { messages ->
+                val account = getAccount(conversation.accountId)
+                val shown = account != null && messages.isNotEmpty() && conversation.withLock {
+                    conversation.addCachedSwarmElements(messages.map { getInteractionFromSwarmMessage(account, conversation, it) })
+                }
+                val load = loadMore(conversation)
+                if (shown) {
+                    load.subscribe({}) { e ->
+                        Log.e(TAG, "Unable to load the messages of ${conversation.uri}", e)
+                        // Load again when the conversation is opened next
+                        synchronized(conversation.loadingLock()) { conversation.loaded = null }
+                    }
+                    Single.just(conversation)
+                } else load
+            }
+
     private fun failConversationLoad(load: ConversationLoad, error: Throwable) {
         synchronized(load.conversation.loadingLock()) {
             if (load.conversation.loading === load.subject)
@@ -507,6 +633,16 @@ class AccountService(
         }
     }
 
+    /**
+     * Searches the messages of a conversation.
+     * Messages that were loaded or received are found first in the local index (see
+     * [HistoryService.searchMessages]). The whole history is searched by the daemon after
+     * [DAEMON_SEARCH_DELAY_MS], so that a query replaced while it is typed is only searched locally.
+     * Each message is only emitted once.
+     *
+     * @param after minimum timestamp in seconds, or 0
+     * @param before maximum timestamp in seconds, or 0
+     */
     fun searchConversation(
         accountId: String,
         conversationUri: Uri,
@@ -517,9 +653,51 @@ class AccountService(
         after: Long = 0,
         before: Long = 0,
         maxResult: Long = 0
-    ): Observable<ConversationSearchResult> = PublishSubject.create<ConversationSearchResult>().apply {
-        conversationSearches[JamiService.searchConversation(
-            accountId, conversationUri.rawRingId, author, lastId, query, type, after, before, maxResult, 0)] = this
+    ): Observable<ConversationSearchResult> {
+        val conversation = if (conversationUri.isSwarm) conversationUri.rawRingId else conversationUri.uri
+        val local = if (lastId.isNotEmpty()) Observable.empty() else
+            searchMessages(accountId, conversation, query, author, type, after, before, maxResult).toObservable()
+        val daemon = Observable.defer {
+            PublishSubject.create<ConversationSearchResult>().apply {
+                conversationSearches[JamiService.searchConversation(
+                    accountId, conversationUri.rawRingId, author, lastId, query, type, after, before, maxResult, 0)] = this
+            }
+        }
+        return concatSearchResults(local, daemon)
+    }
+
+    /**
+     * Searches the messages of all the conversations of an account in the local index,
+     * see [HistoryService.searchMessages].
+     */
+    fun searchMessages(accountId: String, query: String, author: String = "", type: String = ""): Single<ConversationSearchResult> =
+        searchMessages(accountId, null, query, author, type, 0, 0, 0)
+
+    private fun searchMessages(
+        accountId: String, conversation: String?, query: String, author: String, type: String,
+        after: Long, before: Long, maxResult: Long
+    ): Single<ConversationSearchResult> {
+        val account = getAccount(accountId) ?: return Single.just(ConversationSearchResult(emptyList()))
+        return mHistoryService.searchMessages(accountId, conversation, query, author, type, after * 1000, before * 1000,
+            if (maxResult > 0) maxResult.toInt() else HistoryService.SEARCH_LIMIT)
+            .map { messages -> ConversationSearchResult(messages.mapNotNull { getIndexedInteraction(account, it) }) }
+            .onErrorReturn { e ->
+                Log.e(TAG, "Unable to search the messages of $accountId", e)
+                ConversationSearchResult(emptyList())
+            }
+    }
+
+    private fun getIndexedInteraction(account: Account, indexed: HistoryService.IndexedMessage): Interaction? {
+        val message = indexed.message
+        if (message != null) {
+            val conversation = account.getSwarm(indexed.conversation) ?: return null
+            return getInteractionFromSwarmMessage(account, conversation, message)
+        }
+        return TextMessage(indexed.interaction ?: return null).apply {
+            this.account = account.accountId
+            contact = account.getContactFromCache(indexed.conversation)
+            account.getByUri(indexed.conversation)?.let { conversation = it }
+        }
     }
 
     fun messagesFound(id: Long, accountId: String, conversationId: String, messages: List<Map<String, String>>) {
@@ -1034,27 +1212,34 @@ class AccountService(
         mExecutor.execute { JamiService.removeContact(accountId, uri, block) }
     }
 
+    /** Key of a name or address lookup, see [registrationCache] */
+    data class RegistrationLookup(val accountId: String, val nameserver: String, val query: String, val byAddress: Boolean)
+
     fun findRegistrationByName(account: String, nameserver: String, name: String): Single<RegisteredName> =
         if (name.isEmpty())
             Single.just(RegisteredName(account, name, name))
-        else registeredNames
-            .filter { r: RegisteredName -> account == r.accountId && name == r.query }
-            .firstOrError()
-            .doOnSubscribe {
-                mExecutor.execute { JamiService.lookupName(account, nameserver, name) }
-            }
-            .subscribeOn(scheduler)
+        else registrationCache.get(RegistrationLookup(account, nameserver, name, false)) {
+            registeredNames
+                .filter { r: RegisteredName -> account == r.accountId && name == r.query }
+                .firstOrError()
+                .doOnSubscribe {
+                    mExecutor.execute { JamiService.lookupName(account, nameserver, name) }
+                }
+                .subscribeOn(scheduler)
+        }
 
     fun findRegistrationByAddress(account: String, nameserver: String, address: String): Single<RegisteredName> =
         if (address.isEmpty())
             Single.error(IllegalArgumentException())
-        else registeredNames
-            .filter { r: RegisteredName -> account == r.accountId && address == r.query }
-            .firstOrError()
-            .doOnSubscribe {
-                mExecutor.execute { JamiService.lookupAddress(account, nameserver, address) }
-            }
-            .subscribeOn(scheduler)
+        else registrationCache.get(RegistrationLookup(account, nameserver, address, true)) {
+            registeredNames
+                .filter { r: RegisteredName -> account == r.accountId && address == r.query }
+                .firstOrError()
+                .doOnSubscribe {
+                    mExecutor.execute { JamiService.lookupAddress(account, nameserver, address) }
+                }
+                .subscribeOn(scheduler)
+        }
 
     fun searchUser(account: String, query: String): Single<UserSearchResult> {
         if (query.isEmpty()) {
@@ -1117,6 +1302,7 @@ class AccountService(
                             contact?.let { c -> synchronized(c) {
                                 if (c.username == null)
                                     c.username = Single.just(result.name)
+                                c.setRegisteredName(result.name)
                             }}
                         }))
                     else
@@ -1281,6 +1467,8 @@ class AccountService(
         acc.setVolatileDetails(JamiService.getVolatileAccountDetails(acc.accountId).toNative())
         if (state == 0) {
             acc.setDetail(ConfigKey.ACCOUNT_REGISTERED_NAME, name)
+            // The name was not found before being registered
+            registrationCache.clear()
         }
         observableAccounts.onNext(acc)
     }
@@ -1376,6 +1564,7 @@ class AccountService(
                     m["username"]?.let { name ->
                         if (this.username == null)
                             this.username = Single.just(name)
+                        setRegisteredName(name)
                     }
                     loadedProfile = Single.fromCallable {
                         val firstName = m["firstName"]
@@ -1480,19 +1669,12 @@ class AccountService(
      * @return The swarm message as an interaction.
      */
     private fun getInteractionFromSwarmMessage(account: Account, conversation: Conversation, message: SwarmMessageData): Interaction {
-        val body = HashMap(message.body)
-        body["id"] = message.id
-        body["type"] = message.type
-        body["linearizedParent"] = message.linearizedParent
-
-        val interaction = getInteraction(account, conversation, body)
-        val edits = message.editions.map { getInteraction(account, conversation, it) }
-        val reactions = message.reactions.map { getInteraction(account, conversation, it) }
-        val statusMap = message.status.mapValues { Interaction.MessageStates.fromInt(it.value) }
-
-        interaction.addEdits(edits)
-        interaction.addReactions(reactions)
-        interaction.statusMap = statusMap
+        val interaction = getInteraction(account, conversation, message.body)
+        if (message.editions.isNotEmpty())
+            interaction.addEdits(message.editions.map { getInteraction(account, conversation, it) })
+        if (message.reactions.isNotEmpty())
+            interaction.addReactions(message.reactions.map { getInteraction(account, conversation, it) })
+        interaction.statusMap = message.status
 
         return interaction
     }
@@ -1516,9 +1698,11 @@ class AccountService(
                 conversationLoad?.let { failConversationLoad(it, IllegalStateException("Conversation is unavailable")) }
                 return
             }
+            mHistoryService.cacheSwarmMessages(accountId, conversationId, messages)
+            mHistoryService.indexSwarmMessages(accountId, conversationId, messages)
             val interactions = messages.map { getInteractionFromSwarmMessage(account, conversation, it) }
-            val subject = synchronized(conversation) {
-                interactions.forEach { conversation.addSwarmElement(it, false) }
+            val subject = conversation.withLock {
+                conversation.addSwarmElements(interactions, false)
                 conversationLoad?.takeIf { it.conversation === conversation }?.let { load ->
                     synchronized(conversation.loadingLock()) {
                         if (conversation.loading === load.subject) conversation.stopLoading() else null
@@ -1539,7 +1723,7 @@ class AccountService(
 
     fun conversationProfileUpdated(accountId: String, conversationId: String, info: Map<String, String>) {
         conversationCallbacks.dispatch(accountId, conversationId) {
-            getAccount(accountId)?.getSwarm(conversationId)?.setProfile(mVCardService.loadConversationProfile(info))
+            getAccount(accountId)?.getSwarm(conversationId)?.let { setConversationProfile(it, info) }
         }
     }
 
@@ -1563,7 +1747,7 @@ class AccountService(
         Log.w(TAG, "ConversationCallback: conversationMemberEvent $accountId/$conversationId")
         getAccount(accountId)?.let { account -> account.getSwarm(conversationId)?.let { conversation ->
             val uri = Uri.fromId(peerUri)
-            synchronized(conversation) {
+            conversation.withLock {
                 when (val memberEvent = ConversationMemberEvent.entries[event]) {
                     ConversationMemberEvent.Add,
                     ConversationMemberEvent.Join,
@@ -1615,8 +1799,8 @@ class AccountService(
             setMode = mode != c.mode.blockingFirst()
         }
         val conversation = c
-        synchronized(conversation) {
-            conversation.setProfile(mVCardService.loadConversationProfile(info))
+        conversation.withLock {
+            setConversationProfile(conversation, info)
             // Making sure to add contacts before changing the mode
             for (member in members) {
                 val memberUri = Uri.fromId(member["uri"]!!)
@@ -1647,6 +1831,8 @@ class AccountService(
             return
         }
         account.removeSwarm(conversationId)
+        mHistoryService.clearSwarmMessages(accountId, conversationId)
+            .subscribe({}) { e -> Log.e(TAG, "Unable to clear the cached messages of $conversationId", e) }
     }
 
     fun conversationRequestDeclined(accountId: String, conversationId: String) {
@@ -1672,24 +1858,26 @@ class AccountService(
     }
 
     internal fun swarmMessageReceived(accountId: String, conversationId: String, message: SwarmMessageData) {
-        conversationCallbacks.dispatch(accountId, conversationId) {
-            swarmMessageReceivedNow(accountId, conversationId, message)
-        }
+        swarmMessagesReceived.dispatch(accountId, conversationId, message)
     }
 
-    private fun swarmMessageReceivedNow(accountId: String, conversationId: String, message: SwarmMessageData) {
+    private fun swarmMessagesReceivedNow(accountId: String, conversationId: String, messages: List<SwarmMessageData>) {
         getAccount(accountId)?.let { account -> account.getSwarm(conversationId)?.let { conversation ->
-            val interaction = synchronized(conversation) {
-                val interaction = getInteractionFromSwarmMessage(account, conversation, message)
-                conversation.addSwarmElement(interaction, true)
-                interaction
+            mHistoryService.cacheSwarmMessages(accountId, conversationId, messages)
+            mHistoryService.indexSwarmMessages(accountId, conversationId, messages)
+            val interactions = conversation.withLock {
+                val interactions = messages.map { getInteractionFromSwarmMessage(account, conversation, it) }
+                conversation.addSwarmElements(interactions, true)
+                interactions
             }
-            val isIncoming = !interaction.contact!!.isUser
-            if (isIncoming)
-                incomingSwarmMessageSubject.onNext(interaction)
-            if (interaction is DataTransfer) {
-                dataTransfersProcessor.onNext(interaction)
-                hydrateDataTransfer(accountId, conversationId, interaction)
+            for (interaction in interactions) {
+                val isIncoming = !interaction.contact!!.isUser
+                if (isIncoming)
+                    incomingSwarmMessageSubject.onNext(interaction)
+                if (interaction is DataTransfer) {
+                    dataTransfersProcessor.onNext(interaction)
+                    hydrateDataTransfer(accountId, conversationId, interaction)
+                }
             }
         }}
     }
@@ -1702,7 +1890,9 @@ class AccountService(
 
     private fun swarmMessageUpdatedNow(accountId: String, conversationId: String, message: SwarmMessageData) {
         getAccount(accountId)?.let { account -> account.getSwarm(conversationId)?.let { conversation ->
-            synchronized(conversation) {
+            mHistoryService.cacheSwarmMessages(accountId, conversationId, listOf(message))
+            mHistoryService.indexSwarmMessages(accountId, conversationId, listOf(message))
+            conversation.withLock {
                 val interaction = getInteractionFromSwarmMessage(account, conversation, message)
                 conversation.updateSwarmMessage(interaction)
             }
@@ -1717,7 +1907,8 @@ class AccountService(
 
     private fun reactionAddedNow(accountId: String, conversationId: String, messageId: String, reaction: Map<String, String>) {
         getAccount(accountId)?.let { account -> account.getSwarm(conversationId)?.let { conversation ->
-            synchronized(conversation) {
+            mHistoryService.invalidateSwarmMessage(accountId, conversationId, messageId)
+            conversation.withLock {
                 val interaction = getInteraction(account, conversation, reaction)
                 conversation.addReaction(interaction, messageId)
             }
@@ -1732,7 +1923,8 @@ class AccountService(
 
     private fun reactionRemovedNow(accountId: String, conversationId: String, messageId: String, reactionId: String) {
         getAccount(accountId)?.let { account -> account.getSwarm(conversationId)?.let { conversation ->
-            synchronized(conversation) {
+            mHistoryService.invalidateSwarmMessage(accountId, conversationId, messageId)
+            conversation.withLock {
                 conversation.removeReaction(messageId, reactionId)
             }
         }}
@@ -1747,9 +1939,9 @@ class AccountService(
             .subscribe({ info ->
                 val account = getAccount(accountId) ?: return@subscribe
                 val conversation = account.getSwarm(conversationId) ?: return@subscribe
-                val updated = synchronized(conversation) {
-                    if (conversation.getMessage(transfer.messageId ?: return@synchronized false) !== transfer)
-                        return@synchronized false
+                val updated = conversation.withLock {
+                    if (conversation.getMessage(transfer.messageId ?: return@withLock false) !== transfer)
+                        return@withLock false
                     transfer.applyDaemonInfo(info.path?.let { File(it) }, info.total, info.progress) &&
                         conversation.notifyDataTransferUpdated(transfer)
                 }
@@ -1787,24 +1979,6 @@ class AccountService(
         mExecutor.execute { JamiService.cancelDataTransfer(accountId, conversationId, fileId) }
     }
 
-    private inner class DataTransferRefreshTask(
-        private val account: Account,
-        private val conversation: Conversation,
-        private val toUpdate: DataTransfer
-    ) : Runnable {
-        val scheduledTask: ScheduledFuture<*> = mExecutor.scheduleWithFixedDelay(
-            this,
-            DATA_TRANSFER_REFRESH_PERIOD,
-            DATA_TRANSFER_REFRESH_PERIOD, TimeUnit.MILLISECONDS
-        )
-        override fun run() {
-            if (synchronized(toUpdate) { toUpdate.transferStatus == TransferStatus.TRANSFER_ONGOING })
-                dataTransferEvent(account, conversation, toUpdate.messageId, toUpdate.fileId!!, 5)
-            else
-                scheduledTask.cancel(false)
-        }
-    }
-
     fun dataTransferEvent(accountId: String, conversationId: String, interactionId: String, fileId: String, eventCode: Int) {
         conversationCallbacks.dispatch(accountId, conversationId) {
             dataTransferEventNow(accountId, conversationId, interactionId, fileId, eventCode)
@@ -1839,7 +2013,7 @@ class AccountService(
             transfer.bytesProgress = info.progress
             if (oldState != transferStatus) {
                 if (transferStatus == TransferStatus.TRANSFER_ONGOING) {
-                    DataTransferRefreshTask(account, conversation, transfer)
+                    dataTransferTicker.add(account.accountId, conversation, fileId, transfer)
                 } else if (transferStatus.isError) {
                     if (!transfer.isOutgoing) {
                         val tmpPath = mDeviceRuntimeService.getTemporaryPath(
@@ -1895,37 +2069,63 @@ class AccountService(
         val connectionTime: Long
     )
 
-    fun monitorConnections(): Observable<Pair<String, List<Pair<String, List<DeviceConnection>>>>> =
+    /**
+     * Changes of the device connections of an account.
+     * @param connections all the current connections, grouped by peer and sorted by peer
+     */
+    class ConnectionChanges(
+        val accountId: String,
+        val connections: List<Pair<String, List<DeviceConnection>>>,
+        val added: List<DeviceConnection>,
+        val removed: List<DeviceConnection>,
+        val changed: List<DeviceConnection>
+    ) {
+        val isEmpty: Boolean
+            get() = added.isEmpty() && removed.isEmpty() && changed.isEmpty()
+
+        fun forPeers(peers: Set<String>) = ConnectionChanges(accountId,
+            connections.filter { it.first in peers },
+            added.filter { it.peer in peers },
+            removed.filter { it.peer in peers },
+            changed.filter { it.peer in peers })
+    }
+
+    /**
+     * Monitors the device connections of the current account.
+     * @param peers only monitors the connections with these peers, or with all peers if null
+     */
+    fun monitorConnections(peers: Set<String>? = null): Observable<ConnectionChanges> =
         currentAccountSubject
-            .switchMap { monitorConnections(it.accountId) }
-
-    private fun monitorConnections(accountId: String): Observable<Pair<String, List<Pair<String, List<DeviceConnection>>>>> =
-        Observable.interval(0, 2, TimeUnit.SECONDS, scheduler)
-            .map { _ ->
-                Pair(accountId, JamiService.getConnectionList(accountId, "")
-                    .mapNotNull { it: Map<String, String> ->
-                        val status = ConnectionStatus.fromInt(it["status"]?.toInt() ?: 4)
-                        if (status == ConnectionStatus.Waiting || status == ConnectionStatus.Connecting) {
-                            null
-                        } else {
-                            DeviceConnection(
-                                accountId=accountId,
-                                id=it["id"]!!,
-                                device=it["device"]!!,
-                                status=status,
-                                peer=it["peer"]!!,
-                                remoteAddress=it["remoteAddress"],
-                                channels=JamiService.getChannelList(accountId, it["id"]!!).map { c -> c["name"]!! },
-                                connectionTime=it["created"]?.toLongOrNull()?.apply {
-                                    System.currentTimeMillis() - this
-                                } ?: 0L
-                            )
-                        }
-                    }
-                    .groupBy { it.peer }
-                    .map { Pair(it.key, it.value) }
-                    .sortedBy { it.first }
-                )
+            .switchMap { monitorConnections(it.accountId, peers) }
+
+    fun monitorConnections(accountId: String, peers: Set<String>? = null): Observable<ConnectionChanges> {
+        val monitor = connectionMonitors.computeIfAbsent(accountId) {
+            ConnectionMonitor(accountId, scheduler) { getDeviceConnections(accountId) }
+        }
+        return if (peers == null) monitor.changes else monitor.changes(peers)
+    }
+
+    private fun getDeviceConnections(accountId: String): List<DeviceConnection> =
+        JamiService.getConnectionList(accountId, "")
+            .mapNotNull { it: Map<String, String> ->
+                val status = ConnectionStatus.fromInt(it["status"]?.toInt() ?: 4)
+                if (status == ConnectionStatus.Waiting || status == ConnectionStatus.Connecting) {
+                    null
+                } else {
+                    DeviceConnection(
+                        accountId=accountId,
+                        id=it["id"]!!,
+                        device=it["device"]!!,
+                        status=status,
+                        peer=it["peer"]!!,
+                        remoteAddress=it["remoteAddress"],
+                        // Channels are only opened once connected
+                        channels=if (status == ConnectionStatus.Connected)
+                            JamiService.getChannelList(accountId, it["id"]!!).map { c -> c["name"]!! }
+                        else emptyList(),
+                        connectionTime=it["created"]?.toLongOrNull() ?: 0L
+                    )
+                }
             }
 
     enum class AuthState(val value: Int) {
@@ -2037,7 +2237,30 @@ class AccountService(
     companion object {
         private val TAG = AccountService::class.java.simpleName
         private const val VCARD_CHUNK_SIZE = 1000
-        private const val DATA_TRANSFER_REFRESH_PERIOD: Long = 500
+        private val REGISTRATION_TTL_MS = TimeUnit.MINUTES.toMillis(30)
+        private val REGISTRATION_NOT_FOUND_TTL_MS = TimeUnit.MINUTES.toMillis(2)
+        private val REGISTRATION_ERROR_TTL_MS = TimeUnit.SECONDS.toMillis(15)
+        /** Delay before a conversation search is sent to the daemon, after the local search */
+        const val DAEMON_SEARCH_DELAY_MS = 400L
+
+        /**
+         * Emits the [local] results, then the [daemon] results, subscribed to after
+         * [DAEMON_SEARCH_DELAY_MS]. Each message is only emitted once, and empty results are dropped.
+         */
+        internal fun concatSearchResults(
+            local: Observable<ConversationSearchResult>,
+            daemon: Observable<ConversationSearchResult>,
+            scheduler: Scheduler = Schedulers.computation()
+        ): Observable<ConversationSearchResult> = Observable.defer {
+            val found = HashSet<String>()
+            Observable.concat(local, daemon.delaySubscription(DAEMON_SEARCH_DELAY_MS, TimeUnit.MILLISECONDS, scheduler))
+                .map { result ->
+                    ConversationSearchResult(synchronized(found) {
+                        result.results.filter { found.add(it.messageId ?: it.id.toString()) }
+                    })
+                }
+                .filter { it.results.isNotEmpty() }
+        }
 
         const val ACCOUNT_SCHEME_NONE = ""
         const val ACCOUNT_SCHEME_PASSWORD = "password"
@@ -20,6 +20,7 @@ package net.jami.services
 import io.reactivex.rxjava3.core.Completable
 import io.reactivex.rxjava3.core.Observable
 import io.reactivex.rxjava3.core.Single
+import io.reactivex.rxjava3.disposables.CompositeDisposable
 import io.reactivex.rxjava3.schedulers.Schedulers
 import io.reactivex.rxjava3.subjects.PublishSubject
 import net.jami.daemon.JamiService
@@ -30,7 +31,9 @@ import net.jami.model.Call.CallStatus
 import net.jami.model.Call.Direction
 import net.jami.model.Conference
 import net.jami.model.Conference.ParticipantInfo
+import net.jami.model.ContactViewModel
 import net.jami.model.Media
+import net.jami.model.Profile
 import net.jami.model.Uri
 import net.jami.utils.Log
 import java.util.*
@@ -47,6 +50,7 @@ abstract class CallService(
     // ConcurrentHashMap: mutated by daemon callbacks while hasActiveCalls()/currentConferences()
     // iterate it from another thread, so its iterator must not throw on concurrent edits.
     private val conferences: MutableMap<String, Conference> = ConcurrentHashMap()
+    private val mDisposableBag = CompositeDisposable()
     private val callSubject = PublishSubject.create<Call>()
     private val conferenceSubject = PublishSubject.create<Conference>()
 
@@ -98,42 +102,71 @@ abstract class CallService(
         mExecutor.execute { JamiService.setIsComposing(accountId, uri, isComposing) }
     }
 
+    /**
+     * Publishes the participant info received from the daemon without waiting for the
+     * participant contacts: contacts already resolved for the conference are used at once,
+     * the others are resolved in parallel and the info is published again as they arrive,
+     * or as their profile or name change.
+     */
     fun onConferenceInfoUpdated(confId: String, info: List<Map<String, String>>) {
         Log.w(TAG, "onConferenceInfoUpdated $confId $info")
 
         val conference = getConference(confId)
-        var isModerator = false
-        if (conference != null) {
-            val newInfo: MutableList<ParticipantInfo> = ArrayList(info.size)
-            val account = mAccountService.getAccount(conference.accountId) ?: return
-
-            for (i in info) {
-                val uri = i["uri"]!!
-                val confInfo = if (uri.isEmpty()) {
-                    ParticipantInfo(null, mContactService.getLoadedContact(account.accountId, account.getContactFromCache(Uri.fromId(account.username!!))).blockingGet(), i)
-                } else {
-                    val contactUri = Uri.fromString(uri)
-                    val call = conference.findCallByContact(contactUri)
-                    if (call != null) {
-                        ParticipantInfo(call, mContactService.getLoadedContact(call.account, call.contact!!).blockingGet(), i)
-                    } else {
-                        ParticipantInfo(null, mContactService.getLoadedContact(account.accountId, account.getContactFromCache(contactUri)).blockingGet(), i)
-                    }
-                }
-                if (confInfo.isEmpty) {
-                    Log.w(TAG, "onConferenceInfoUpdated: ignoring empty entry $i")
-                    continue
-                }
-                if (confInfo.contact.contact.isUser && confInfo.isModerator) {
-                    isModerator = true
-                }
-                newInfo.add(confInfo)
+        if (conference == null) {
+            Log.w(TAG, "onConferenceInfoUpdated is unable to find conference $confId")
+            return
+        }
+        val account = mAccountService.getAccount(conference.accountId) ?: return
+        val newInfo: MutableList<ParticipantInfo> = ArrayList(info.size)
+        for (i in info) {
+            val uri = i["uri"]!!
+            val call = if (uri.isEmpty()) null else conference.findCallByContact(Uri.fromString(uri))
+            val contact = when {
+                call != null -> call.contact!!
+                uri.isEmpty() -> account.getContactFromCache(Uri.fromId(account.username!!))
+                else -> account.getContactFromCache(Uri.fromString(uri))
+            }
+            val confInfo = ParticipantInfo(call, conference.participantContacts[contact] ?: ContactViewModel(contact, Profile.EMPTY_PROFILE), i)
+            if (confInfo.isEmpty) {
+                Log.w(TAG, "onConferenceInfoUpdated: ignoring empty entry $i")
+                continue
             }
+            newInfo.add(confInfo)
+        }
 
+        val unobserved = synchronized(conference) {
+            conference.daemonInfo = newInfo
+            newInfo.filter { conference.observedContacts.add(it.contact.contact) }
+        }
+        setConferenceInfo(conference)
+
+        if (unobserved.isEmpty())
+            return
+        if (!conference.participantContactUpdates.isDisposed)
+            mDisposableBag.add(conference.participantContactUpdates)
+        for (participant in unobserved) {
+            val contact = participant.contact.contact
+            conference.participantContactUpdates.add(mContactService.observeContact(participant.call?.account ?: account.accountId, contact, false)
+                .subscribe({
+                    conference.participantContacts[contact] = it
+                    setConferenceInfo(conference)
+                }) { e -> Log.e(TAG, "Unable to load conference participant ${contact.uri}", e) })
+        }
+    }
+
+    /** Sets the conference participant info last received from the daemon, using the resolved participant contacts. */
+    private fun setConferenceInfo(conference: Conference) {
+        synchronized(conference) {
+            var isModerator = false
+            val resolvedInfo = conference.daemonInfo.map { participant ->
+                val contact = conference.participantContacts[participant.contact.contact]
+                val resolved = if (contact == null) participant else participant.withContact(contact)
+                if (resolved.contact.contact.isUser && resolved.isModerator)
+                    isModerator = true
+                resolved
+            }
             conference.isModerator = isModerator
-            conference.setInfo(newInfo)
-        } else {
-            Log.w(TAG, "onConferenceInfoUpdated is unable to find conference $confId")
+            conference.setInfo(resolvedInfo)
         }
     }
 
@@ -587,7 +620,7 @@ abstract class CallService(
                     callSubject.onNext(call)
                     if (call.callStatus === CallStatus.OVER) {
                         calls.remove(call.id)
-                        conferences.remove(call.id)
+                        call.id?.let(::removeConference)
                         updateConnectionCount()
                     }
                 }
@@ -754,6 +787,10 @@ abstract class CallService(
 
     fun getConference(id: String): Conference? = conferences[id]
 
+    /** Forgets a conference, and stops updating its participant contacts */
+    private fun removeConference(id: String): Conference? =
+        conferences.remove(id)?.also { mDisposableBag.remove(it.participantContactUpdates) }
+
     fun conferenceCreated(accountId: String, conversationId: String, confId: String) {
         Log.d(TAG, "conference created: $confId $conversationId")
         val conf = conferences.getOrPut(confId) { Conference(accountId, confId).apply {
@@ -769,7 +806,7 @@ abstract class CallService(
                 call.confId = confId
                 conf.addParticipant(call)
             }
-            conferences.remove(callId)
+            removeConference(callId)
         }
         if (conversationId.isNotEmpty())
             mAccountService.getAccount(accountId)?.let { account ->
@@ -786,7 +823,7 @@ abstract class CallService(
 
     fun conferenceRemoved(accountId: String, confId: String) {
         Log.d(TAG, "conferenceRemoved: $confId")
-        conferences.remove(confId)?.let { conf ->
+        removeConference(confId)?.let { conf ->
             for (call in conf.participants) {
                 call.confId = null
             }
@@ -823,7 +860,7 @@ abstract class CallService(
                         call.confId = confId
                         conf.addParticipant(call)
                     }
-                    conferences.remove(callId)
+                    removeConference(callId)
                 }
             }
 
@@ -849,7 +886,7 @@ abstract class CallService(
             conferenceSubject.onNext(conf)
             if (removed && conf.participants.size == 1) {
                 // Remove the obsolete conference so later stale events can't recreate it.
-                conferences.remove(confId)
+                removeConference(confId)
                 val call = conf.participants[0]
                 call.confId = null
                 addConference(call)
@@ -0,0 +1,120 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.services
+
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.core.Scheduler
+import net.jami.services.AccountService.ConnectionChanges
+import net.jami.services.AccountService.DeviceConnection
+import net.jami.utils.Log
+import java.util.concurrent.TimeUnit
+
+/**
+ * Polls the device connections of an account and emits what changed since the last poll.
+ *
+ * The connections are polled every [minIntervalMs] while they change. Every poll that finds
+ * them unchanged doubles the interval, up to [maxIntervalMs]; the next change resets it.
+ * Polling only happens while [changes] is subscribed, and is shared between subscribers.
+ *
+ * @param fetch returns the current connections of the account
+ */
+internal class ConnectionMonitor(
+    private val accountId: String,
+    private val scheduler: Scheduler,
+    private val minIntervalMs: Long = MIN_INTERVAL_MS,
+    private val maxIntervalMs: Long = MAX_INTERVAL_MS,
+    private val fetch: () -> List<DeviceConnection>
+) {
+    /** Changes of the connections found by the shared polling, the last one replayed */
+    private val polled: Observable<ConnectionChanges> = Observable.create { emitter ->
+        val worker = scheduler.createWorker()
+        emitter.setDisposable(worker)
+        worker.schedule(object : Runnable {
+            private var previous: Map<String, DeviceConnection>? = null
+            private var interval = minIntervalMs
+
+            override fun run() {
+                try {
+                    val current = fetch().associateBy { it.id }
+                    val changes = diff(accountId, previous, current)
+                    interval = if (changes != null) {
+                        emitter.onNext(changes)
+                        minIntervalMs
+                    } else {
+                        (interval * 2).coerceAtMost(maxIntervalMs)
+                    }
+                    previous = current
+                } catch (e: Exception) {
+                    Log.w(TAG, "Unable to get connections for $accountId", e)
+                }
+                if (!emitter.isDisposed)
+                    worker.schedule(this, interval, TimeUnit.MILLISECONDS)
+            }
+        })
+    }.replay(1).refCount()
+
+    /**
+     * Changes of the connections, the first one has all the current connections as added,
+     * including for a subscriber receiving the last changes of the shared polling.
+     */
+    val changes: Observable<ConnectionChanges> = Observable.defer {
+        var first = true
+        polled.map { changes ->
+            if (first) {
+                first = false
+                snapshot(changes)
+            } else changes
+        }
+    }
+
+    /** Changes of the connections with the provided peers, the first one has all of them as added. */
+    fun changes(peers: Set<String>): Observable<ConnectionChanges> = changes
+        .map { it.forPeers(peers) }
+        .distinctUntilChanged { _, changes -> changes.isEmpty }
+
+    companion object {
+        private val TAG = ConnectionMonitor::class.simpleName!!
+        const val MIN_INTERVAL_MS = 2000L
+        const val MAX_INTERVAL_MS = 16000L
+
+        /** @return the current connections of [changes], all as added */
+        private fun snapshot(changes: ConnectionChanges) = ConnectionChanges(changes.accountId,
+            changes.connections, changes.connections.flatMap { it.second }, emptyList(), emptyList())
+
+        /** @return the changes from [previous] to [current], or null if there is none */
+        fun diff(accountId: String, previous: Map<String, DeviceConnection>?, current: Map<String, DeviceConnection>): ConnectionChanges? {
+            val added = ArrayList<DeviceConnection>()
+            val changed = ArrayList<DeviceConnection>()
+            for (connection in current.values) {
+                val old = previous?.get(connection.id)
+                if (old == null)
+                    added.add(connection)
+                else if (old != connection)
+                    changed.add(connection)
+            }
+            val removed = previous?.values?.filter { !current.containsKey(it.id) } ?: emptyList()
+            if (previous != null && added.isEmpty() && changed.isEmpty() && removed.isEmpty())
+                return null
+            return ConnectionChanges(accountId, group(current.values), added, removed, changed)
+        }
+
+        private fun group(connections: Collection<DeviceConnection>): List<Pair<String, List<DeviceConnection>>> =
+            connections.groupBy { it.peer }
+                .map { Pair(it.key, it.value) }
+                .sortedBy { it.first }
+    }
+}
@@ -18,9 +18,11 @@ package net.jami.services
 
 import ezvcard.VCard
 import io.reactivex.rxjava3.core.Completable
+import io.reactivex.rxjava3.core.Maybe
 import io.reactivex.rxjava3.core.Observable
 import io.reactivex.rxjava3.core.ObservableEmitter
 import io.reactivex.rxjava3.core.Single
+import io.reactivex.rxjava3.schedulers.Schedulers
 import net.jami.model.*
 import net.jami.smartlist.ConversationItemViewModel
 import net.jami.utils.Log
@@ -47,6 +49,11 @@ abstract class ContactService(
     abstract fun saveContact(uri: String, profile: Profile)
     abstract fun deleteContact(uri: String)
 
+    /** System contacts by number, including the numbers without a system contact */
+    val systemContactCache = LookupCache<String, Optional<Contact>> { contact ->
+        if (contact.isPresent) SYSTEM_CONTACT_TTL_MS else SYSTEM_CONTACT_NOT_FOUND_TTL_MS
+    }
+
     /**
      * Load contacts from system and generate a local contact cache
      *
@@ -56,11 +63,22 @@ abstract class ContactService(
     fun loadContacts(loadRingContacts: Boolean, loadSipContacts: Boolean, account: Account?): Single<Map<Long, Contact>> =
         Single.fromCallable {
             val settings = mPreferencesService.settings
+            systemContactCache.clear()
             if (settings.useSystemContacts) {
                 loadContactsFromSystem(loadRingContacts, loadSipContacts)
             } else HashMap()
         }
 
+    /**
+     * Finds the system contact with a number.
+     * The result is cached, including when there is no such contact.
+     */
+    fun findSystemContact(number: String): Maybe<Contact> =
+        systemContactCache.get(number) {
+            Single.fromCallable { Optional.ofNullable(findContactByNumberFromSystem(number)) }
+                .subscribeOn(Schedulers.io())
+        }.flatMapMaybe { contact -> if (contact.isPresent) Maybe.just(contact.get()) else Maybe.empty() }
+
     fun observeContact(accountId: String, contactUri: Uri, withPresence: Boolean): Observable<ContactViewModel> {
         val account = mAccountService.getAccount(accountId) ?: return Observable.error(IllegalArgumentException())
         val contact = account.getContactFromCache(contactUri)
@@ -93,6 +111,7 @@ abstract class ContactService(
                             throw RuntimeException("lookup failed")
                         registration.name
                     }
+                    .doOnSuccess(contact::setRegisteredName)
                     .doOnError { contact.username = null }
                     .onErrorReturn { "" }
                     .cache()
@@ -180,15 +199,21 @@ abstract class ContactService(
 
     fun findContact(account: Account, uri: Uri): Contact {
         val contact = account.getContactFromCache(uri)
-        // TODO load system contact info into SIP contact
-        if (account.isSip) {
-            loadContactData(contact, account.accountId).subscribe({})
-            { e: Throwable -> Log.e(TAG, "Can't load contact data") }
+        if (account.isSip && !contact.isFromSystem && mPreferencesService.settings.useSystemContacts) {
+            findSystemContact(uri.rawRingId).subscribe({ systemContact ->
+                synchronized(contact) {
+                    contact.setSystemId(systemContact.id)
+                    contact.isFromSystem = true
+                    contact.loadedProfile = loadContactData(contact, account.accountId).cache()
+                }
+            }) { e: Throwable -> Log.e(TAG, "Can't load contact data", e) }
         }
         return contact
     }
 
     companion object {
         private val TAG = ContactService::class.simpleName!!
+        private val SYSTEM_CONTACT_TTL_MS = TimeUnit.MINUTES.toMillis(10)
+        private val SYSTEM_CONTACT_NOT_FOUND_TTL_MS = TimeUnit.MINUTES.toMillis(1)
     }
 }
\ No newline at end of file
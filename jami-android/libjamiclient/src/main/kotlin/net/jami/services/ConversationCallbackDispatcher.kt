@@ -9,10 +9,22 @@ import io.reactivex.rxjava3.processors.PublishProcessor
 import io.reactivex.rxjava3.schedulers.Schedulers
 import io.reactivex.rxjava3.subjects.CompletableSubject
 import net.jami.utils.Log
+import java.util.concurrent.TimeUnit
 
+/**
+ * Runs conversation callbacks in order for a given conversation, concurrently across conversations.
+ *
+ * Callbacks dispatched through a [Batched] callback are coalesced: items received for a
+ * conversation while a batch is pending are delivered together, up to [maxBatchSize] items per
+ * batch. A batch is delivered as soon as previous callbacks ran, unless it follows another
+ * batch by less than [batchWindowMs], so that a single item is not delayed and bursts of items
+ * are delivered at most once per window.
+ */
 internal class ConversationCallbackDispatcher(
-    scheduler: Scheduler = Schedulers.computation(),
-    private val onError: (Throwable) -> Unit = { Log.e(TAG, "Conversation callback failed", it) }
+    private val scheduler: Scheduler = Schedulers.computation(),
+    private val onError: (Throwable) -> Unit = { Log.e(TAG, "Conversation callback failed", it) },
+    private val batchWindowMs: Long = BATCH_WINDOW_MS,
+    private val maxBatchSize: Int = MAX_BATCH_SIZE
 ) : Disposable {
     private data class ConversationKey(val accountId: String, val conversationId: String)
 
@@ -20,8 +32,61 @@ internal class ConversationCallbackDispatcher(
 
     private class Route(val generation: Long, val ready: CompletableSource) {
         var started = false
+        /** Batch still accepting items, only while it is the last task of the route */
+        var batch: PendingBatch? = null
+        /** Earliest time the next batch is delivered, in milliseconds of the scheduler */
+        var nextBatch = Long.MIN_VALUE
     }
 
+    private class PendingBatch(val owner: Batched<*>, maxSize: Int) {
+        val items = ArrayList<Any?>(minOf(maxSize, 16))
+    }
+
+    /**
+     * Callback receiving the items dispatched for a conversation in batches.
+     * Dispatching any other callback for the conversation closes the pending batch, so
+     * callbacks keep running in dispatch order.
+     */
+    inner class Batched<T>(private val action: (accountId: String, conversationId: String, items: List<T>) -> Unit) {
+        fun dispatch(accountId: String, conversationId: String, item: T) {
+            synchronized(routingLock) {
+                if (isDisposed)
+                    return
+                val conversation = ConversationKey(accountId, conversationId)
+                val route = routes.getOrPut(conversation) {
+                    Route(nextGeneration++, Completable.complete())
+                }
+                route.started = true
+                val pending = route.batch
+                if (pending != null && pending.owner === this && pending.items.size < maxBatchSize) {
+                    pending.items.add(item)
+                    return
+                }
+                val batch = PendingBatch(this, maxBatchSize)
+                batch.items.add(item)
+                route.batch = batch
+                val now = scheduler.now(TimeUnit.MILLISECONDS)
+                val delay = if (route.nextBatch > now) route.nextBatch - now else 0L
+                route.nextBatch = now + delay + batchWindowMs
+                val ready = if (delay > 0)
+                    Completable.wrap(route.ready).andThen(Completable.timer(delay, TimeUnit.MILLISECONDS, scheduler))
+                else route.ready
+                tasks.onNext(Task(Key(conversation, route.generation), ready, false) {
+                    val items = synchronized(routingLock) {
+                        if (route.batch === batch)
+                            route.batch = null
+                        @Suppress("UNCHECKED_CAST")
+                        ArrayList(batch.items) as List<T>
+                    }
+                    action(accountId, conversationId, items)
+                })
+            }
+        }
+    }
+
+    fun <T> batched(action: (accountId: String, conversationId: String, items: List<T>) -> Unit): Batched<T> =
+        Batched(action)
+
     private data class Task(
         val key: Key,
         val ready: CompletableSource,
@@ -58,6 +123,7 @@ internal class ConversationCallbackDispatcher(
                 Route(nextGeneration++, Completable.complete())
             }
             route.started = true
+            route.batch = null
             tasks.onNext(Task(Key(conversation, route.generation), route.ready, false, action))
         }
     }
@@ -68,6 +134,7 @@ internal class ConversationCallbackDispatcher(
                 return
             val conversation = ConversationKey(accountId, conversationId)
             val route = routes[conversation] ?: Route(nextGeneration++, Completable.complete())
+            route.batch = null
             val successorReady = CompletableSubject.create()
             val successor = Route(nextGeneration++, successorReady)
             routes[conversation] = successor
@@ -97,5 +164,7 @@ internal class ConversationCallbackDispatcher(
 
     private companion object {
         val TAG = ConversationCallbackDispatcher::class.simpleName!!
+        const val BATCH_WINDOW_MS = 20L
+        const val MAX_BATCH_SIZE = 256
     }
 }
\ No newline at end of file
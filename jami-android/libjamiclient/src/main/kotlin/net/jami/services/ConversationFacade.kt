@@ -18,11 +18,13 @@ package net.jami.services
 
 import io.reactivex.rxjava3.core.BackpressureStrategy
 import io.reactivex.rxjava3.core.Completable
+import io.reactivex.rxjava3.core.Flowable
 import io.reactivex.rxjava3.core.Maybe
 import io.reactivex.rxjava3.core.Observable
 import io.reactivex.rxjava3.core.Single
 import io.reactivex.rxjava3.disposables.CompositeDisposable
 import io.reactivex.rxjava3.schedulers.Schedulers
+import io.reactivex.rxjava3.subjects.SingleSubject
 import net.jami.model.*
 import net.jami.model.Account.ContactLocationEntry
 import net.jami.model.Call.CallStatus
@@ -30,6 +32,7 @@ import net.jami.model.interaction.Interaction
 import net.jami.model.interaction.Interaction.TransferStatus
 import net.jami.model.interaction.*
 import net.jami.smartlist.ConversationItemViewModel
+import net.jami.smartlist.ConversationSearchIndex
 import net.jami.utils.FileUtils.moveFile
 import net.jami.utils.Log
 import java.io.File
@@ -43,9 +46,12 @@ class ConversationFacade(
     private val mNotificationService: NotificationService,
     private val mHardwareService: HardwareService,
     private val mDeviceRuntimeService: DeviceRuntimeService,
-    private val mPreferencesService: PreferencesService
+    private val mPreferencesService: PreferencesService,
+    historyBudgetBytes: Long = HistoryResidencyManager.DEFAULT_BUDGET_BYTES
 ) {
     private val mDisposableBag = CompositeDisposable()
+    /** Evicts the loaded history of conversations not used recently */
+    val historyResidency = HistoryResidencyManager(historyBudgetBytes)
     val currentAccountSubject: Observable<Account> = mAccountService.currentAccountSubject
             .switchMapSingle { account: Account -> loadSmartlist(account) }
 
@@ -230,6 +236,7 @@ class ConversationFacade(
     private fun loadSmartlist(account: Account): Single<Account> =
         synchronized(account) {
             account.historyLoader ?: account.loaded
+                .andThen(mHistoryService.loadConversationPreferences(account.accountId).onErrorComplete())
                 .andThen(getSmartlist(account))
                 .cache()
                 .apply { account.historyLoader = this }
@@ -243,20 +250,34 @@ class ConversationFacade(
      * @return a conversation single
      */
     fun loadConversationHistory(conversation: Conversation): Single<Conversation> {
-        synchronized(conversation.loadingLock()) {
-            if ((!conversation.isSwarm && conversation.id == null) || (conversation.isSwarm && conversation.mode.blockingFirst() == Conversation.Mode.Request)) {
-                return Single.just(conversation)
-            }
+        if ((!conversation.isSwarm && conversation.id == null) || (conversation.isSwarm && conversation.mode.blockingFirst() == Conversation.Mode.Request)) {
+            return Single.just(conversation)
+        }
+        // Same lock order as the history eviction and loading: conversation, then loading lock
+        conversation.withLock { synchronized(conversation.loadingLock()) {
             var ret = conversation.loaded
             if (ret == null) {
-                ret = if (conversation.isSwarm) mAccountService.loadMore(conversation)
-                else getConversationHistory(conversation)
+                val evictedUntil = conversation.startHistoryReload()
+                ret = if (!conversation.isSwarm) getConversationHistory(conversation)
+                else if (evictedUntil != null) reloadSwarmHistory(conversation, evictedUntil)
+                else mAccountService.loadCachedHistory(conversation).cache()
                 conversation.loaded = ret
             }
+            historyResidency.onAccess(conversation)
             return ret
-        }
+        } }
     }
 
+    /**
+     * Loads again the evicted history of a swarm, from the last message to the oldest one that
+     * was loaded, so that further loads of older messages continue where they were.
+     */
+    private fun reloadSwarmHistory(conversation: Conversation, until: String): Single<Conversation> =
+        Single.defer { mAccountService.loadUntil(conversation, until = until) }
+            .subscribeOn(Schedulers.io())
+            .map { conversation }
+            .cache()
+
     fun getConversationProfile(accountId: String, conversationUri: Uri): Single<ConversationItemViewModel> =
         startConversation(accountId, conversationUri)
             .flatMap { getConversationProfile(it) }
@@ -420,45 +441,45 @@ class ConversationFacade(
         query: Observable<String>, currentAccount: Observable<Account> = currentAccountSubject,
     ): Observable<ConversationList> =
         currentAccount.switchMap { account ->
-            Observable.combineLatest(
+            searchConversations(Observable.combineLatest(
                 account.getConversationsSubject(),
                 query.switchMapSingle { mAccountService.getConversationSearchResults(account, it) },
                 query
             ) { conversations, searchResults, q ->
                 ConversationList(conversations, searchResults, q)
-            }
-        }.switchMapSingle { list ->
-            if (list.latestQuery.isNotBlank() && list.conversations.isNotEmpty()) {
-                val lq = list.latestQuery.lowercase()
-                Maybe.concatEager(
-                    list.conversations.map { c ->
-                        mContactService.getLoadedConversation(c)
-                            .filter { it.matches(lq) }.map { c }
-                    }
-                )
-                    .toList()
-                    .map { newList ->
-                        ConversationList(newList, list.searchResult, list.latestQuery)
-                    }
-            } else Single.just(ConversationList(emptyList(), list.searchResult, list.latestQuery))
+            }) { list -> ConversationList(emptyList(), list.searchResult, list.latestQuery) }
         }
 
     fun getFullConversationList(currentAccount: Observable<Account>, query: Observable<String>, withBlocked: Boolean = false): Observable<ConversationList> =
         currentAccount.switchMap { account ->
-            Observable.combineLatest(
+            searchConversations(Observable.combineLatest(
                 account.getConversationsSubject(withBlocked),
                 query.switchMapSingle { mAccountService.getConversationSearchResults(account, it) },
                 query
-            ) { conversations, searchResults, q -> ConversationList(conversations, searchResults, q) }
-        }.switchMapSingle { list ->
-            if (list.latestQuery.isNotBlank() && list.conversations.isNotEmpty()) {
-                val lq = list.latestQuery.lowercase()
-                Maybe.concatEager(list.conversations.map { c -> mContactService.getLoadedConversation(c)
-                    .filter { it.matches(lq) }.map { c }
-                }).toList().map { newList -> ConversationList(newList, list.searchResult, list.latestQuery) }
-            } else Single.just(list)
+            ) { conversations, searchResults, q -> ConversationList(conversations, searchResults, q) }) { it }
         }
 
+    /**
+     * Filters the conversations of [lists] matching their query, best matches first, see
+     * [ConversationSearchIndex]. The conversations are indexed on first search, and kept up to
+     * date while they are listed: results are emitted again when their terms change, including
+     * when the names of their members are loaded. The index is released with the subscription,
+     * when the account changes.
+     *
+     * @param noQuery the list without query
+     */
+    private fun searchConversations(lists: Observable<ConversationList>, noQuery: (ConversationList) -> ConversationList): Observable<ConversationList> =
+        Observable.using({ ConversationSearchIndex({ mContactService.getLoadedConversation(it).ignoreElement() }) }, { index ->
+            lists.switchMap { list ->
+                if (list.latestQuery.isNotBlank() && list.conversations.isNotEmpty()) {
+                    index.update(list.conversations)
+                    index.changes
+                        .throttleLatest(SEARCH_REFRESH_MS, TimeUnit.MILLISECONDS, true)
+                        .map { ConversationList(index.search(list.latestQuery, list.conversations), list.searchResult, list.latestQuery) }
+                } else Observable.just(noQuery(list))
+            }
+        }, ConversationSearchIndex::clear)
+
     fun getConversationList(currentAccount: Observable<Account>): Observable<ConversationList> =
         currentAccount.switchMap { account -> account.getConversationsSubject() }
             .map { conversations -> ConversationList(conversations) }
@@ -501,20 +522,62 @@ class ConversationFacade(
     }
 
     /**
-     * Loads a conversation's history from the database
+     * Loads the most recent page of a conversation's history from the database
      *
      * @param conversation a conversation object with a valid conversation ID
      * @return a conversation single
      */
     private fun getConversationHistory(conversation: Conversation): Single<Conversation> =
-        mHistoryService.getConversationHistory(conversation.accountId, conversation.id!!)
-            .map { loadedConversation: List<Interaction> ->
+        mHistoryService.getConversationHistoryPage(conversation.accountId, conversation.id!!, null)
+            .map { page ->
                 conversation.clearHistory(true)
-                conversation.setHistory(loadedConversation)
+                conversation.setHistory(page.interactions)
+                conversation.historyCursor = page.next
                 conversation
             }
+            .doOnError {
+                // Load again when the conversation is opened next
+                synchronized(conversation.loadingLock()) { conversation.loaded = null }
+            }
             .cache()
 
+    /**
+     * Loads older messages of a conversation: from the daemon for swarms,
+     * or the previous page of history from the database for other conversations.
+     *
+     * @param conversation a loaded conversation
+     * @return a conversation single, completing when the messages have been added
+     */
+    fun loadMore(conversation: Conversation): Single<Conversation> =
+        if (conversation.isSwarm) mAccountService.loadMore(conversation)
+        else loadHistoryPage(conversation)
+
+    private fun loadHistoryPage(conversation: Conversation): Single<Conversation> {
+        synchronized(conversation.loadingLock()) {
+            conversation.loading?.let { return it }
+            val cursor = conversation.historyCursor ?: return Single.just(conversation)
+            val id = conversation.id ?: return Single.just(conversation)
+            val ret = SingleSubject.create<Conversation>()
+            conversation.loading = ret
+            mDisposableBag.add(mHistoryService.getConversationHistoryPage(conversation.accountId, id, cursor)
+                .subscribe({ page ->
+                    conversation.addHistoryPage(page.interactions)
+                    synchronized(conversation.loadingLock()) {
+                        conversation.historyCursor = page.next
+                        if (conversation.loading === ret) conversation.stopLoading()
+                    }
+                    ret.onSuccess(conversation)
+                }) { e ->
+                    // The cursor is kept, so that the page is loaded again next time
+                    synchronized(conversation.loadingLock()) {
+                        if (conversation.loading === ret) conversation.stopLoading()
+                    }
+                    ret.onError(e)
+                })
+            return ret
+        }
+    }
+
     fun clearHistory(accountId: String, contact: Uri): Completable = mHistoryService
         .clearHistory(contact.uri, accountId, false)
         .doOnSubscribe {
@@ -543,7 +606,7 @@ class ConversationFacade(
             else mAccountService.setMessageDisplayed(txt.account, uri, txt.messageId!!)
         }
 
-        startConversation(accountId, uri).subscribe(mNotificationService::showTextNotification)
+        startConversation(accountId, uri).subscribe { conversation -> mNotificationService.showTextNotification(conversation, txt) }
     }
 
     fun acceptRequest(conversation: Conversation) {
@@ -724,6 +787,8 @@ class ConversationFacade(
 
     companion object {
         private val TAG = ConversationFacade::class.simpleName!!
+        /** Minimum delay between two refreshes of search results, as the indexed terms change */
+        private const val SEARCH_REFRESH_MS = 250L
     }
 
     init {
@@ -792,11 +857,19 @@ class ConversationFacade(
             }
             .subscribe({}) { e: Throwable -> Log.e(TAG, "Error updating text message", e) })
 
-        mDisposableBag.add(mAccountService.dataTransfers
+        // Status changes and progress of the transfers are handled one at a time, in order
+        mDisposableBag.add(Flowable.merge(
+                mAccountService.dataTransfers.onBackpressureLatest().map { transfer -> Pair(listOf(transfer), false) },
+                mAccountService.dataTransferProgress.onBackpressureBuffer().map { transfers -> Pair(transfers, true) })
             .observeOn(Schedulers.computation())
-            .onBackpressureLatest()
-            .subscribe({ transfer: DataTransfer -> handleDataTransferEvent(transfer) },
-                 { e: Throwable -> Log.e(TAG, "Error adding data transfer", e) }))
+            .subscribe({ (transfers, progress) ->
+                for (transfer in transfers) {
+                    // Progress of a transfer that ended since is outdated
+                    if (progress && transfer.transferStatus != TransferStatus.TRANSFER_ONGOING)
+                        continue
+                    handleDataTransferEvent(transfer)
+                }
+            }) { e: Throwable -> Log.e(TAG, "Error updating data transfers", e) })
         mDisposableBag.add(
             mAccountService.activeCallsObservable.subscribe(
                 { conversationActiveCall ->
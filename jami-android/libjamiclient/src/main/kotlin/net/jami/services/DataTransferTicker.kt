@@ -0,0 +1,134 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.services
+
+import io.reactivex.rxjava3.core.Scheduler
+import io.reactivex.rxjava3.disposables.Disposable
+import net.jami.model.Conversation
+import net.jami.model.interaction.DataTransfer
+import net.jami.model.interaction.Interaction.TransferStatus
+import net.jami.utils.Log
+import java.io.File
+import java.util.concurrent.TimeUnit
+
+/**
+ * Refreshes the progress of all the ongoing data transfers from a single scheduled task.
+ *
+ * Each tick queries the transfers that are due and reports the ones whose progress changed in a
+ * single call to [onProgress]. Transfers of a visible conversation, or close to completion, are
+ * refreshed every [fastPeriodMs], others every [slowPeriodMs]. A transfer is dropped once it
+ * is no longer ongoing.
+ */
+internal class DataTransferTicker(
+    private val scheduler: Scheduler,
+    private val infoProvider: FileTransferInfoProvider,
+    private val fastPeriodMs: Long = FAST_PERIOD_MS,
+    private val slowPeriodMs: Long = SLOW_PERIOD_MS,
+    private val onProgress: (List<DataTransfer>) -> Unit
+) {
+    private class Entry(
+        val accountId: String,
+        val conversation: Conversation,
+        val fileId: String,
+        val transfer: DataTransfer
+    ) {
+        var nextTick = 0L
+    }
+
+    private val transfers = LinkedHashMap<DataTransfer, Entry>()
+    private var task: Disposable? = null
+    private var taskTime = Long.MAX_VALUE
+
+    /** Number of transfers being refreshed */
+    @get:Synchronized
+    val size: Int
+        get() = transfers.size
+
+    /** Starts refreshing the progress of an ongoing transfer, if not already refreshed. */
+    @Synchronized
+    fun add(accountId: String, conversation: Conversation, fileId: String, transfer: DataTransfer) {
+        if (transfers.containsKey(transfer))
+            return
+        val entry = Entry(accountId, conversation, fileId, transfer)
+        entry.nextTick = now() + period(entry, transfer.bytesProgress, transfer.totalSize)
+        transfers[transfer] = entry
+        schedule(entry.nextTick)
+    }
+
+    private fun tick() {
+        val now = now()
+        val due = synchronized(this) {
+            task = null
+            taskTime = Long.MAX_VALUE
+            transfers.values.filter { it.nextTick <= now }
+        }
+        val updated = ArrayList<DataTransfer>(due.size)
+        val done = ArrayList<Entry>()
+        for (entry in due) {
+            val transfer = entry.transfer
+            if (synchronized(transfer) { transfer.transferStatus != TransferStatus.TRANSFER_ONGOING }) {
+                done.add(entry)
+                continue
+            }
+            val info = try {
+                infoProvider.get(entry.accountId, entry.conversation.uri.rawRingId, entry.fileId)
+            } catch (e: Exception) {
+                Log.w(TAG, "Unable to load data transfer info", e)
+                done.add(entry)
+                continue
+            }
+            val changed = synchronized(transfer) {
+                if (transfer.transferStatus != TransferStatus.TRANSFER_ONGOING || transfer.bytesProgress == info.progress)
+                    false
+                else {
+                    info.path?.let { transfer.daemonPath = File(it) }
+                    transfer.bytesProgress = info.progress
+                    true
+                }
+            }
+            if (changed)
+                updated.add(transfer)
+            entry.nextTick = now + period(entry, info.progress, info.total)
+        }
+        synchronized(this) {
+            done.forEach { transfers.remove(it.transfer) }
+            transfers.values.minOfOrNull { it.nextTick }?.let { schedule(it) }
+        }
+        if (updated.isNotEmpty())
+            onProgress(updated)
+    }
+
+    private fun period(entry: Entry, progress: Long, total: Long): Long =
+        if (entry.conversation.isVisible || (total > 0 && progress * 10 >= total * 9)) fastPeriodMs else slowPeriodMs
+
+    /** Makes sure a tick happens at [time] at the latest. Must be called with the lock held. */
+    private fun schedule(time: Long) {
+        if (time >= taskTime)
+            return
+        task?.dispose()
+        taskTime = time
+        task = scheduler.scheduleDirect(::tick, (time - now()).coerceAtLeast(0), TimeUnit.MILLISECONDS)
+    }
+
+    private fun now() = scheduler.now(TimeUnit.MILLISECONDS)
+
+    companion object {
+        private val TAG = DataTransferTicker::class.simpleName!!
+        const val FAST_PERIOD_MS = 500L
+        const val SLOW_PERIOD_MS = 2000L
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.services
+
+import io.reactivex.rxjava3.core.Scheduler
+import io.reactivex.rxjava3.schedulers.Schedulers
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Schedulers for the account history databases.
+ *
+ * Each account database has its own writer, a single thread running writes in submission order,
+ * so that writes for an account never race and writes for different accounts never wait for
+ * each other. Reads run on a pool shared by all accounts and can run concurrently with writes,
+ * which requires the databases to use write-ahead logging.
+ * Idle threads are released after [keepAliveSeconds].
+ */
+internal class DatabaseExecutor(
+    readers: Int = READER_COUNT,
+    private val keepAliveSeconds: Long = KEEP_ALIVE_SECONDS
+) {
+    private val writers = ConcurrentHashMap<String, Scheduler>()
+    private val readerThreadFactory = NamedThreadFactory("db-reader")
+    private val writerThreadFactory = NamedThreadFactory("db-writer")
+
+    private val readerExecutor = ThreadPoolExecutor(readers, readers,
+        keepAliveSeconds, TimeUnit.SECONDS, LinkedBlockingQueue(), readerThreadFactory).apply {
+        allowCoreThreadTimeOut(true)
+    }
+
+    /** Scheduler for read-only queries. */
+    val reader: Scheduler = Schedulers.from(readerExecutor)
+
+    /** Scheduler for queries modifying the database of [accountId], serialized per account. */
+    fun writer(accountId: String): Scheduler = writers.computeIfAbsent(accountId) {
+        Schedulers.from(ThreadPoolExecutor(1, 1,
+            keepAliveSeconds, TimeUnit.SECONDS, LinkedBlockingQueue(), writerThreadFactory).apply {
+            allowCoreThreadTimeOut(true)
+        })
+    }
+
+    companion object {
+        private const val READER_COUNT = 3
+        private const val KEEP_ALIVE_SECONDS = 30L
+    }
+}
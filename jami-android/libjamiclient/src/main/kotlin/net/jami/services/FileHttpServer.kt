@@ -0,0 +1,698 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.services
+
+import net.jami.utils.Log
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.net.InetSocketAddress
+import java.net.SocketTimeoutException
+import java.net.URLDecoder
+import java.nio.ByteBuffer
+import java.nio.channels.CancelledKeyException
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.channels.ReadableByteChannel
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
+import java.time.Instant
+import java.time.ZoneOffset
+import java.time.format.DateTimeFormatter
+import java.util.Locale
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * HTTP/1.1 server for static content, as exposed to peers through service tunnels.
+ *
+ * Idle connections are kept alive and watched by a single selector thread. Complete requests
+ * are served by a bounded pool of workers, file content being sent with
+ * [FileChannel.transferTo] so that it's not copied through the heap. Content that the peer
+ * can't receive right away is sent by the selector as the peer reads it, so that long or slow
+ * transfers don't hold a worker. Files support single byte ranges and are validated with an
+ * ETag (`If-None-Match`).
+ *
+ * Subclasses provide the content of each request path with [resolve].
+ */
+abstract class FileHttpServer(
+    private val hostname: String = "localhost",
+    private val port: Int = 0,
+    private val workers: Int = DEFAULT_WORKERS,
+    private val maxPending: Int = DEFAULT_MAX_PENDING
+) {
+    enum class Status(code: Int, reason: String) {
+        OK(200, "OK"),
+        PARTIAL_CONTENT(206, "Partial Content"),
+        NOT_MODIFIED(304, "Not Modified"),
+        BAD_REQUEST(400, "Bad Request"),
+        FORBIDDEN(403, "Forbidden"),
+        NOT_FOUND(404, "Not Found"),
+        METHOD_NOT_ALLOWED(405, "Method Not Allowed"),
+        RANGE_NOT_SATISFIABLE(416, "Range Not Satisfiable"),
+        REQUEST_HEADER_FIELDS_TOO_LARGE(431, "Request Header Fields Too Large"),
+        INTERNAL_ERROR(500, "Internal Server Error"),
+        SERVICE_UNAVAILABLE(503, "Service Unavailable");
+
+        val line = "$code $reason"
+    }
+
+    /** Content served for a request path */
+    sealed class Resource {
+        /** A file of known size, opened only if its content is sent */
+        class File(val size: Long, val lastModified: Long, val mimeType: String, val open: () -> FileChannel) : Resource()
+
+        /** Content of unknown size, sent until its end before closing the connection */
+        class Stream(val mimeType: String, val open: () -> InputStream) : Resource()
+
+        /** A generated page */
+        class Page(val status: Status, val mimeType: String, val body: ByteArray) : Resource() {
+            constructor(status: Status, mimeType: String, text: String) : this(status, mimeType, text.toByteArray())
+        }
+    }
+
+    private class Request(val method: String, val target: String, val headers: Map<String, String>, val keepAlive: Boolean)
+
+    /** Content of a response being sent, without blocking on the peer */
+    private abstract class Body(val keepAlive: Boolean) : AutoCloseable {
+        /** True if more content must be read before sending, from a worker (see [read]) */
+        open val needsRead: Boolean
+            get() = false
+
+        /** Sends what the peer can receive right away, returns true once all the content is sent */
+        abstract fun write(socket: SocketChannel): Boolean
+
+        /** Reads more content to send, blocking */
+        open fun read() {}
+    }
+
+    /** A part of a file, not copied through the heap */
+    private class FileBody(val file: FileChannel, var position: Long, val end: Long, keepAlive: Boolean) : Body(keepAlive) {
+        override fun write(socket: SocketChannel): Boolean {
+            while (position < end) {
+                val count = file.transferTo(position, end - position, socket)
+                if (count > 0)
+                    position += count
+                else if (position >= file.size())
+                    throw EOFException("File truncated")
+                else
+                    return false
+            }
+            return true
+        }
+
+        override fun close() = file.close()
+    }
+
+    /** Content of unknown size, read by chunks until its end */
+    private class StreamBody(val source: ReadableByteChannel) : Body(false) {
+        private val buffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE).flip()
+        private var ended = false
+
+        override val needsRead: Boolean
+            get() = !ended && !buffer.hasRemaining()
+
+        override fun write(socket: SocketChannel): Boolean {
+            while (buffer.hasRemaining()) {
+                if (socket.write(buffer) == 0)
+                    return false
+            }
+            return ended
+        }
+
+        override fun read() {
+            buffer.clear()
+            ended = source.read(buffer) < 0
+            buffer.flip()
+        }
+
+        override fun close() = source.close()
+    }
+
+    private class Connection(val channel: SocketChannel) {
+        val input: ByteBuffer = ByteBuffer.allocate(MAX_HEADER_SIZE)
+        lateinit var key: SelectionKey
+        @Volatile
+        var lastActive = System.currentTimeMillis()
+        var served = 0
+        /** Response content left to send, by the selector when the peer can receive it */
+        var body: Body? = null
+    }
+
+    private class FileHeaders(val etag: String?, val block: String)
+    private class CachedDate(val second: Long, val text: String)
+
+    @Volatile
+    private var running = false
+    private var serverChannel: ServerSocketChannel? = null
+    private var selector: Selector? = null
+    private var thread: Thread? = null
+    private var pool: ThreadPoolExecutor? = null
+    /** Connections served by workers, to be watched again by the selector */
+    private val resumed = ConcurrentLinkedQueue<Connection>()
+    private var lastIdleCheck = 0L
+
+    private val writeSelectors = ConcurrentLinkedQueue<Selector>()
+    private val writeSelector = ThreadLocal.withInitial { Selector.open().also { writeSelectors.add(it) } }
+    private val headerCache = object : LinkedHashMap<String, FileHeaders>(64, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, FileHeaders>) = size > HEADER_CACHE_SIZE
+    }
+    @Volatile
+    private var cachedDate: CachedDate? = null
+
+    /** Port the server listens on, or -1 if it's not started */
+    val listeningPort: Int
+        get() = serverChannel?.socket()?.localPort ?: -1
+
+    val isAlive: Boolean
+        get() = running && thread?.isAlive == true
+
+    /**
+     * Provides the content of a request path, URL decoded and starting with '/'.
+     * Called from a worker thread.
+     */
+    protected abstract fun resolve(path: String): Resource
+
+    @Synchronized
+    @Throws(IOException::class)
+    fun start() {
+        if (running) return
+        // Cleans up after a selector that stopped on an error
+        stop()
+        val server = ServerSocketChannel.open()
+        val selector = try {
+            server.bind(InetSocketAddress(hostname, port))
+            server.configureBlocking(false)
+            Selector.open().also { server.register(it, SelectionKey.OP_ACCEPT) }
+        } catch (e: IOException) {
+            server.close()
+            throw e
+        }
+        serverChannel = server
+        this.selector = selector
+        val localPort = server.socket().localPort
+        // Workers are started on demand, and kept with their selector until the server stops
+        pool = ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+            ArrayBlockingQueue(maxPending), NamedThreadFactory("http-$localPort"))
+        running = true
+        thread = Thread({ run(selector, server) }, "http-$localPort-selector").apply {
+            isDaemon = true
+            start()
+        }
+    }
+
+    /** Stops the server, also cleaning up after a selector that stopped on an error */
+    @Synchronized
+    fun stop() {
+        if (thread == null) return
+        running = false
+        selector?.wakeup()
+        try {
+            thread?.join(STOP_TIMEOUT_MS)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        pool?.shutdownNow()
+        while (true) closeQuietly(writeSelectors.poll() ?: break)
+        closeQuietly(serverChannel)
+        serverChannel = null
+        selector = null
+        thread = null
+        pool = null
+        resumed.clear()
+    }
+
+    private fun run(selector: Selector, server: ServerSocketChannel) {
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MS)
+                while (true) {
+                    val connection = resumed.poll() ?: break
+                    if (connection.key.isValid)
+                        connection.key.interestOps(if (connection.body != null) SelectionKey.OP_WRITE else SelectionKey.OP_READ)
+                }
+                val keys = selector.selectedKeys().iterator()
+                while (keys.hasNext()) {
+                    val key = keys.next()
+                    keys.remove()
+                    if (!key.isValid) continue
+                    if (key.isAcceptable) accept(selector, server)
+                    else if (key.isWritable) write(key.attachment() as Connection)
+                    else if (key.isReadable) read(key.attachment() as Connection)
+                }
+                closeIdle(selector)
+            }
+        } catch (e: IOException) {
+            Log.e(TAG, "Server stopped", e)
+            running = false
+        } finally {
+            for (key in selector.keys()) {
+                closeQuietly((key.attachment() as? Connection)?.body)
+                closeQuietly(key.channel())
+            }
+            closeQuietly(selector)
+        }
+    }
+
+    private fun accept(selector: Selector, server: ServerSocketChannel) {
+        while (true) {
+            val channel = server.accept() ?: return
+            try {
+                channel.configureBlocking(false)
+                channel.socket().tcpNoDelay = true
+                val connection = Connection(channel)
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection)
+            } catch (e: IOException) {
+                closeQuietly(channel)
+            }
+        }
+    }
+
+    private fun read(connection: Connection) {
+        val count = try {
+            connection.channel.read(connection.input)
+        } catch (e: IOException) {
+            -1
+        }
+        if (count < 0) {
+            close(connection)
+            return
+        }
+        connection.lastActive = System.currentTimeMillis()
+        if (headerEnd(connection.input) < 0) {
+            if (!connection.input.hasRemaining())
+                reject(connection, Status.REQUEST_HEADER_FIELDS_TOO_LARGE)
+            return
+        }
+        dispatch(connection)
+    }
+
+    /** Sends the content left of a response as the peer receives it, on the selector thread */
+    private fun write(connection: Connection) {
+        val body = connection.body ?: return
+        val sent = try {
+            body.write(connection.channel)
+        } catch (e: IOException) {
+            close(connection)
+            return
+        }
+        connection.lastActive = System.currentTimeMillis()
+        if (sent) {
+            connection.body = null
+            closeQuietly(body)
+            if (!body.keepAlive)
+                close(connection)
+            else if (headerEnd(connection.input) >= 0)
+                dispatch(connection)
+            else
+                connection.key.interestOps(SelectionKey.OP_READ)
+        } else if (body.needsRead) {
+            dispatch(connection)
+        }
+    }
+
+    /** Leaves the connection to a worker, to send the current response and serve the next ones */
+    private fun dispatch(connection: Connection) {
+        // The connection is left to a worker until the response is sent
+        connection.key.interestOps(0)
+        try {
+            pool!!.execute { serve(connection) }
+        } catch (e: RejectedExecutionException) {
+            reject(connection, Status.SERVICE_UNAVAILABLE)
+        }
+    }
+
+    /** Closes connections kept alive without activity, or not receiving their response, for too long */
+    private fun closeIdle(selector: Selector) {
+        val now = System.currentTimeMillis()
+        if (now - lastIdleCheck < SELECT_TIMEOUT_MS) return
+        lastIdleCheck = now
+        for (key in selector.keys()) {
+            val connection = key.attachment() as? Connection ?: continue
+            try {
+                // Connections served by a worker have no interest set
+                val timeout = when (key.interestOps()) {
+                    0 -> continue
+                    SelectionKey.OP_WRITE -> WRITE_TIMEOUT_MS
+                    else -> KEEP_ALIVE_TIMEOUT_MS
+                }
+                if (now - connection.lastActive > timeout)
+                    close(connection)
+            } catch (e: CancelledKeyException) {
+                // Closed by a worker
+            }
+        }
+    }
+
+    /** Answers [connection] with an empty response from the selector thread, and closes it */
+    private fun reject(connection: Connection, status: Status) {
+        try {
+            connection.channel.write(ByteBuffer.wrap(
+                "HTTP/1.1 ${status.line}\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".toByteArray(Charsets.ISO_8859_1)))
+        } catch (e: IOException) {
+            // Closed anyway
+        }
+        close(connection)
+    }
+
+    private fun close(connection: Connection) {
+        connection.key.cancel()
+        closeQuietly(connection.body)
+        closeQuietly(connection.channel)
+    }
+
+    /** Serves the complete requests of [connection], on a worker */
+    private fun serve(connection: Connection) {
+        try {
+            var keepAlive = true
+            // Continues the response left to the selector
+            connection.body?.let { body ->
+                if (!send(connection, body)) {
+                    resume(connection)
+                    return
+                }
+                keepAlive = body.keepAlive
+            }
+            while (keepAlive && running) {
+                val end = headerEnd(connection.input)
+                if (end < 0) break
+                val request = readRequest(connection.input, end)
+                keepAlive = if (request == null) {
+                    sendPage(connection, Resource.Page(Status.BAD_REQUEST, MIME_PLAINTEXT, "Bad Request"), false, false)
+                } else {
+                    respond(connection, request, request.keepAlive && connection.served + 1 < MAX_REQUESTS_PER_CONNECTION)
+                }
+                connection.served++
+                // The rest of the response is sent by the selector
+                if (connection.body != null) {
+                    resume(connection)
+                    return
+                }
+            }
+            if (keepAlive && running) {
+                resume(connection)
+            } else {
+                close(connection)
+            }
+        } catch (e: IOException) {
+            close(connection)
+        } catch (e: RuntimeException) {
+            Log.w(TAG, "Error serving a request", e)
+            close(connection)
+        }
+    }
+
+    /** Gives [connection] back to the selector, to read the next request or send [Connection.body] */
+    private fun resume(connection: Connection) {
+        connection.lastActive = System.currentTimeMillis()
+        resumed.add(connection)
+        selector?.wakeup()
+    }
+
+    /**
+     * Sends [body] until the peer can't receive more right away, in which case it's kept as
+     * [Connection.body] for the selector to send the rest.
+     * @return true if all the content was sent
+     */
+    private fun send(connection: Connection, body: Body): Boolean {
+        try {
+            while (!body.write(connection.channel)) {
+                if (!body.needsRead) {
+                    connection.body = body
+                    return false
+                }
+                body.read()
+            }
+        } catch (e: Exception) {
+            closeQuietly(body)
+            connection.body = null
+            throw e
+        }
+        connection.body = null
+        body.close()
+        return true
+    }
+
+    private fun respond(connection: Connection, request: Request, keepAlive: Boolean): Boolean {
+        val head = request.method == "HEAD"
+        if (!head && request.method != "GET")
+            return sendPage(connection, Resource.Page(Status.METHOD_NOT_ALLOWED, MIME_PLAINTEXT, "Method Not Allowed"),
+                false, false, "Allow: GET, HEAD\r\n")
+        val path = decodePath(request.target)
+            ?: return sendPage(connection, Resource.Page(Status.BAD_REQUEST, MIME_PLAINTEXT, "Bad Request"), head, keepAlive)
+        val resource = try {
+            resolve(path)
+        } catch (e: Exception) {
+            Log.w(TAG, "Can't resolve $path", e)
+            Resource.Page(Status.INTERNAL_ERROR, MIME_PLAINTEXT, "Internal Error")
+        }
+        return when (resource) {
+            is Resource.File -> sendFile(connection, request, path, resource, head, keepAlive)
+            is Resource.Stream -> sendStream(connection, resource, head)
+            is Resource.Page -> sendPage(connection, resource, head, keepAlive)
+        }
+    }
+
+    private fun sendFile(connection: Connection, request: Request, path: String, file: Resource.File, head: Boolean, keepAlive: Boolean): Boolean {
+        val headers = fileHeaders(path, file)
+        val ifNoneMatch = request.headers["if-none-match"]
+        if (headers.etag != null && ifNoneMatch != null && etagMatches(ifNoneMatch, headers.etag)) {
+            writeHead(connection, Status.NOT_MODIFIED, headers.block, null, keepAlive)
+            return keepAlive
+        }
+        val range = parseRange(request.headers["range"], file.size)
+        if (range != null && range.isEmpty())
+            return sendPage(connection, Resource.Page(Status.RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT, "Range Not Satisfiable"),
+                head, keepAlive, "Content-Range: bytes */${file.size}\r\n")
+        val start = range?.first ?: 0L
+        val length = if (range == null) file.size else range.last - range.first + 1
+        val channel = if (head || length == 0L) null else try {
+            file.open()
+        } catch (e: Exception) {
+            Log.w(TAG, "Can't open $path", e)
+            return sendPage(connection, Resource.Page(Status.INTERNAL_ERROR, MIME_PLAINTEXT, "Internal Error"), head, keepAlive)
+        }
+        try {
+            if (range == null) {
+                writeHead(connection, Status.OK, headers.block, length, keepAlive)
+            } else {
+                writeHead(connection, Status.PARTIAL_CONTENT,
+                    headers.block + "Content-Range: bytes ${range.first}-${range.last}/${file.size}\r\n", length, keepAlive)
+            }
+        } catch (e: IOException) {
+            closeQuietly(channel)
+            throw e
+        }
+        if (channel != null)
+            send(connection, FileBody(channel, start, start + length, keepAlive))
+        return keepAlive
+    }
+
+    /** Sends content of unknown size, delimited by the end of the connection */
+    private fun sendStream(connection: Connection, stream: Resource.Stream, head: Boolean): Boolean {
+        val input = if (head) null else try {
+            stream.open()
+        } catch (e: Exception) {
+            return sendPage(connection, Resource.Page(Status.INTERNAL_ERROR, MIME_PLAINTEXT, "Internal Error"), head, false)
+        }
+        try {
+            writeHead(connection, Status.OK, "Content-Type: ${stream.mimeType}\r\nCache-Control: $CACHE_CONTROL\r\n", null, false)
+        } catch (e: IOException) {
+            closeQuietly(input)
+            throw e
+        }
+        if (input != null)
+            send(connection, StreamBody(Channels.newChannel(input)))
+        return false
+    }
+
+    private fun sendPage(connection: Connection, page: Resource.Page, head: Boolean, keepAlive: Boolean, extraHeaders: String = ""): Boolean {
+        writeHead(connection, page.status, "Content-Type: ${page.mimeType}\r\n$extraHeaders", page.body.size.toLong(), keepAlive)
+        if (!head && page.body.isNotEmpty())
+            writeFully(connection.channel, ByteBuffer.wrap(page.body))
+        return keepAlive
+    }
+
+    private fun writeHead(connection: Connection, status: Status, headers: String, contentLength: Long?, keepAlive: Boolean) {
+        val head = StringBuilder(256)
+            .append("HTTP/1.1 ").append(status.line)
+            .append("\r\nDate: ").append(httpDate())
+            .append("\r\n").append(headers)
+        if (contentLength != null)
+            head.append("Content-Length: ").append(contentLength).append("\r\n")
+        head.append(if (keepAlive) "Connection: keep-alive\r\n\r\n" else "Connection: close\r\n\r\n")
+        writeFully(connection.channel, ByteBuffer.wrap(head.toString().toByteArray(Charsets.ISO_8859_1)))
+    }
+
+    private fun writeFully(socket: SocketChannel, buffer: ByteBuffer) {
+        while (buffer.hasRemaining()) {
+            if (socket.write(buffer) == 0)
+                awaitWritable(socket)
+        }
+    }
+
+    /** Waits until a slow peer can receive more of a response head or page, on the selector of the worker */
+    private fun awaitWritable(socket: SocketChannel) {
+        val selector = writeSelector.get()
+        val key = socket.register(selector, SelectionKey.OP_WRITE)
+        try {
+            if (selector.select(WRITE_TIMEOUT_MS) == 0)
+                throw SocketTimeoutException("Write timed out")
+            selector.selectedKeys().clear()
+        } finally {
+            key.cancel()
+            selector.selectNow()
+        }
+    }
+
+    /** Headers of a file response, formatted once per file version */
+    private fun fileHeaders(path: String, file: Resource.File): FileHeaders {
+        val key = "$path\n${file.size}\n${file.lastModified}\n${file.mimeType}"
+        synchronized(headerCache) { headerCache[key] }?.let { return it }
+        val etag = if (file.lastModified > 0) "\"${file.size.toString(16)}-${file.lastModified.toString(16)}\"" else null
+        val block = StringBuilder("Content-Type: ").append(file.mimeType).append("\r\n")
+        if (file.lastModified > 0)
+            block.append("Last-Modified: ").append(formatDate(file.lastModified)).append("\r\n")
+        if (etag != null)
+            block.append("ETag: ").append(etag).append("\r\n")
+        block.append("Accept-Ranges: bytes\r\nCache-Control: ").append(CACHE_CONTROL).append("\r\n")
+        return FileHeaders(etag, block.toString()).also { synchronized(headerCache) { headerCache[key] = it } }
+    }
+
+    /** Current date, formatted once per second */
+    private fun httpDate(): String {
+        val second = System.currentTimeMillis() / 1000
+        cachedDate?.let { if (it.second == second) return it.text }
+        return formatDate(second * 1000).also { cachedDate = CachedDate(second, it) }
+    }
+
+    companion object {
+        private val TAG = FileHttpServer::class.simpleName!!
+        const val MIME_PLAINTEXT = "text/plain"
+        const val MIME_HTML = "text/html"
+        const val DEFAULT_WORKERS = 4
+        const val DEFAULT_MAX_PENDING = 64
+        private const val MAX_HEADER_SIZE = 8 * 1024
+        private const val STREAM_BUFFER_SIZE = 64 * 1024
+        private const val HEADER_CACHE_SIZE = 256
+        private const val MAX_REQUESTS_PER_CONNECTION = 1000
+        private const val KEEP_ALIVE_TIMEOUT_MS = 15_000L
+        private const val WRITE_TIMEOUT_MS = 30_000L
+        private const val SELECT_TIMEOUT_MS = 1000L
+        private const val STOP_TIMEOUT_MS = 2000L
+        private const val CACHE_CONTROL = "public, max-age=300"
+
+        private val HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC)
+
+        private fun formatDate(time: Long): String = HTTP_DATE.format(Instant.ofEpochMilli(time))
+
+        private fun closeQuietly(closeable: AutoCloseable?) {
+            try {
+                closeable?.close()
+            } catch (e: Exception) {
+                // Nothing to do
+            }
+        }
+
+        /** Position after the empty line ending the request headers in [buffer], or -1 */
+        private fun headerEnd(buffer: ByteBuffer): Int {
+            val bytes = buffer.array()
+            for (i in 3 until buffer.position()) {
+                if (bytes[i] == '\n'.code.toByte() && bytes[i - 1] == '\r'.code.toByte()
+                    && bytes[i - 2] == '\n'.code.toByte() && bytes[i - 3] == '\r'.code.toByte())
+                    return i + 1
+            }
+            return -1
+        }
+
+        /** Reads the request ending at [end] from [buffer], keeping the bytes after it */
+        private fun readRequest(buffer: ByteBuffer, end: Int): Request? {
+            val text = String(buffer.array(), 0, end, Charsets.ISO_8859_1)
+            buffer.flip()
+            buffer.position(end)
+            buffer.compact()
+            val lines = text.split("\r\n")
+            val requestLine = lines[0].split(' ')
+            if (requestLine.size != 3 || !requestLine[2].startsWith("HTTP/1.")) return null
+            val headers = HashMap<String, String>()
+            for (i in 1 until lines.size) {
+                val line = lines[i]
+                val colon = line.indexOf(':')
+                if (colon > 0)
+                    headers[line.substring(0, colon).trim().lowercase(Locale.US)] = line.substring(colon + 1).trim()
+            }
+            val connection = headers["connection"]?.lowercase(Locale.US)
+            // Request bodies are not read, so the connection can't be reused after one
+            val hasBody = headers.containsKey("transfer-encoding") || (headers["content-length"]?.toLongOrNull() ?: 0L) != 0L
+            val keepAlive = !hasBody && if (requestLine[2] == "HTTP/1.0") connection == "keep-alive" else connection != "close"
+            return Request(requestLine[0], requestLine[1], headers, keepAlive)
+        }
+
+        /** Decoded path of a request target, without query, or null if it's not a valid path */
+        private fun decodePath(target: String): String? {
+            val path = target.substringBefore('?').substringBefore('#')
+            if (!path.startsWith("/")) return null
+            return try {
+                URLDecoder.decode(path.replace("+", "%2B"), "UTF-8")
+            } catch (e: IllegalArgumentException) {
+                null
+            }
+        }
+
+        private fun etagMatches(ifNoneMatch: String, etag: String): Boolean =
+            ifNoneMatch.trim() == "*" || ifNoneMatch.split(',').any { it.trim().removePrefix("W/") == etag }
+
+        /**
+         * Parses "Range: bytes=start-end", "bytes=start-" or "bytes=-suffix" for a file of
+         * [size] bytes, as an inclusive range. Returns null if the header is absent or is
+         * ignored (malformed, multiple ranges) and an empty range if it can't be satisfied.
+         */
+        internal fun parseRange(header: String?, size: Long): LongRange? {
+            if (header == null || !header.startsWith("bytes=")) return null
+            val spec = header.removePrefix("bytes=").trim()
+            val dash = spec.indexOf('-')
+            if (dash < 0 || spec.indexOf(',') >= 0) return null
+            val startStr = spec.substring(0, dash).trim()
+            val endStr = spec.substring(dash + 1).trim()
+            return try {
+                when {
+                    startStr.isEmpty() -> {
+                        // bytes=-N: last N bytes
+                        val suffix = endStr.toLong()
+                        if (suffix <= 0 || size == 0L) LongRange.EMPTY
+                        else maxOf(0L, size - suffix)..(size - 1)
+                    }
+                    else -> {
+                        val start = startStr.toLong()
+                        val end = if (endStr.isEmpty()) Long.MAX_VALUE else endStr.toLong()
+                        if (start < 0 || start > end) null
+                        else if (start >= size) LongRange.EMPTY
+                        else start..minOf(end, size - 1)
+                    }
+                }
+            } catch (_: NumberFormatException) {
+                null
+            }
+        }
+    }
+}
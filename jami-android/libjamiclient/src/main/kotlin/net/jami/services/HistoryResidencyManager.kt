@@ -0,0 +1,116 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.services
+
+import io.reactivex.rxjava3.core.Scheduler
+import io.reactivex.rxjava3.disposables.Disposable
+import io.reactivex.rxjava3.schedulers.Schedulers
+import net.jami.model.Conversation
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Keeps the loaded histories of conversations within a global memory budget.
+ *
+ * Conversations are tracked from the moment their history is loaded, by order of last use.
+ * When the estimated size of the loaded histories exceeds [budgetBytes], the histories of the
+ * least recently used conversations that are not visible are evicted (see
+ * [Conversation.evictHistory]) until the budget is met again, on [scheduler].
+ */
+class HistoryResidencyManager(
+    budgetBytes: Long = DEFAULT_BUDGET_BYTES,
+    private val scheduler: Scheduler = Schedulers.computation()
+) {
+    private class Resident(val conversation: Conversation) {
+        var size = 0L
+        var visibility: Disposable? = null
+    }
+
+    /** Resident conversations, least recently used first */
+    private val residents = LinkedHashMap<Conversation, Resident>(16, 0.75f, true)
+
+    @Volatile
+    var budgetBytes: Long = budgetBytes
+        set(value) {
+            field = value
+            scheduler.scheduleDirect(::trim)
+        }
+
+    /** Number of histories evicted */
+    val evictions = AtomicLong()
+
+    /** Number of conversations with a loaded history */
+    @get:Synchronized
+    val residentCount: Int
+        get() = residents.size
+
+    /** Estimated size of the loaded histories, as of the last trim */
+    @get:Synchronized
+    val residentBytes: Long
+        get() = residents.values.sumOf { it.size }
+
+    /** Marks the history of a conversation as used, and evicts other histories if needed. */
+    fun onAccess(conversation: Conversation) {
+        synchronized(this) {
+            if (residents[conversation] == null) {
+                val resident = Resident(conversation)
+                residents[conversation] = resident
+                // The history was just used when it's closed
+                resident.visibility = conversation.getVisible()
+                    .skip(1)
+                    .filter { visible -> !visible }
+                    .subscribe { onAccess(conversation) }
+            }
+        }
+        scheduler.scheduleDirect(::trim)
+    }
+
+    /** Stops tracking a conversation, without evicting its history. */
+    @Synchronized
+    fun remove(conversation: Conversation) {
+        residents.remove(conversation)?.visibility?.dispose()
+    }
+
+    /** Evicts the least recently used histories until the loaded histories fit in the budget. */
+    fun trim() {
+        val candidates = synchronized(this) { residents.values.toList() }
+        var total = 0L
+        for (resident in candidates) {
+            // Kept by the history as it changes, without walking it
+            resident.size = resident.conversation.estimateHistorySize()
+            total += resident.size
+        }
+        val budget = budgetBytes
+        for (resident in candidates) {
+            // Histories not loaded nor loading anymore are tracked again on their next load
+            if (resident.conversation.loaded == null && !resident.conversation.isVisible) {
+                remove(resident.conversation)
+                continue
+            }
+            if (total <= budget)
+                break
+            if (resident.conversation.evictHistory()) {
+                total -= resident.size
+                evictions.incrementAndGet()
+                remove(resident.conversation)
+            }
+        }
+    }
+
+    companion object {
+        const val DEFAULT_BUDGET_BYTES = 8L * 1024 * 1024
+    }
+}
@@ -19,30 +19,360 @@ package net.jami.services
 import com.j256.ormlite.dao.Dao
 import com.j256.ormlite.support.ConnectionSource
 import io.reactivex.rxjava3.core.Completable
-import io.reactivex.rxjava3.core.Scheduler
 import io.reactivex.rxjava3.core.Single
-import io.reactivex.rxjava3.schedulers.Schedulers
 import net.jami.model.*
 import net.jami.model.interaction.Interaction
 import net.jami.model.interaction.Interaction.InteractionStatus
 import net.jami.model.interaction.TextMessage
 import net.jami.utils.Log
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
-abstract class HistoryService {
-    val scheduler: Scheduler = Schedulers.single()
+/**
+ * @param writeDelayMs delay before interaction updates are written, updates of the same
+ * interaction received in the meantime are written once
+ */
+abstract class HistoryService(writeDelayMs: Long = WRITE_DELAY_MS) {
+    /** Writes are serialized per account database, reads run concurrently */
+    private val executor = DatabaseExecutor()
+    private val interactionUpdates = WriteBehindQueue<Int, Interaction>(writeDelayMs, executor::writer) { accountId, interactions ->
+        val dao = getInteractionDataDao(accountId)
+        dao.callBatchTasks { interactions.forEach { dao.update(it) } }
+    }
+
+    /**
+     * Local conversation preferences of each account, loaded with a single query on first use,
+     * on the writer of the account. Only kept once loaded.
+     */
+    private val conversationPreferences = ConcurrentHashMap<String, Single<AccountPreferences>>()
+    private val preferenceUpdates = WriteBehindQueue<PreferenceKey, PreferenceUpdate>(writeDelayMs, executor::writer) { accountId, updates ->
+        val dao = getInteractionDataDao(accountId)
+        dao.callBatchTasks { updates.forEach { writePreference(dao, it.key.conversation, it.key.key, it.value) } }
+    }
+
+    private data class PreferenceKey(val conversation: String, val key: String)
+    private class PreferenceUpdate(val key: PreferenceKey, val value: String?)
+
+    /** Recent messages of swarm conversations, to show them before the daemon loads them */
+    private val swarmMessageUpdates = WriteBehindQueue<SwarmMessageKey, SwarmMessageUpdate>(writeDelayMs, executor::writer) { accountId, updates ->
+        val dao = getInteractionDataDao(accountId)
+        dao.callBatchTasks {
+            updates.forEach { writeSwarmMessage(dao, it) }
+            updates.mapTo(HashSet()) { it.key.conversation }.forEach { conversation ->
+                dao.executeRaw("DELETE FROM swarm_messages WHERE conversation = ? AND message_id NOT IN " +
+                        "(SELECT message_id FROM swarm_messages WHERE conversation = ? ORDER BY timestamp DESC LIMIT $SWARM_CACHE_SIZE)",
+                    conversation, conversation)
+            }
+        }
+    }
+
+    /** Swarm messages to index for search, see [searchMessages] */
+    private val messageIndexUpdates = WriteBehindQueue<SwarmMessageKey, SwarmMessageUpdate>(writeDelayMs, executor::writer) { accountId, updates ->
+        val dao = getInteractionDataDao(accountId)
+        dao.callBatchTasks {
+            updates.forEach { update ->
+                val message = update.message ?: return@forEach
+                indexMessage(dao, update.key.conversation, message.id, message.body["author"], message.body["type"],
+                    message.timestamp * 1000, MessageSearch.textOf(message.body), message.toJson(), null)
+            }
+        }
+    }
+
+    private data class SwarmMessageKey(val conversation: String, val messageId: String)
+    /** A cached message to write, or to delete if [message] is null */
+    private class SwarmMessageUpdate(val key: SwarmMessageKey, val message: SwarmMessageData?)
+
+    /** Preferences of the conversations of an account, by conversation uri */
+    private class AccountPreferences {
+        private val conversations = HashMap<String, HashMap<String, String>>()
+
+        @Synchronized
+        fun get(conversation: String): Map<String, String> =
+            conversations[conversation]?.let { HashMap(it) } ?: emptyMap()
+
+        @Synchronized
+        fun get(conversation: String, key: String): String? = conversations[conversation]?.get(key)
+
+        @Synchronized
+        fun set(conversation: String, key: String, value: String?) {
+            if (value != null)
+                conversations.getOrPut(conversation) { HashMap() }[key] = value
+            else conversations[conversation]?.let {
+                it.remove(key)
+                if (it.isEmpty()) conversations.remove(conversation)
+            }
+        }
+    }
+
+    /** Number of interaction updates queued */
+    val queuedUpdates: Long
+        get() = interactionUpdates.queued.get()
+    /** Number of interaction updates replaced by a later update before being written */
+    val coalescedUpdates: Long
+        get() = interactionUpdates.coalesced.get()
+    /** Number of interaction updates written */
+    val flushedUpdates: Long
+        get() = interactionUpdates.flushed.get()
     protected abstract fun getConnectionSource(dbName: String): ConnectionSource?
     protected abstract fun getInteractionDataDao(dbName: String): Dao<Interaction, Int>
     protected abstract fun getConversationDataDao(dbName: String): Dao<ConversationHistory, Int>
     protected abstract fun getHelper(dbName: String): Any?
 
-    abstract fun setMessageNotified(accountId: String, conversationUri: Uri, lastId: String)
-    abstract fun getLastMessageNotified(accountId: String, conversationUri: Uri): String?
+
+    /**
+     * Reads the conversation preferences stored before they were moved to the account database.
+     * @return the preferences by conversation uri
+     */
+    protected open fun loadLegacyConversationPreferences(accountId: String): Map<String, Map<String, String>> = emptyMap()
+
+    /** Deletes the legacy conversation preferences, once they have been written to the account database. */
+    protected open fun deleteLegacyConversationPreferences(accountId: String, conversations: Collection<String>) {}
+
+    fun setMessageNotified(accountId: String, conversationUri: Uri, lastId: String) {
+        setConversationPreferences(accountId, conversationUri, mapOf(KEY_LAST_NOTIFIED to lastId))
+    }
+
+    fun getLastMessageNotified(accountId: String, conversationUri: Uri): String? =
+        getAccountPreferences(accountId)?.get(conversationUri.uri, KEY_LAST_NOTIFIED)
+
+    /**
+     * Local preferences of a conversation.
+     * Preferences of all the conversations of the account are loaded on first use, waiting for
+     * the load: see [loadConversationPreferences] to load them ahead.
+     * @return the preferences, empty if they can't be loaded
+     */
+    fun getConversationPreferences(accountId: String, conversationUri: Uri): Map<String, String> =
+        getAccountPreferences(accountId)?.get(conversationUri.uri) ?: emptyMap()
+
+    /**
+     * Sets local preferences of a conversation, a null value removes the preference.
+     * Preferences are set once those of the account are loaded, without waiting for the load,
+     * and written to the database shortly after, with other updates of the account.
+     */
+    fun setConversationPreferences(accountId: String, conversationUri: Uri, preferences: Map<String, String?>) {
+        loadedPreferences(accountId).subscribe({ accountPreferences ->
+            val conversation = conversationUri.uri
+            for ((key, value) in preferences) {
+                if (accountPreferences.get(conversation, key) == value)
+                    continue
+                accountPreferences.set(conversation, key, value)
+                val preferenceKey = PreferenceKey(conversation, key)
+                preferenceUpdates.enqueue(accountId, preferenceKey, PreferenceUpdate(preferenceKey, value))
+            }
+        }) { e -> Log.e(TAG, "Unable to set the preferences of $conversationUri", e) }
+    }
+
+    /**
+     * Loads the conversation preferences of an account ahead of their first use, that would
+     * otherwise wait for them to be loaded.
+     */
+    fun loadConversationPreferences(accountId: String): Completable = accountPreferences(accountId).ignoreElement()
+
+    /**
+     * Preferences of an account, or null if they can't be loaded.
+     * Not to be called on the writer of the account.
+     */
+    private fun getAccountPreferences(accountId: String): AccountPreferences? = try {
+        loadedPreferences(accountId).blockingGet()
+    } catch (e: Exception) {
+        null
+    }
+
+    /** Preferences of an account, loaded again once if the load fails */
+    private fun loadedPreferences(accountId: String): Single<AccountPreferences> =
+        Single.defer { accountPreferences(accountId) }.retry(1)
+
+    /** Preferences of an account, loaded on first use. A failed load is done again on next use. */
+    private fun accountPreferences(accountId: String): Single<AccountPreferences> =
+        conversationPreferences.computeIfAbsent(accountId) {
+            lateinit var load: Single<AccountPreferences>
+            load = Single.fromCallable { loadAccountPreferences(accountId) }
+                .subscribeOn(executor.writer(accountId))
+                .doOnError { e ->
+                    Log.e(TAG, "Unable to load conversation preferences for $accountId", e)
+                    // Loaded again on next use
+                    conversationPreferences.remove(accountId, load)
+                }
+                .cache()
+            load
+        }
+
+    private fun loadAccountPreferences(accountId: String): AccountPreferences {
+        val preferences = AccountPreferences()
+        val dao = getInteractionDataDao(accountId)
+        dao.queryRaw("SELECT conversation, key, value FROM conversation_preferences").results.forEach { row ->
+            preferences.set(row[0], row[1], row[2])
+        }
+        val legacy = loadLegacyConversationPreferences(accountId)
+        if (legacy.isNotEmpty()) {
+            dao.callBatchTasks {
+                for ((conversation, values) in legacy)
+                    for ((key, value) in values)
+                        if (preferences.get(conversation, key) == null) {
+                            writePreference(dao, conversation, key, value)
+                            preferences.set(conversation, key, value)
+                        }
+            }
+            deleteLegacyConversationPreferences(accountId, legacy.keys)
+            Log.w(TAG, "Migrated the preferences of ${legacy.size} conversations for $accountId")
+        }
+        return preferences
+    }
+
+    private fun writePreference(dao: Dao<Interaction, Int>, conversation: String, key: String, value: String?) {
+        if (value != null)
+            dao.executeRaw("INSERT OR REPLACE INTO conversation_preferences (conversation, key, value) VALUES (?, ?, ?)", conversation, key, value)
+        else
+            dao.executeRaw("DELETE FROM conversation_preferences WHERE conversation = ? AND key = ?", conversation, key)
+    }
+
+    /**
+     * Loads the cached messages of a swarm conversation: the last messages that were loaded or
+     * received, up to the first message missing from the cache.
+     * @return the messages, from the most recent one
+     */
+    internal fun getCachedSwarmMessages(accountId: String, conversationId: String): Single<List<SwarmMessageData>> = Single.fromCallable<List<SwarmMessageData>> {
+        val messages = getInteractionDataDao(accountId)
+            .queryRaw("SELECT data FROM swarm_messages WHERE conversation = ? ORDER BY timestamp DESC LIMIT $SWARM_CACHE_SIZE", conversationId)
+            .results.map { SwarmMessageData.fromJson(it[0]) }
+        val byId = messages.associateBy { it.id }
+        // The most recent message is the one that is not the parent of another one
+        val parents = messages.mapNotNullTo(HashSet()) { it.parentId }
+        val chain = ArrayList<SwarmMessageData>(messages.size)
+        var message = messages.firstOrNull { it.id !in parents }
+        while (message != null && chain.size < messages.size) {
+            chain.add(message)
+            message = message.parentId?.let { byId[it] }
+        }
+        chain
+    }.subscribeOn(executor.reader)
+
+    /** Caches the last version of swarm messages, written with other updates of the account. */
+    internal fun cacheSwarmMessages(accountId: String, conversationId: String, messages: List<SwarmMessageData>) {
+        for (message in messages) {
+            val key = SwarmMessageKey(conversationId, message.id)
+            swarmMessageUpdates.enqueue(accountId, key, SwarmMessageUpdate(key, message))
+        }
+    }
+
+    /** Removes a swarm message from the cache, until it is loaded again. */
+    fun invalidateSwarmMessage(accountId: String, conversationId: String, messageId: String) {
+        val key = SwarmMessageKey(conversationId, messageId)
+        swarmMessageUpdates.enqueue(accountId, key, SwarmMessageUpdate(key, null))
+    }
+
+    /** Removes the cached and indexed messages of a swarm conversation. */
+    fun clearSwarmMessages(accountId: String, conversationId: String): Completable = Completable
+        .mergeArray(swarmMessageUpdates.flush(), messageIndexUpdates.flush())
+        .andThen(Completable.fromAction {
+            val dao = getInteractionDataDao(accountId)
+            dao.executeRaw("DELETE FROM swarm_messages WHERE conversation = ?", conversationId)
+            dao.executeRaw("DELETE FROM message_index WHERE conversation = ?", conversationId)
+        }.subscribeOn(executor.writer(accountId)))
+
+    /** Indexes swarm messages for search, with other updates of the account. */
+    internal fun indexSwarmMessages(accountId: String, conversationId: String, messages: List<SwarmMessageData>) {
+        for (message in messages) {
+            val key = SwarmMessageKey(conversationId, message.id)
+            messageIndexUpdates.enqueue(accountId, key, SwarmMessageUpdate(key, message))
+        }
+    }
+
+    /** A message found by [searchMessages]: a swarm message, or a legacy interaction */
+    internal class IndexedMessage(val conversation: String, val message: SwarmMessageData?, val interaction: Interaction?)
+
+    /**
+     * Searches the indexed messages of an account, from the most recent one.
+     *
+     * @param conversation the swarm id or legacy participant to search, or null to search all conversations
+     * @param query words the messages must have words starting with, see [MessageSearch.matchQuery]
+     * @param after minimum timestamp in milliseconds, or 0
+     * @param before maximum timestamp in milliseconds, or 0
+     */
+    internal fun searchMessages(
+        accountId: String,
+        conversation: String?,
+        query: String,
+        author: String = "",
+        type: String = "",
+        after: Long = 0,
+        before: Long = 0,
+        limit: Int = SEARCH_LIMIT
+    ): Single<List<IndexedMessage>> = Single.fromCallable<List<IndexedMessage>> {
+        val match = MessageSearch.matchQuery(query)
+        if (match == null && author.isEmpty() && type.isEmpty())
+            return@fromCallable emptyList()
+        val conditions = ArrayList<String>()
+        val args = ArrayList<String>()
+        if (match != null) {
+            conditions.add("id IN (SELECT docid FROM message_search WHERE message_search MATCH ?)")
+            args.add(match)
+        }
+        if (conversation != null) {
+            conditions.add("conversation = ?")
+            args.add(conversation)
+        }
+        if (author.isNotEmpty()) {
+            conditions.add("author = ?")
+            args.add(author)
+        }
+        if (type.isNotEmpty()) {
+            conditions.add("type = ?")
+            args.add(type)
+        }
+        if (after > 0) {
+            conditions.add("timestamp >= ?")
+            args.add(after.toString())
+        }
+        if (before > 0) {
+            conditions.add("timestamp <= ?")
+            args.add(before.toString())
+        }
+        val dao = getInteractionDataDao(accountId)
+        dao.queryRaw("SELECT conversation, data, interaction FROM message_index WHERE " + conditions.joinToString(" AND ") +
+                " ORDER BY timestamp DESC LIMIT $limit", *args.toTypedArray())
+            .results.mapNotNull { row ->
+                val data = row[1]
+                if (data != null) IndexedMessage(row[0], SwarmMessageData.fromJson(data), null)
+                else row[2]?.toIntOrNull()?.let { dao.queryForId(it) }?.let { IndexedMessage(row[0], null, it) }
+            }
+    }.subscribeOn(executor.reader)
+
+    private fun indexMessage(
+        dao: Dao<Interaction, Int>, conversation: String, messageId: String, author: String?, type: String?,
+        timestamp: Long, body: String?, data: String?, interaction: Int?
+    ) {
+        val args = arrayOf(author, type, timestamp.toString(), body, data, interaction?.toString(), conversation, messageId)
+        if (dao.executeRaw("UPDATE message_index SET author = ?, type = ?, timestamp = ?, body = ?, data = ?, interaction = ? " +
+                    "WHERE conversation = ? AND message_id = ?", *args) == 0)
+            dao.executeRaw("INSERT INTO message_index (author, type, timestamp, body, data, interaction, conversation, message_id) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?)", *args)
+    }
+
+    /** Indexes a legacy text message once inserted, by interaction id */
+    private fun indexLegacyMessage(dao: Dao<Interaction, Int>, participant: String, interaction: Interaction) {
+        if (interaction.type != Interaction.InteractionType.TEXT)
+            return
+        indexMessage(dao, participant, interaction.id.toString(), interaction.author, "text/plain",
+            interaction.timestamp, interaction.body, null, interaction.id)
+    }
+
+    private fun writeSwarmMessage(dao: Dao<Interaction, Int>, update: SwarmMessageUpdate) {
+        val message = update.message
+        if (message != null)
+            dao.executeRaw("INSERT OR REPLACE INTO swarm_messages (conversation, message_id, timestamp, data) VALUES (?, ?, ?, ?)",
+                update.key.conversation, message.id, message.timestamp.toString(), message.toJson())
+        else
+            dao.executeRaw("DELETE FROM swarm_messages WHERE conversation = ? AND message_id = ?", update.key.conversation, update.key.messageId)
+    }
 
     protected abstract fun deleteAccountHistory(accountId: String)
     fun clearHistory(accountId: String): Completable = Completable
-        .fromAction { deleteAccountHistory(accountId) }
-        .subscribeOn(scheduler)
+        .fromAction {
+            deleteAccountHistory(accountId)
+            conversationPreferences.remove(accountId)
+        }
+        .subscribeOn(executor.writer(accountId))
 
     /**
      * Clears a conversation's history
@@ -69,8 +399,9 @@ abstract class HistoryService {
                     .ne(Interaction.COLUMN_TYPE, Interaction.InteractionType.CONTACT.toString())
             }
             deleted += deleteBuilder.delete()
+            getInteractionDataDao(accountId).executeRaw("DELETE FROM message_index WHERE conversation = ? AND interaction IS NOT NULL", contactId)
             Log.w(TAG, "clearHistory: removed $deleted elements")
-        }.subscribeOn(scheduler)
+        }.subscribeOn(executor.writer(accountId))
 
     /**
      * Clears all interactions in the app. Maintains contact events and actual conversations.
@@ -78,22 +409,32 @@ abstract class HistoryService {
      * @param accounts the list of accounts in the app
      * @return a completable
      */
-    fun clearHistory(accounts: List<Account>): Completable = Completable.fromAction {
-        for (account in accounts) {
+    fun clearHistory(accounts: List<Account>): Completable = Completable.merge(accounts.map { account ->
+        Completable.fromAction {
             getInteractionDataDao(account.accountId).deleteBuilder().let { deleteBuilder ->
                 deleteBuilder.where().ne(Interaction.COLUMN_TYPE, Interaction.InteractionType.CONTACT.toString())
                 deleteBuilder.delete()
             }
-        }
-    }.subscribeOn(scheduler)
+            getInteractionDataDao(account.accountId).executeRaw("DELETE FROM message_index WHERE interaction IS NOT NULL")
+        }.subscribeOn(executor.writer(account.accountId))
+    })
 
+    /**
+     * Queues an interaction update, written with other updates of the account.
+     * @return completes when the interaction has been written
+     */
     fun updateInteraction(interaction: Interaction, accountId: String): Completable = Completable
-        .fromAction { getInteractionDataDao(accountId).update(interaction) }
-        .subscribeOn(scheduler)
+        .defer { interactionUpdates.enqueue(accountId, interaction.id, interaction) }
+
+    /**
+     * Writes the queued interaction, preference, cached and indexed message updates now, to be called before shutting down.
+     */
+    fun flushUpdates(): Completable = Completable.mergeArray(
+        interactionUpdates.flush(), preferenceUpdates.flush(), swarmMessageUpdates.flush(), messageIndexUpdates.flush())
 
     fun deleteInteraction(id: Int, accountId: String): Completable = Completable
         .fromAction { getInteractionDataDao(accountId).deleteById(id) }
-        .subscribeOn(scheduler)
+        .subscribeOn(executor.writer(accountId))
 
     /**
      * Inserts an interaction into the database, and if necessary, a conversation
@@ -110,10 +451,12 @@ abstract class HistoryService {
         conversationDataDao.createIfNotExists(ConversationHistory(conversation.participant!!))!!
         //interaction.setConversation(conversation);
         conversation.id = history.id
-        getInteractionDataDao(accountId).create(interaction)
+        val interactionDataDao = getInteractionDataDao(accountId)
+        interactionDataDao.create(interaction)
+        indexLegacyMessage(interactionDataDao, conversation.participant!!, interaction)
     }
         .doOnError { e: Throwable -> Log.e(TAG, "Can't insert interaction", e) }
-        .subscribeOn(scheduler)
+        .subscribeOn(executor.writer(accountId))
 
     /**
      * Loads data required to load the smartlist. Only requires the most recent message or contact action.
@@ -123,19 +466,19 @@ abstract class HistoryService {
      */
     fun getSmartlist(accountId: String): Single<List<Interaction>> = Single.fromCallable {
         Log.d(TAG, "Loading smartlist {$accountId}")
-        // a raw query is done as MAX is not supported by ormlite without a raw query and a raw query cannot be combined with an orm query so a complete raw query is done
+        // the most recent interaction of each conversation is maintained in its own table, so the smartlist is
+        // a join on primary keys and does not depend on the number of interactions
         // raw row mapper maps the sqlite result which is a list of strings, into the interactions object
         getInteractionDataDao(accountId).queryRaw("""
-    SELECT * FROM (SELECT DISTINCT id, author, conversation, MAX(timestamp), body, type, status, daemon_id, is_read, extra_data from interactions GROUP BY interactions.conversation) as final
-    JOIN conversations
-    WHERE conversations.id = final.conversation
-    GROUP BY final.conversation
-    
+    SELECT i.id, i.author, i.conversation, i.timestamp, i.body, i.type, i.status, i.daemon_id, i.is_read, i.extra_data, c.participant
+    FROM conversation_last_interaction AS l
+    JOIN interactions AS i ON i.id = l.interaction
+    JOIN conversations AS c ON c.id = l.conversation
     """.trimIndent(), { columnNames: Array<String>, resultColumns: Array<String> ->
                 Interaction(
                     resultColumns[0],
                     resultColumns[1],
-                    ConversationHistory(resultColumns[2].toInt(), resultColumns[12]),
+                    ConversationHistory(resultColumns[2].toInt(), resultColumns[10]),
                     resultColumns[3],
                     resultColumns[4],
                     resultColumns[5],
@@ -145,7 +488,7 @@ abstract class HistoryService {
                     resultColumns[9]
                 )}).results
     }
-        .subscribeOn(scheduler)
+        .subscribeOn(executor.reader)
         .doOnError { e: Throwable -> Log.e(TAG, "Can't load smartlist from database", e) }
         .onErrorReturn { ArrayList() }
 
@@ -163,10 +506,57 @@ abstract class HistoryService {
                 .orderBy(Interaction.COLUMN_TIMESTAMP, true)
                 .where().eq(Interaction.COLUMN_CONVERSATION, conversationId)
                 .prepare())
-    }.subscribeOn(scheduler)
+    }.subscribeOn(executor.reader)
         .doOnError { e: Throwable -> Log.e(TAG, "Can't load conversation from database", e) }
         .onErrorReturn { ArrayList() }
 
+    /**
+     * Position in a conversation history: the next page holds the interactions older than it.
+     * The interaction id breaks ties between interactions sharing a timestamp.
+     */
+    data class HistoryCursor(val timestamp: Long, val id: Int)
+
+    /**
+     * @param interactions the interactions of the page, from the oldest to the most recent
+     * @param next         the cursor to load the previous page, null if there is none
+     */
+    class HistoryPage(val interactions: List<Interaction>, val next: HistoryCursor?)
+
+    /**
+     * Retrieves a page of a conversation history, using the timestamp index.
+     *
+     * @param accountId      the user's account id
+     * @param conversationId the conversation id
+     * @param before         the cursor returned with the previous page, null to load the most recent interactions
+     * @param pageSize       the maximum number of interactions to load
+     * @return the page of interactions older than [before], or an error if it can't be read
+     */
+    fun getConversationHistoryPage(accountId: String, conversationId: Int, before: HistoryCursor?, pageSize: Int = HISTORY_PAGE_SIZE): Single<HistoryPage> = Single.fromCallable {
+        Log.d(TAG, "Loading conversation history page: Account ID -> $accountId, ConversationID -> $conversationId, before -> $before")
+        val interactionDataDao = getInteractionDataDao(accountId)
+        val builder = interactionDataDao.queryBuilder()
+            .orderBy(Interaction.COLUMN_TIMESTAMP, false)
+            .orderBy(Interaction.COLUMN_ID, false)
+            .limit(pageSize + 1L)
+        val where = builder.where()
+        if (before == null) {
+            where.eq(Interaction.COLUMN_CONVERSATION, conversationId)
+        } else {
+            where.and(
+                where.eq(Interaction.COLUMN_CONVERSATION, conversationId),
+                where.or(
+                    where.lt(Interaction.COLUMN_TIMESTAMP, before.timestamp),
+                    where.and(
+                        where.eq(Interaction.COLUMN_TIMESTAMP, before.timestamp),
+                        where.lt(Interaction.COLUMN_ID, before.id))))
+        }
+        val results = interactionDataDao.query(builder.prepare())
+        val hasMore = results.size > pageSize
+        val page = (if (hasMore) results.subList(0, pageSize) else results).asReversed()
+        HistoryPage(ArrayList(page), if (hasMore) page.first().let { HistoryCursor(it.timestamp, it.id) } else null)
+    }.subscribeOn(executor.reader)
+        .doOnError { e: Throwable -> Log.e(TAG, "Can't load conversation page from database", e) }
+
     fun incomingMessage(accountId: String, daemonId: String?, from: String, message: String): Single<TextMessage> = Single.fromCallable {
         val fromUri = Uri.fromString(from).uri
         val conversationDataDao = getConversationDataDao(accountId)
@@ -177,9 +567,11 @@ abstract class HistoryService {
         val txt = TextMessage(fromUri, accountId, daemonId, conversation, message)
         txt.status = InteractionStatus.SUCCESS
         Log.w(TAG, "New text messsage " + txt.author + " " + txt.daemonId + " " + txt.body)
-        getInteractionDataDao(accountId).create(txt)
+        val interactionDataDao = getInteractionDataDao(accountId)
+        interactionDataDao.create(txt)
+        indexLegacyMessage(interactionDataDao, fromUri, txt)
         txt
-    }.subscribeOn(scheduler)
+    }.subscribeOn(executor.writer(accountId))
 
     fun accountMessageStatusChanged(
         accountId: String,
@@ -192,7 +584,8 @@ abstract class HistoryService {
         if (textList == null || textList.isEmpty()) {
             throw RuntimeException("accountMessageStatusChanged: not able to find message with id $daemonId in database")
         }
-        val text = textList[0]
+        // Start from the pending update of this message, if any
+        val text = interactionUpdates.getPending(accountId, textList[0].id) ?: textList[0]
         val participant = Uri.fromString(peer).uri
         if (text.conversation!!.participant != participant) {
             throw RuntimeException("accountMessageStatusChanged: received an invalid text message")
@@ -200,12 +593,20 @@ abstract class HistoryService {
         val msg = TextMessage(text)
         msg.status = interactionStatus
         msg.statusMap = msg.statusMap.plus(accountId to messageState)
-        getInteractionDataDao(accountId).update(msg)
         msg.account = accountId
+        interactionUpdates.enqueue(accountId, msg.id, msg)
         msg
-    }.subscribeOn(scheduler)
+    }.subscribeOn(executor.writer(accountId)) // Serialized with the other receipts of the account
 
     companion object {
         private val TAG = HistoryService::class.java.simpleName
+        const val HISTORY_PAGE_SIZE = 64
+        /** Number of messages cached for each swarm conversation */
+        const val SWARM_CACHE_SIZE = 64
+        /** Maximum number of messages found by a search */
+        const val SEARCH_LIMIT = 200
+        private const val WRITE_DELAY_MS = 500L
+        /** Preference holding the id of the last message notified */
+        const val KEY_LAST_NOTIFIED = "lastRead"
     }
 }
\ No newline at end of file
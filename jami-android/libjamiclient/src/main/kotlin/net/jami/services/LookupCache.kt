@@ -0,0 +1,116 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.services
+
+import io.reactivex.rxjava3.core.Scheduler
+import io.reactivex.rxjava3.core.Single
+import io.reactivex.rxjava3.schedulers.Schedulers
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Caches the results of lookups, such as name or contact lookups, by key.
+ *
+ * Each result is kept for the duration given by [ttlMs], so that results meaning that nothing
+ * was found can be kept for less time than found ones, and failed lookups not kept at all
+ * (a duration of 0). Lookups of a key in progress are shared, and failed lookups are not kept.
+ * A lookup without result after [timeoutMs] fails, so that later lookups of the key are
+ * performed again. The least recently used results are dropped beyond [maxSize] results.
+ *
+ * @param ttlMs how long a result can be used, in milliseconds
+ * @param clock current time, in milliseconds
+ * @param scheduler scheduler of the lookup timeouts
+ */
+class LookupCache<K : Any, V : Any>(
+    private val maxSize: Int = DEFAULT_MAX_SIZE,
+    private val clock: () -> Long = System::currentTimeMillis,
+    private val timeoutMs: Long = DEFAULT_TIMEOUT_MS,
+    private val scheduler: Scheduler = Schedulers.computation(),
+    private val ttlMs: (V) -> Long
+) {
+    private class Entry<V>(val value: V, val expiresAt: Long)
+
+    private val entries = object : LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, Entry<V>>) = size > maxSize
+    }
+    private val inFlight = HashMap<K, Single<V>>()
+
+    /** Number of lookups answered from the cache */
+    val hits = AtomicLong()
+    /** Number of lookups that joined a lookup of the same key in progress */
+    val coalesced = AtomicLong()
+    /** Number of lookups performed */
+    val misses = AtomicLong()
+
+    /**
+     * Returns the cached result for [key] if still valid, or the result of the lookup in progress
+     * for this key, or the result of [lookup].
+     */
+    fun get(key: K, lookup: () -> Single<V>): Single<V> = Single.defer {
+        synchronized(this) {
+            val entry = entries[key]
+            if (entry != null) {
+                if (entry.expiresAt > clock()) {
+                    hits.incrementAndGet()
+                    return@defer Single.just(entry.value)
+                }
+                entries.remove(key)
+            }
+            inFlight[key]?.let {
+                coalesced.incrementAndGet()
+                return@defer it
+            }
+            misses.incrementAndGet()
+            lookup()
+                .timeout(timeoutMs, TimeUnit.MILLISECONDS, scheduler)
+                .doOnSuccess { value -> put(key, value) }
+                .doFinally { synchronized(this) { inFlight.remove(key) } }
+                .cache()
+                .apply { inFlight[key] = this }
+        }
+    }
+
+    /** Caches a result obtained otherwise, such as one received without a lookup. */
+    @Synchronized
+    fun put(key: K, value: V) {
+        val ttl = ttlMs(value)
+        if (ttl > 0)
+            entries[key] = Entry(value, clock() + ttl)
+        else
+            entries.remove(key)
+    }
+
+    @Synchronized
+    fun invalidate(key: K) {
+        entries.remove(key)
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+    }
+
+    /** Number of cached results, including expired ones not dropped yet */
+    @get:Synchronized
+    val size: Int
+        get() = entries.size
+
+    companion object {
+        const val DEFAULT_MAX_SIZE = 1024
+        const val DEFAULT_TIMEOUT_MS = 30_000L
+    }
+}
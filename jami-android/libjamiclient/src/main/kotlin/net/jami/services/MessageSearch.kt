@@ -0,0 +1,46 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.services
+
+/**
+ * Local search of the messages of an account, see [HistoryService.searchMessages].
+ *
+ * Messages are indexed by words, and each word of a query matches the words it starts, so
+ * that results can be shown as the query is typed.
+ */
+internal object MessageSearch {
+    private val SEPARATORS = Regex("[^\\p{L}\\p{N}]+")
+
+    /** Searchable text of a swarm message, if any */
+    fun textOf(body: Map<String, String>): String? = when (body["type"]) {
+        "text/plain", "application/edited-message" -> body["body"]
+        "application/data-transfer+json" -> body["displayName"]
+        else -> null
+    }
+
+    /**
+     * Full-text query matching the messages with words starting with each word of [query].
+     * Words only keep letters and digits, so that they can't be read as query operators.
+     * @return the query, or null if [query] has no word
+     */
+    fun matchQuery(query: String): String? {
+        val words = query.split(SEPARATORS).filter { it.isNotEmpty() }
+        if (words.isEmpty())
+            return null
+        return words.joinToString(" ") { it.lowercase() + "*" }
+    }
+}
@@ -19,6 +19,7 @@ package net.jami.services
 import io.reactivex.rxjava3.core.Completable
 import net.jami.model.*
 import net.jami.model.interaction.DataTransfer
+import net.jami.model.interaction.TextMessage
 
 interface NotificationService {
     fun showCallNotification(notifId: Int): Any?
@@ -29,7 +30,7 @@ interface NotificationService {
     fun startPendingScreenshare(confId: String)
     fun showMissedCallNotification(call: Call)
     fun showGroupCallNotification(conversation: Conversation, remove: Boolean = false)
-    fun showTextNotification(conversation: Conversation)
+    fun showTextNotification(conversation: Conversation, message: TextMessage? = null)
     fun cancelTextNotification(accountId: String, contact: Uri)
     fun cancelAll()
     fun showIncomingTrustRequestNotification(account: Account)
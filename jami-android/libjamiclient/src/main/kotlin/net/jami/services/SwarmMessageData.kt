@@ -1,25 +1,85 @@
 package net.jami.services
 
+import com.google.gson.JsonArray
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import net.jami.daemon.IntegerMap
 import net.jami.daemon.SwarmMessage
+import net.jami.daemon.VectMap
+import net.jami.model.interaction.Interaction
 
-internal data class SwarmMessageData(
+/**
+ * Copy of a swarm message received from the daemon, which only lends its values during the callback.
+ *
+ * Built in a single pass: [body] already holds the message metadata ("id", "type" and
+ * "linearizedParent") so it can be read directly to build the interaction, statuses are converted
+ * while copied, and messages without reactions or editions share the same empty list.
+ */
+internal class SwarmMessageData(
     val id: String,
-    val type: String,
-    val linearizedParent: String,
     val body: Map<String, String>,
     val reactions: List<Map<String, String>>,
     val editions: List<Map<String, String>>,
-    val status: Map<String, Int>
+    val status: Map<String, Interaction.MessageStates>
 ) {
+    /** Parent of the message in the linearized history, if any */
+    val parentId: String?
+        get() = body["linearizedParent"]?.ifEmpty { null }
+
+    /** Timestamp of the message, in seconds */
+    val timestamp: Long
+        get() = body["timestamp"]?.toLongOrNull() ?: 0L
+
+    /** Serializes the message, to be read back with [fromJson] */
+    fun toJson(): String = JsonObject().apply {
+        add("body", body.toJson())
+        add("reactions", JsonArray().apply { reactions.forEach { add(it.toJson()) } })
+        add("editions", JsonArray().apply { editions.forEach { add(it.toJson()) } })
+        add("status", JsonObject().apply { status.forEach { (member, state) -> addProperty(member, state.value) } })
+    }.toString()
+
     companion object {
-        fun from(message: SwarmMessage) = SwarmMessageData(
-            id = message.id,
-            type = message.type,
-            linearizedParent = message.linearizedParent,
-            body = message.body.toNative(),
-            reactions = message.reactions.toNative(),
-            editions = message.editions.toNative(),
-            status = HashMap(message.status)
-        )
+        fun fromJson(json: String): SwarmMessageData {
+            val obj = JsonParser.parseString(json).asJsonObject
+            val body = obj.getAsJsonObject("body").toMap()
+            return SwarmMessageData(
+                id = body["id"]!!,
+                body = body,
+                reactions = obj.getAsJsonArray("reactions").map { it.asJsonObject.toMap() },
+                editions = obj.getAsJsonArray("editions").map { it.asJsonObject.toMap() },
+                status = obj.getAsJsonObject("status").entrySet()
+                    .associate { (member, state) -> member to Interaction.MessageStates.fromInt(state.asInt) }
+            )
+        }
+
+        private fun Map<String, String>.toJson() = JsonObject().apply { forEach { (key, value) -> addProperty(key, value) } }
+
+        private fun JsonObject.toMap(): Map<String, String> = entrySet().associate { (key, value) -> key to value.asString }
+
+        fun from(message: SwarmMessage): SwarmMessageData {
+            val id = message.id
+            val body = message.body.toNative()
+            body["id"] = id
+            body["type"] = message.type
+            body["linearizedParent"] = message.linearizedParent
+            return SwarmMessageData(
+                id = id,
+                body = body,
+                reactions = copyVect(message.reactions),
+                editions = copyVect(message.editions),
+                status = copyStatus(message.status)
+            )
+        }
+
+        private fun copyVect(vect: VectMap): List<Map<String, String>> =
+            if (vect.isEmpty()) emptyList() else vect.toNative()
+
+        private fun copyStatus(status: IntegerMap): Map<String, Interaction.MessageStates> {
+            if (status.isEmpty()) return emptyMap()
+            val result = HashMap<String, Interaction.MessageStates>(status.size * 4 / 3 + 1)
+            for ((member, state) in status)
+                result[member] = Interaction.MessageStates.fromInt(state)
+            return result
+        }
     }
-}
\ No newline at end of file
+}
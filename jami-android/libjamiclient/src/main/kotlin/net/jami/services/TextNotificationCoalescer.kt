@@ -0,0 +1,160 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.services
+
+import io.reactivex.rxjava3.core.Scheduler
+import io.reactivex.rxjava3.disposables.Disposable
+import net.jami.model.Conversation
+import net.jami.model.Uri
+import net.jami.model.interaction.TextMessage
+import java.util.TreeMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * Coalesces the text notification updates of each conversation.
+ *
+ * The first update of a conversation is delivered right away, later updates received within
+ * [windowMs] of the last delivery are merged into a single call to [onUpdate]. The unread
+ * messages of each conversation are maintained incrementally from the received messages, and
+ * only read again from the conversation history when it may have changed otherwise.
+ * At most [maxMessages] messages are kept per conversation, and the unread messages of at most
+ * [maxConversations] conversations without pending update.
+ */
+class TextNotificationCoalescer(
+    private val scheduler: Scheduler,
+    private val windowMs: Long = WINDOW_MS,
+    private val maxMessages: Int = MAX_MESSAGES,
+    private val maxConversations: Int = MAX_CONVERSATIONS,
+    private val onUpdate: (Conversation, TreeMap<Long, TextMessage>) -> Unit
+) {
+    private class Entry(val key: Pair<String, Uri>, val conversation: Conversation) {
+        val unread = TreeMap<Long, TextMessage>()
+        var stale = true
+        var pending = false
+        var lastUpdate = Long.MIN_VALUE
+        var nextUpdate = Long.MAX_VALUE
+    }
+
+    private val entries = object : LinkedHashMap<Pair<String, Uri>, Entry>(16, .75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Pair<String, Uri>, Entry>) =
+            size > maxConversations && !eldest.value.pending
+    }
+    private var task: Disposable? = null
+    private var taskTime = Long.MAX_VALUE
+
+    /** Number of conversations with a pending update */
+    @get:Synchronized
+    val pendingCount: Int
+        get() = entries.values.count { it.pending }
+
+    /**
+     * Requests an update of the notification of [conversation], after [message] was received.
+     * Without [message], the unread messages are read again from the conversation history.
+     */
+    @Synchronized
+    fun update(conversation: Conversation, message: TextMessage? = null) {
+        val key = Pair(conversation.accountId, conversation.uri)
+        val entry = entries.getOrPut(key) { Entry(key, conversation) }
+        if (message == null) {
+            entry.stale = true
+        } else if (!entry.stale) {
+            if (message.isRead || message.isNotified)
+                entry.unread.headMap(message.timestamp, true).clear()
+            else {
+                entry.unread[message.timestamp] = message
+                while (entry.unread.size > maxMessages)
+                    entry.unread.pollFirstEntry()
+            }
+        }
+        if (!entry.pending) {
+            entry.pending = true
+            entry.nextUpdate = if (entry.lastUpdate == Long.MIN_VALUE) now() else maxOf(now(), entry.lastUpdate + windowMs)
+            schedule(entry.nextUpdate)
+        }
+    }
+
+    /** Drops the pending update and unread messages of a conversation, once its notification is cancelled. */
+    @Synchronized
+    fun cancel(accountId: String, conversationUri: Uri) {
+        entries.remove(Pair(accountId, conversationUri))
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        task?.dispose()
+        task = null
+        taskTime = Long.MAX_VALUE
+    }
+
+    private fun flush() {
+        val now = now()
+        val due = ArrayList<Entry>()
+        synchronized(this) {
+            task = null
+            taskTime = Long.MAX_VALUE
+            for (entry in entries.values) {
+                if (entry.pending && entry.nextUpdate <= now)
+                    due.add(entry)
+            }
+        }
+        for (entry in due) {
+            val texts = synchronized(this) {
+                if (entries[entry.key] !== entry)
+                    return@synchronized null
+                entry.pending = false
+                entry.lastUpdate = now
+                entry.nextUpdate = Long.MAX_VALUE
+                if (entry.stale) {
+                    entry.unread.clear()
+                    entry.unread.putAll(entry.conversation.unreadTextMessages)
+                    while (entry.unread.size > maxMessages)
+                        entry.unread.pollFirstEntry()
+                    entry.stale = false
+                } else {
+                    // Messages may have been read or notified since they were received
+                    entry.unread.descendingMap().entries
+                        .firstOrNull { it.value.isRead || it.value.isNotified }
+                        ?.let { entry.unread.headMap(it.key, true).clear() }
+                }
+                TreeMap(entry.unread)
+            }
+            if (texts != null)
+                onUpdate(entry.conversation, texts)
+        }
+        synchronized(this) {
+            entries.values.filter { it.pending }.minOfOrNull { it.nextUpdate }?.let { schedule(it) }
+        }
+    }
+
+    /** Makes sure a flush happens at [time] at the latest. Must be called with the lock held. */
+    private fun schedule(time: Long) {
+        if (time >= taskTime)
+            return
+        task?.dispose()
+        taskTime = time
+        task = scheduler.scheduleDirect(::flush, (time - now()).coerceAtLeast(0), TimeUnit.MILLISECONDS)
+    }
+
+    private fun now() = scheduler.now(TimeUnit.MILLISECONDS)
+
+    companion object {
+        const val WINDOW_MS = 1000L
+        const val MAX_MESSAGES = 50
+        const val MAX_CONVERSATIONS = 64
+    }
+}
@@ -20,7 +20,9 @@ import ezvcard.VCard
 import io.reactivex.rxjava3.core.Maybe
 import io.reactivex.rxjava3.core.Observable
 import io.reactivex.rxjava3.core.Single
+import io.reactivex.rxjava3.schedulers.Schedulers
 import net.jami.model.Account
+import net.jami.model.LazyProfile
 import net.jami.model.Profile
 import java.io.File
 
@@ -35,9 +37,21 @@ abstract class VCardService {
 
     abstract fun loadVCardProfile(vcard: VCard): Single<Profile>
     abstract fun loadVCard(vcard: File): Single<Profile>
-    abstract fun loadConversationProfile(info: Map<String, String>): Single<Profile>
     abstract fun base64ToBitmap(base64: String?): Any?
 
+    /**
+     * Profile of a conversation from its infos. Only the profile fields are kept, and the avatar
+     * is decoded when the profile is subscribed, see [LazyProfile].
+     */
+    fun loadConversationProfile(info: Map<String, String>): Single<Profile> =
+        loadConversationProfile(conversationProfile(info))
+
+    fun loadConversationProfile(profile: LazyProfile): Single<Profile> =
+        profile.single.subscribeOn(Schedulers.computation())
+
+    fun conversationProfile(info: Map<String, String>): LazyProfile =
+        LazyProfile.fromInfo(info, ::base64ToBitmap)
+
     companion object {
         const val MAX_SIZE_SIP = 256 * 1024
         const val MAX_SIZE_REQUEST = 16 * 1024
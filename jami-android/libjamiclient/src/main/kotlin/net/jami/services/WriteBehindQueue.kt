@@ -0,0 +1,105 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.services
+
+import io.reactivex.rxjava3.core.Completable
+import io.reactivex.rxjava3.core.Scheduler
+import io.reactivex.rxjava3.subjects.CompletableSubject
+import net.jami.utils.Log
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Delays row updates so that they can be written together, per account.
+ *
+ * An update queued for a row that is already waiting to be written replaces it (the row is
+ * written once, with its last value). Rows of an account are written [delayMs] after the
+ * first of them was queued, on the scheduler of the account.
+ *
+ * @param write writes the rows of an account, in a single transaction
+ */
+internal class WriteBehindQueue<K : Any, V : Any>(
+    private val delayMs: Long,
+    private val scheduler: (accountId: String) -> Scheduler,
+    private val write: (accountId: String, rows: List<V>) -> Unit
+) {
+    private class Row<V>(var value: V) {
+        val written: CompletableSubject = CompletableSubject.create()
+    }
+
+    private val pending = HashMap<String, LinkedHashMap<K, Row<V>>>()
+
+    /** Number of updates queued */
+    val queued = AtomicLong()
+    /** Number of updates replaced by a later update of the same row before being written */
+    val coalesced = AtomicLong()
+    /** Number of rows written */
+    val flushed = AtomicLong()
+
+    /**
+     * Queues the update of a row.
+     * @return completes when the row has been written
+     */
+    fun enqueue(accountId: String, key: K, value: V): Completable {
+        queued.incrementAndGet()
+        synchronized(this) {
+            val rows = pending[accountId]
+            val row = rows?.get(key)
+            if (row != null) {
+                row.value = value
+                coalesced.incrementAndGet()
+                return row.written
+            }
+            val newRow = Row(value)
+            if (rows == null) {
+                pending[accountId] = linkedMapOf(key to newRow)
+                scheduler(accountId).scheduleDirect({ flushNow(accountId) }, delayMs, TimeUnit.MILLISECONDS)
+            } else {
+                rows[key] = newRow
+            }
+            return newRow.written
+        }
+    }
+
+    /** Value waiting to be written for a row, if any */
+    @Synchronized
+    fun getPending(accountId: String, key: K): V? = pending[accountId]?.get(key)?.value
+
+    /** Writes all the pending rows now. */
+    fun flush(): Completable = Completable.defer {
+        val accounts = synchronized(this) { pending.keys.toList() }
+        Completable.merge(accounts.map { accountId ->
+            Completable.fromAction { flushNow(accountId) }.subscribeOn(scheduler(accountId))
+        })
+    }
+
+    private fun flushNow(accountId: String) {
+        val rows = synchronized(this) { pending.remove(accountId)?.values?.toList() } ?: return
+        try {
+            write(accountId, rows.map { it.value })
+            flushed.addAndGet(rows.size.toLong())
+            rows.forEach { it.written.onComplete() }
+        } catch (e: Exception) {
+            Log.e(TAG, "Unable to write ${rows.size} rows for $accountId", e)
+            rows.forEach { it.written.onError(e) }
+        }
+    }
+
+    companion object {
+        private val TAG = WriteBehindQueue::class.simpleName!!
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.smartlist
+
+import io.reactivex.rxjava3.core.Completable
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.disposables.Disposable
+import io.reactivex.rxjava3.subjects.BehaviorSubject
+import io.reactivex.rxjava3.subjects.PublishSubject
+import io.reactivex.rxjava3.subjects.Subject
+import net.jami.model.Conversation
+import java.text.Normalizer
+import java.util.IdentityHashMap
+
+/**
+ * Searchable terms of the conversations of an account, to filter the smartlist as a query is
+ * typed without loading the conversations.
+ *
+ * Terms are names, registered names and uris, kept up to date from [observeTerms] while the
+ * conversation is indexed, and normalized: lowercase, without accents. Until they are received,
+ * a conversation is only found by its uri. [changes] emits when the terms changed, so that
+ * searches can be run again.
+ *
+ * Names that were never loaded are resolved with [resolveNames] once a conversation is indexed,
+ * in the order of the indexed conversations and at most [MAX_RESOLVING] at a time.
+ *
+ * @param resolveNames loads the names of a conversation, updating its terms
+ * @param observeTerms the terms of a conversation
+ */
+class ConversationSearchIndex(
+    private val resolveNames: (Conversation) -> Completable = { Completable.complete() },
+    private val observeTerms: (Conversation) -> Observable<List<String>> = ::termsOf
+) {
+    private class Entry(conversation: Conversation) {
+        /** Terms, each one preceded by [SEPARATOR] */
+        @Volatile
+        var text: String = SEPARATOR + normalize(conversation.uri.rawUriString)
+        var terms: Disposable? = null
+    }
+
+    private val entries = IdentityHashMap<Conversation, Entry>()
+    private val changesSubject: Subject<Unit> = BehaviorSubject.createDefault(Unit).toSerialized()
+    private val toResolve: Subject<Conversation> = PublishSubject.create<Conversation>().toSerialized()
+    private val resolution = toResolve
+        .flatMap({ conversation: Conversation ->
+            Completable.defer {
+                // Conversations not indexed anymore are skipped
+                if (synchronized(this) { entries.containsKey(conversation) }) resolveNames(conversation) else Completable.complete()
+            }.onErrorComplete().toObservable<Unit>()
+        }, MAX_RESOLVING)
+        .subscribe()
+
+    /** Emits when indexed conversations or their terms changed, and on subscription */
+    val changes: Observable<Unit>
+        get() = changesSubject
+
+    /** Number of indexed conversations */
+    @get:Synchronized
+    val size: Int
+        get() = entries.size
+
+    /** Indexes [conversations], and stops indexing the other ones. */
+    fun update(conversations: Collection<Conversation>) {
+        val added = ArrayList<Conversation>()
+        synchronized(this) {
+            if (entries.size == conversations.size && conversations.all { entries.containsKey(it) })
+                return
+            val removed = IdentityHashMap(entries)
+            for (conversation in conversations) {
+                if (removed.remove(conversation) != null)
+                    continue
+                added.add(conversation)
+                val entry = Entry(conversation)
+                entries[conversation] = entry
+                entry.terms = observeTerms(conversation).subscribe({ terms ->
+                    val text = terms.joinToString("") { SEPARATOR + normalize(it) }
+                    if (text != entry.text) {
+                        entry.text = text
+                        changesSubject.onNext(Unit)
+                    }
+                }) {}
+            }
+            for ((conversation, entry) in removed) {
+                entries.remove(conversation)
+                entry.terms?.dispose()
+            }
+        }
+        changesSubject.onNext(Unit)
+        added.forEach(toResolve::onNext)
+    }
+
+    /**
+     * Conversations among [conversations] with a term containing [query], best matches first:
+     * terms starting with the query, then words starting with the query, then other terms.
+     * Conversations matching as well keep their order.
+     */
+    fun search(query: String, conversations: List<Conversation>): List<Conversation> {
+        val q = normalize(query.trim())
+        if (q.isEmpty())
+            return emptyList()
+        val termPrefix = SEPARATOR + q
+        val wordPrefix = " $q"
+        val ranks = Array(RANKS) { ArrayList<Conversation>() }
+        synchronized(this) {
+            for (conversation in conversations) {
+                val text = entries[conversation]?.text ?: continue
+                if (!text.contains(q))
+                    continue
+                val rank = if (text.contains(termPrefix)) 0 else if (text.contains(wordPrefix)) 1 else 2
+                ranks[rank].add(conversation)
+            }
+        }
+        return ranks.flatMap { it }
+    }
+
+    /** Stops indexing all the conversations, and resolving their names. */
+    @Synchronized
+    fun clear() {
+        resolution.dispose()
+        entries.values.forEach { it.terms?.dispose() }
+        entries.clear()
+    }
+
+    companion object {
+        private const val SEPARATOR = '\u0000'
+        private const val RANKS = 3
+        const val MAX_RESOLVING = 4
+        private val MARKS = Regex("\\p{Mn}+")
+
+        /** Lowercase [text] without accents */
+        fun normalize(text: String): String =
+            MARKS.replace(Normalizer.normalize(text, Normalizer.Form.NFD), "").lowercase()
+
+        /**
+         * Terms a conversation can be found with: its title, and the names and uris of its members
+         * but the user. Only names already loaded are used, see [net.jami.model.Contact.knownNames]:
+         * the others are loaded by [resolveNames].
+         */
+        fun termsOf(conversation: Conversation): Observable<List<String>> = Observable.combineLatest(
+            conversation.profileTitle,
+            conversation.contactUpdates.switchMap { contacts ->
+                val members = contacts.filter { !it.isUser }
+                if (members.isEmpty())
+                    Observable.just(emptyList())
+                else Observable.combineLatest(members.map { contact ->
+                    contact.knownNames.map { (name, registeredName) -> listOf(name, registeredName, contact.uri.toString()) }
+                }) { terms -> terms.flatMap { @Suppress("UNCHECKED_CAST") (it as List<String>) } }
+            }
+        ) { title, terms -> (listOf(title) + terms).filter { it.isNotEmpty() } }
+            .distinctUntilChanged()
+    }
+}
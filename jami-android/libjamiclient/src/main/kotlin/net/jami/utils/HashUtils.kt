@@ -26,6 +26,7 @@ object HashUtils {
     fun md5(s: String) = hash(s, "MD5")!!
     fun sha1(s: String) = hash(s, "SHA-1")!!
     fun sha256(s: String) = hash(s, "SHA-256")!!
+    fun md5(bytes: ByteArray) = hashRaw(bytes, "MD5")!!
 
     private fun hashRaw(bytes: ByteArray, algo: String) = try {
         MessageDigest.getInstance(algo)
@@ -0,0 +1,68 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.model
+
+import net.jami.model.interaction.Interaction
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class CachedHistoryTest {
+    private val conversation = Conversation("account", Uri(Uri.SWARM_SCHEME, "c"), Conversation.Mode.OneToOne)
+
+    private fun message(i: Int, body: String = "message $i") = Interaction(conversation, Interaction.InteractionType.TEXT).apply {
+        setSwarmInfo("c", "m$i", if (i == 0) null else "m${i - 1}")
+        this.body = body
+    }
+
+    private fun ids() = conversation.sortedHistory.blockingGet().map { it.messageId }
+
+    @Test
+    fun loadedMessagesReplaceCachedOnes() {
+        assertTrue(conversation.addCachedSwarmElements((19 downTo 10).map { message(it) }))
+        assertTrue(conversation.isHistoryFromCache)
+        val cached = conversation.getMessage("m15")!!
+        val changes = conversation.historyChanges.test()
+
+        // Loaded from the most recent message: two new messages and an edited one
+        conversation.addSwarmElements((21 downTo 5).map { message(it, if (it == 15) "edited" else "message $it") }, false)
+        assertFalse(conversation.isHistoryFromCache)
+        assertEquals((5..21).map { "m$it" }, ids())
+        assertSame(cached, conversation.getMessage("m15"))
+        assertEquals("edited", cached.body)
+        changes.assertValueCount(1)
+        assertEquals(listOf(0, 15), changes.values()[0].inserted.map { it.position })
+
+        // Further pages are added as usual
+        conversation.addSwarmElements((4 downTo 0).map { message(it) }, false)
+        assertEquals((0..21).map { "m$it" }, ids())
+        assertFalse(conversation.addCachedSwarmElements(listOf(message(30))))
+    }
+
+    @Test
+    fun outdatedCacheIsCleared() {
+        conversation.addCachedSwarmElements((9 downTo 0).map { message(it) })
+        val cleared = conversation.cleared.test()
+
+        conversation.addSwarmElements((49 downTo 40).map { message(it) }, false)
+        cleared.assertValueCount(1)
+        assertEquals((40..49).map { "m$it" }, ids())
+        assertEquals(null, conversation.getMessage("m5"))
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.model
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class ConferenceTest {
+    private val contact = Contact(Uri.fromId("1234567890123456789012345678901234567890"))
+
+    private fun info(contact: ContactViewModel, muted: Boolean = false) =
+        Conference.ParticipantInfo(null, contact, mapOf("x" to "0", "y" to "0", "w" to "320", "h" to "240", "audioModeratorMuted" to muted.toString()))
+
+    @Test
+    fun sameInfoIsNotEmittedAgain() {
+        val conference = Conference("account", "conf")
+        val updates = conference.participantInfo.test()
+        val contactViewModel = ContactViewModel(contact, Profile.EMPTY_PROFILE)
+
+        conference.setInfo(listOf(info(contactViewModel)))
+        conference.setInfo(listOf(info(contactViewModel)))
+        assertEquals(2, updates.values().size)
+
+        conference.setInfo(listOf(info(contactViewModel, muted = true)))
+        assertEquals(3, updates.values().size)
+    }
+
+    @Test
+    fun resolvedContactIsEmitted() {
+        val conference = Conference("account", "conf")
+        val updates = conference.participantInfo.test()
+        val provisional = info(ContactViewModel(contact, Profile.EMPTY_PROFILE))
+
+        conference.setInfo(listOf(provisional))
+        conference.setInfo(listOf(provisional.withContact(ContactViewModel(contact, Profile("Alice", null)))))
+        assertEquals(3, updates.values().size)
+        assertEquals("Alice", updates.values().last()[0].contact.displayName)
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.model
+
+import net.jami.model.interaction.Interaction
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class HistoryChangesTest {
+    private val conversation = Conversation("account", Uri(Uri.SWARM_SCHEME, "c"), Conversation.Mode.OneToOne)
+
+    private fun message(i: Int) = Interaction(conversation, Interaction.InteractionType.TEXT).apply {
+        setSwarmInfo("c", "m$i", if (i == 0) null else "m${i - 1}")
+        body = "message $i"
+    }
+
+    private fun HistoryChanges.Range.ids() = interactions.map { it.messageId }
+
+    /** Applies changes to a copy of the list, the way a view would */
+    private fun apply(list: List<Interaction>, changes: HistoryChanges): List<Interaction> {
+        val result = list.toMutableList()
+        changes.removed.asReversed().forEach { result.subList(it.position, it.end).clear() }
+        changes.inserted.forEach { result.addAll(it.position, it.interactions) }
+        changes.changed.forEach { range -> range.interactions.forEachIndexed { i, it -> result[range.position + i] = it } }
+        return result
+    }
+
+    @Test
+    fun batchIsEmittedAsRanges() {
+        conversation.addSwarmElements((10 until 20).map { message(it) }, false)
+        val changes = conversation.historyChanges.test()
+        var view = conversation.sortedHistory.blockingGet()
+
+        // An older page and a new message, in the same batch
+        conversation.addSwarmElements((9 downTo 5).map { message(it) } + message(20), false)
+        changes.assertValueCount(1)
+        val set = changes.values()[0]
+        assertEquals(2, set.inserted.size)
+        assertEquals(0, set.inserted[0].position)
+        assertEquals((5 until 10).map { "m$it" }, set.inserted[0].ids())
+        assertEquals(15, set.inserted[1].position)
+        assertEquals(listOf("m20"), set.inserted[1].ids())
+        assertTrue(set.changed.isEmpty())
+
+        view = apply(view, set)
+        assertEquals(conversation.sortedHistory.blockingGet(), view)
+    }
+
+    @Test
+    fun updateAndRemovalArePositioned() {
+        conversation.addSwarmElements((0 until 10).map { message(it) }, false)
+        val changes = conversation.historyChanges.test()
+        var view = conversation.sortedHistory.blockingGet()
+
+        conversation.updateSwarmMessage(message(3).apply { body = "edited" })
+        assertEquals(3, changes.values()[0].changed[0].position)
+
+        conversation.removeInteraction(conversation.getMessage("m6")!!)
+        val removal = changes.values()[1]
+        assertEquals(6, removal.removed[0].position)
+        assertEquals(1, removal.removed[0].count)
+
+        changes.values().forEach { view = apply(view, it) }
+        assertEquals(conversation.sortedHistory.blockingGet(), view)
+        assertEquals(9, view.size)
+    }
+
+    @Test
+    fun changesAreEmittedWithoutTheLock() {
+        conversation.addSwarmElements((0 until 3).map { message(it) }, false)
+        val locked = ArrayList<Boolean>()
+        conversation.updatedElementBatches.subscribe { locked.add(Thread.holdsLock(conversation)) }
+        conversation.historyChanges.subscribe { locked.add(Thread.holdsLock(conversation)) }
+        conversation.withLock {
+            conversation.addSwarmElements(listOf(message(3)), true)
+            conversation.updateSwarmMessage(message(1).apply { body = "edited" })
+            // Emitted once the lock is released
+            assertTrue(locked.isEmpty())
+        }
+        assertEquals(listOf(false, false, false, false), locked)
+    }
+
+    @Test
+    fun updatesFollowTheSnapshot() {
+        conversation.addSwarmElements((0 until 3).map { message(it) }, false)
+        val updates = conversation.withLock {
+            // Queued before the snapshot, which already has it
+            conversation.addSwarmElements(listOf(message(3)), true)
+            conversation.historyUpdates.test()
+        }
+        conversation.addSwarmElements(listOf(message(4)), true)
+        conversation.clearHistory(true)
+
+        val snapshot = updates.values()[0] as HistorySnapshot
+        assertEquals((0 until 4).map { "m$it" }, snapshot.interactions.map { it.messageId })
+        val changes = updates.values()[1] as HistoryChanges
+        assertEquals(listOf("m4"), changes.inserted.single().ids())
+        assertTrue(changes.version > snapshot.version)
+        assertEquals(0, (updates.values()[2] as HistorySnapshot).interactions.size)
+        updates.assertValueCount(3)
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.model
+
+import net.jami.model.interaction.Interaction
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+import java.util.Random
+
+class InteractionHistoryTest {
+    private fun message(index: Int, type: Interaction.InteractionType = Interaction.InteractionType.TEXT) =
+        Interaction("account").apply {
+            this.type = type
+            setSwarmInfo("swarm", "m$index", if (index == 0) null else "m${index - 1}")
+        }
+
+    /** Linear-scan insertion previously used by Conversation.addSwarmElement */
+    private fun referenceAdd(history: MutableList<Interaction>, interaction: Interaction): Boolean {
+        if (history.isEmpty() || history.last().messageId == interaction.parentId) {
+            history.add(interaction)
+            return true
+        }
+        for (i in history.indices) {
+            if (interaction.messageId == history[i].parentId) {
+                history.add(i, interaction)
+                return true
+            }
+        }
+        for (i in history.indices.reversed()) {
+            if (history[i].messageId == interaction.parentId) {
+                history.add(i + 1, interaction)
+                return true
+            }
+        }
+        return false
+    }
+
+    @Test
+    fun inOrderMessagesAreLeaves() {
+        val history = InteractionHistory()
+        val messages = (0 until 100).map { message(it) }
+        messages.forEach { assertEquals(InteractionHistory.Placement.LEAF, history.addSwarm(it)) }
+        assertEquals(messages, history.toList())
+        assertSame(messages.last(), history.lastValid)
+    }
+
+    @Test
+    fun reverseLoadedPagesKeepOrder() {
+        val history = InteractionHistory()
+        val messages = (0 until 1000).map { message(it) }
+        // Pages are loaded from the most recent one, each page being ordered from newest to oldest
+        messages.chunked(32).reversed().forEach { page ->
+            page.reversed().forEach { history.addSwarm(it) }
+        }
+        assertEquals(messages, history.toList())
+        assertSame(messages.last(), history.lastValid)
+    }
+
+    @Test
+    fun outOfOrderMessagesMatchLinearScan() {
+        val random = Random(42)
+        repeat(20) {
+            val messages = (0 until 200).map { message(it) }.shuffled(random)
+            val history = InteractionHistory()
+            val reference = ArrayList<Interaction>()
+            for (m in messages) {
+                val added = referenceAdd(reference, m)
+                val placement = history.addSwarm(m)
+                assertEquals(added, placement != InteractionHistory.Placement.DETACHED)
+            }
+            assertEquals(reference, history.toList())
+        }
+    }
+
+    @Test
+    fun repeatedInsertionAtSamePositionRelabels() {
+        val history = InteractionHistory()
+        val branch = Interaction("account").apply { setSwarmInfo("swarm", "branch", "m0") }
+        history.addSwarm(message(0))
+        history.addSwarm(branch)
+        // Each message is attached after its parent, right before the branch
+        for (i in 1 until 5000)
+            assertEquals(InteractionHistory.Placement.LEAF, history.addSwarm(message(i)))
+        assertEquals((0 until 5000).map { "m$it" } + "branch", history.toList().map { it.messageId })
+    }
+
+    @Test
+    fun invalidTrailingInteractionsKeepLeaf() {
+        val history = InteractionHistory()
+        history.addSwarm(message(2, Interaction.InteractionType.INVALID))
+        assertEquals(InteractionHistory.Placement.LEAF, history.addSwarm(message(1)))
+
+        val other = InteractionHistory()
+        other.addSwarm(message(3))
+        assertEquals(InteractionHistory.Placement.INNER, other.addSwarm(message(2, Interaction.InteractionType.INVALID)))
+        assertEquals(InteractionHistory.Placement.INNER, other.addSwarm(message(1)))
+    }
+
+    @Test
+    fun removeUpdatesLastValid() {
+        val history = InteractionHistory()
+        val messages = listOf(message(0), message(1), message(2, Interaction.InteractionType.INVALID), message(3))
+        messages.forEach { history.addSwarm(it) }
+        assertSame(messages[3], history.lastValid)
+        history.remove(messages[3])
+        assertSame(messages[1], history.lastValid)
+        history.remove(messages[1])
+        history.remove(messages[0])
+        assertNull(history.lastValid)
+        assertEquals(listOf(messages[2]), history.toList())
+    }
+}
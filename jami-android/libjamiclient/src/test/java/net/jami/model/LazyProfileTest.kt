@@ -0,0 +1,57 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.model
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LazyProfileTest {
+    private var decoded = 0
+    private val lazyProfile = LazyProfile.fromInfo(
+        mapOf("title" to "Group", "description" to "About", "avatar" to "AAAA", "mode" to "2")
+    ) { decoded++; "avatar:$it" }
+
+    @Test
+    fun avatarIsDecodedOnFirstSubscription() {
+        val conversation = Conversation("account", Uri(Uri.SWARM_SCHEME, "c"), Conversation.Mode.InvitesOnly)
+        conversation.setProfile(lazyProfile.single)
+        assertEquals(0, decoded)
+        assertFalse(lazyProfile.isMaterialized)
+
+        val profile = conversation.profile.blockingFirst()
+        assertEquals("Group", profile.displayName)
+        assertEquals("About", profile.description)
+        assertEquals("avatar:AAAA", profile.avatar)
+        assertTrue(lazyProfile.isMaterialized)
+
+        // Later subscriptions reuse the materialized profile
+        assertSame(profile, conversation.profile.blockingFirst())
+        assertEquals(1, decoded)
+    }
+
+    @Test
+    fun emptyFieldsAreNotDecoded() {
+        val profile = LazyProfile.fromInfo(mapOf("title" to " ", "avatar" to "")) { decoded++; it }.materialize()
+        assertNull(profile.displayName)
+        assertNull(profile.avatar)
+        assertEquals(0, decoded)
+    }
+}
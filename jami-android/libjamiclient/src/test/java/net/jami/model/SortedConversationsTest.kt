@@ -0,0 +1,75 @@
+/*
+ *  Copyright (C) 2004-2025 Savoir-faire Linux Inc.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.jami.model
+
+import io.reactivex.rxjava3.subjects.BehaviorSubject
+import net.jami.model.interaction.Interaction
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class SortedConversationsTest {
+    private fun conversation(id: Int, timestamp: Long) =
+        Conversation("account", Uri(Uri.SWARM_SCHEME, "c$id"), Conversation.Mode.OneToOne).apply {
+            lastEvent = event(timestamp)
+        }
+
+    private fun event(timestamp: Long, incoming: Boolean = false) = Interaction("account").apply {
+        this.timestamp = timestamp
+        isIncoming = incoming
+    }
+
+    @Test
+    fun conversationsAreSortedByLastEvent() {
+        val conversations = (0 until 10).map { conversation(it, it * 10L) }
+        val source = BehaviorSubject.createDefault(conversations.associateBy { it.uri.uri })
+        val updates = SortedConversations.sort(source).test()
+
+        assertEquals(1, updates.values().size)
+        assertEquals(conversations.reversed(), updates.values().last().conversations)
+    }
+
+    @Test
+    fun newEventMovesTheConversation() {
+        val conversations = (0 until 10).map { conversation(it, it * 10L) }
+        val source = BehaviorSubject.createDefault(conversations.associateBy { it.uri.uri })
+        val updates = SortedConversations.sort(source).test()
+
+        conversations[2].lastEvent = event(1000, incoming = true)
+        val update = updates.values().last()
+        assertEquals(listOf(conversations[2]) + conversations.reversed().filter { it !== conversations[2] }, update.conversations)
+        assertEquals(1, update.unreadCount)
+
+        conversations[2].lastEvent = event(1001)
+        assertEquals(update.conversations, updates.values().last().conversations)
+        assertEquals(0, updates.values().last().unreadCount)
+    }
+
+    @Test
+    fun removedConversationsAreNoLongerFollowed() {
+        val conversations = (0 until 3).map { conversation(it, it * 10L) }
+        val source = BehaviorSubject.createDefault(conversations.associateBy { it.uri.uri })
+        val updates = SortedConversations.sort(source).test()
+
+        source.onNext(conversations.take(2).associateBy { it.uri.uri })
+        assertEquals(listOf(conversations[1], conversations[0]), updates.values().last().conversations)
+
+        val count = updates.values().size
+        conversations[2].lastEvent = event(1000)
+        assertEquals(count, updates.values().size)
+        assertEquals(listOf(conversations[1], conversations[0]), updates.values().last().conversations)
+    }
+}
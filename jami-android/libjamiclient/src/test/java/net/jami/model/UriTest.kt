@@ -21,6 +21,7 @@ import net.jami.model.Uri.Companion.fromStringWithName
 import net.jami.model.Uri.Companion.isIpAddress
 import org.junit.Assert
 import org.junit.Test
+import java.util.regex.Pattern
 
 class UriTest {
     @Test
@@ -57,4 +58,64 @@ class UriTest {
         Assert.assertTrue(test.username.contentEquals("100"))
         Assert.assertTrue(test.host.contentEquals("sipuri"))
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testParserMatchesPattern() {
+        // Pattern previously used by fromString
+        val pattern = Pattern.compile("^\\s*(\\w+:)?(?:([\\w.]+)@)?(?:([\\d\\w.\\-]+)(?::(\\d+))?)\\s*$")
+        val uris = listOf(
+            "ring:1234567890123456789012345678901234567890",
+            " jami:1234567890123456789012345678901234567890@ring.dht ",
+            "swarm:abcdef", "rdv:abcdef", "sip:100@sip.example.com:5060", "100@sipuri",
+            "host:5060", "a:b:c", "a:b:1", "user@", "@host", "sip:", ":5060", "host:",
+            "not a uri", "", "  ", "a-b.c_d", "sip:a-b@c", "\tsip:100@host\n"
+        )
+        for (uri in uris) {
+            val m = pattern.matcher(uri)
+            val expected = if (m.find()) Uri(m.group(1), m.group(2), m.group(3), m.group(4)) else Uri(null, null, uri, null)
+            val test = fromString(uri, intern = false)
+            Assert.assertEquals(uri, expected.scheme, test.scheme)
+            Assert.assertEquals(uri, expected.username, test.username)
+            Assert.assertEquals(uri, expected.host, test.host)
+            Assert.assertEquals(uri, expected.port, test.port)
+        }
+    }
+
+    @Test
+    fun testNameParserMatchesPattern() {
+        val pattern = Pattern.compile("^\\s*([^<>]+)?\\s*<([^<>]+)>\\s*$")
+        val uris = listOf("Alice <sip:alice@host>", "  Bob  <100@host> ", "<sip:host>", "  <sip:host>",
+            "a <b> <c>", "a <>", "a > <b>", "sip:host", "a <b> c")
+        for (uri in uris) {
+            val m = pattern.matcher(uri)
+            val expected = if (m.find()) Pair(fromString(m.group(2)), m.group(1)) else Pair(fromString(uri), null)
+            Assert.assertEquals(uri, expected, fromStringWithName(uri))
+        }
+    }
+
+    @Test
+    fun testHashCodeConsistentWithEquals() {
+        val jami = fromString("jami:1234567890123456789012345678901234567890")
+        val ring = fromString("ring:1234567890123456789012345678901234567890")
+        val sip = fromString("sip:100@host")
+        val sipPort = fromString("100@host:5060")
+        Assert.assertEquals(jami, ring)
+        Assert.assertEquals(jami.hashCode(), ring.hashCode())
+        Assert.assertEquals(sip, sipPort)
+        Assert.assertEquals(sip.hashCode(), sipPort.hashCode())
+    }
+
+    @Test
+    fun testCachedProperties() {
+        val test = fromString("jami:1234567890123456789012345678901234567890")
+        Assert.assertTrue(test.isHexId)
+        Assert.assertTrue(test.isJami)
+        Assert.assertEquals("1234567890123456789012345678901234567890", test.uri)
+        Assert.assertEquals("jami:1234567890123456789012345678901234567890", test.rawUriString)
+        Assert.assertSame(test, fromString("jami:1234567890123456789012345678901234567890"))
+        val swarm = fromString("swarm:abcdef")
+        Assert.assertTrue(swarm.isSwarm)
+        Assert.assertFalse(swarm.isJami)
+        Assert.assertEquals("swarm:abcdef", swarm.uri)
+    }
+}
@@ -0,0 +1,57 @@
+package net.jami.services
+
+import io.reactivex.rxjava3.schedulers.Schedulers
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class AccountLoaderTest {
+    @Test
+    fun resultsKeepTheOrderOfItems() {
+        val loader = AccountLoader(threads = 4, batchSize = 3)
+        val results = loader.load((0 until 50).toList()) { if (it % 5 == 0) null else it * 2 }
+            .blockingGet()
+        assertEquals((0 until 50).filter { it % 5 != 0 }.map { it * 2 }, results)
+    }
+
+    @Test
+    fun highestPriorityIsLoadedFirst() {
+        val loader = AccountLoader(threads = 1, batchSize = 3, scheduler = Schedulers.trampoline())
+        val priorities = (0 until 10).associateWith { it.toLong() }.toMutableMap()
+        val order = mutableListOf<Int>()
+        loader.loadByPriority((0 until 10).toList(), { priorities[it]!! }) { item ->
+            order.add(item)
+            // Priorities may change while loading: the next batch takes it into account
+            if (item == 9) priorities[0] = 100
+        }.blockingAwait()
+        assertEquals(listOf(9, 8, 7, 0, 6, 5, 4, 3, 2, 1), order)
+    }
+
+    @Test
+    fun allItemsAreLoadedInParallel() {
+        val loader = AccountLoader(threads = 4, batchSize = 2)
+        val started = CountDownLatch(4)
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+        val allStarted = Collections.synchronizedList(mutableListOf<Boolean>())
+        val loaded = Collections.synchronizedList(mutableListOf<Int>())
+        val done = loader.loadByPriority((0 until 100).toList(), { 0L }) {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), ::maxOf)
+            // The first items wait for each thread to load one
+            if (started.count > 0) {
+                started.countDown()
+                allStarted.add(started.await(5, TimeUnit.SECONDS))
+            }
+            loaded.add(it)
+            running.decrementAndGet()
+        }.blockingAwait(5, TimeUnit.SECONDS)
+        assertTrue(done)
+        assertEquals(listOf(true, true, true, true), allStarted)
+        assertEquals(4, maxRunning.get())
+        assertEquals((0 until 100).toList(), loaded.sorted())
+    }
+}
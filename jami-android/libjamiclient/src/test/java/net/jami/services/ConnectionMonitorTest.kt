@@ -0,0 +1,110 @@
+package net.jami.services
+
+import io.reactivex.rxjava3.schedulers.TestScheduler
+import net.jami.services.AccountService.ConnectionStatus
+import net.jami.services.AccountService.DeviceConnection
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class ConnectionMonitorTest {
+    private fun connection(id: String, peer: String, channels: List<String> = emptyList()) =
+        DeviceConnection("account", id, "device$id", ConnectionStatus.Connected, peer, null, channels, 0L)
+
+    @Test
+    fun onlyChangesAreEmitted() {
+        val scheduler = TestScheduler()
+        var current = listOf(connection("1", "a"), connection("2", "b"))
+        val monitor = ConnectionMonitor("account", scheduler, 2000, 16000) { current }
+        val observer = monitor.changes.test()
+
+        scheduler.triggerActions()
+        observer.assertValueCount(1)
+        assertEquals(2, observer.values()[0].added.size)
+
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS)
+        observer.assertValueCount(1)
+
+        current = listOf(connection("1", "a", listOf("sync")), connection("3", "b"))
+        scheduler.advanceTimeBy(16, TimeUnit.SECONDS)
+        observer.assertValueCount(2)
+        val changes = observer.values()[1]
+        assertEquals(listOf("3"), changes.added.map { it.id })
+        assertEquals(listOf("2"), changes.removed.map { it.id })
+        assertEquals(listOf("1"), changes.changed.map { it.id })
+        assertEquals(listOf("a", "b"), changes.connections.map { it.first })
+        observer.dispose()
+    }
+
+    @Test
+    fun pollingBacksOffWhileStable() {
+        val scheduler = TestScheduler()
+        var polls = 0
+        var current = listOf(connection("1", "a"))
+        val monitor = ConnectionMonitor("account", scheduler, 2000, 16000) { polls++; current }
+        val observer = monitor.changes.test()
+
+        // Polls at 0, 2, 6, 14, 30, 46 seconds
+        scheduler.advanceTimeBy(46, TimeUnit.SECONDS)
+        assertEquals(6, polls)
+
+        // A change resets the interval
+        current = emptyList()
+        scheduler.advanceTimeBy(16, TimeUnit.SECONDS)
+        assertEquals(7, polls)
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS)
+        assertEquals(8, polls)
+
+        observer.dispose()
+        scheduler.advanceTimeBy(60, TimeUnit.SECONDS)
+        assertEquals(8, polls)
+    }
+
+    @Test
+    fun peerSubscriptionIgnoresOtherPeers() {
+        val scheduler = TestScheduler()
+        var current = listOf(connection("1", "a"), connection("2", "b"))
+        val monitor = ConnectionMonitor("account", scheduler, 2000, 16000) { current }
+        val observer = monitor.changes(setOf("a")).test()
+
+        scheduler.triggerActions()
+        observer.assertValueCount(1)
+        assertEquals(listOf("a"), observer.values()[0].connections.map { it.first })
+
+        current = listOf(connection("1", "a"), connection("3", "b"))
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS)
+        observer.assertValueCount(1)
+
+        current = listOf(connection("3", "b"))
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS)
+        observer.assertValueCount(2)
+        assertTrue(observer.values()[1].connections.isEmpty())
+        assertEquals(listOf("1"), observer.values()[1].removed.map { it.id })
+        observer.dispose()
+    }
+
+    @Test
+    fun lateSubscribersGetAllConnectionsAsAdded() {
+        val scheduler = TestScheduler()
+        var current = listOf(connection("1", "a"))
+        val monitor = ConnectionMonitor("account", scheduler, 2000, 16000) { current }
+        val first = monitor.changes.test()
+        scheduler.triggerActions()
+
+        current = listOf(connection("1", "a"), connection("2", "b"))
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS)
+        assertEquals(listOf("2"), first.values()[1].added.map { it.id })
+
+        val late = monitor.changes.test()
+        late.assertValueCount(1)
+        assertEquals(listOf("1", "2"), late.values()[0].added.map { it.id }.sorted())
+        assertTrue(late.values()[0].removed.isEmpty())
+
+        current = listOf(connection("2", "b"))
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS)
+        assertEquals(listOf("1"), late.values()[1].removed.map { it.id })
+        first.dispose()
+        late.dispose()
+    }
+}
@@ -1,6 +1,7 @@
 package net.jami.services
 
 import io.reactivex.rxjava3.schedulers.Schedulers
+import io.reactivex.rxjava3.schedulers.TestScheduler
 import org.junit.After
 import org.junit.Assert.assertEquals
 import org.junit.Assert.assertFalse
@@ -162,4 +163,81 @@ class ConversationCallbackDispatcherTest {
         closes.join()
         assertTrue(completed.await(5, TimeUnit.SECONDS))
     }
-}
\ No newline at end of file
+
+    @Test
+    fun batchedItemsAreCoalescedUntilAnotherCallback() {
+        val releaseFirst = CountDownLatch(1)
+        val completed = CountDownLatch(4)
+        val calls = Collections.synchronizedList(mutableListOf<Any>())
+        val batched = dispatcher.batched<Int> { _, _, items ->
+            calls.add(items)
+            completed.countDown()
+        }
+
+        dispatcher.dispatch("account", "conversation") {
+            releaseFirst.await(5, TimeUnit.SECONDS)
+            calls.add("first")
+            completed.countDown()
+        }
+        repeat(3) { batched.dispatch("account", "conversation", it) }
+        dispatcher.dispatch("account", "conversation") {
+            calls.add("second")
+            completed.countDown()
+        }
+        batched.dispatch("account", "conversation", 3)
+
+        releaseFirst.countDown()
+
+        assertTrue(completed.await(5, TimeUnit.SECONDS))
+        assertEquals(listOf("first", listOf(0, 1, 2), "second", listOf(3)), calls)
+    }
+
+    @Test
+    fun batchesAreLimitedInSize() {
+        dispatcher.dispose()
+        dispatcher = ConversationCallbackDispatcher(Schedulers.from(executor), maxBatchSize = 4)
+        val releaseFirst = CountDownLatch(1)
+        val completed = CountDownLatch(10)
+        val batches = Collections.synchronizedList(mutableListOf<List<Int>>())
+        val batched = dispatcher.batched<Int> { _, _, items ->
+            batches.add(items)
+            repeat(items.size) { completed.countDown() }
+        }
+
+        dispatcher.dispatch("account", "conversation") {
+            releaseFirst.await(5, TimeUnit.SECONDS)
+        }
+        repeat(10) { batched.dispatch("account", "conversation", it) }
+        releaseFirst.countDown()
+
+        assertTrue(completed.await(5, TimeUnit.SECONDS))
+        assertEquals(listOf(listOf(0, 1, 2, 3), listOf(4, 5, 6, 7), listOf(8, 9)), batches)
+    }
+
+    @Test
+    fun singleItemsAreNotDelayed() {
+        val scheduler = TestScheduler()
+        dispatcher.dispose()
+        dispatcher = ConversationCallbackDispatcher(scheduler, batchWindowMs = 20)
+        val batches = mutableListOf<List<Int>>()
+        val batched = dispatcher.batched<Int> { _, _, items -> batches.add(items) }
+
+        batched.dispatch("account", "conversation", 0)
+        scheduler.triggerActions()
+        assertEquals(listOf(listOf(0)), batches)
+
+        // Items following a batch are delivered together at the end of the window
+        batched.dispatch("account", "conversation", 1)
+        scheduler.advanceTimeBy(5, TimeUnit.MILLISECONDS)
+        batched.dispatch("account", "conversation", 2)
+        scheduler.advanceTimeBy(14, TimeUnit.MILLISECONDS)
+        assertEquals(listOf(listOf(0)), batches)
+        scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS)
+        assertEquals(listOf(listOf(0), listOf(1, 2)), batches)
+
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS)
+        batched.dispatch("account", "conversation", 3)
+        scheduler.triggerActions()
+        assertEquals(listOf(listOf(0), listOf(1, 2), listOf(3)), batches)
+    }
+}
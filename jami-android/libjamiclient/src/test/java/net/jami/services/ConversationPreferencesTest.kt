@@ -0,0 +1,61 @@
+package net.jami.services
+
+import net.jami.model.Uri
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.IOException
+
+class ConversationPreferencesTest {
+    private val service = InMemoryHistoryService()
+    private val conversation = Uri.fromString("jami:1234")
+
+    @After
+    fun tearDown() {
+        service.close()
+    }
+
+    private fun storedPreferences(): Map<String, String> =
+        service.query("account", "SELECT key, value FROM conversation_preferences WHERE conversation = ?", conversation.uri)
+            .associate { it[0] to it[1] }
+
+    @Test
+    fun legacyPreferencesAreMigrated() {
+        service.execute("account", "INSERT INTO conversation_preferences (conversation, key, value) VALUES (?, ?, ?)",
+            conversation.uri, "color", "blue")
+        service.legacyPreferences["account"] = mutableMapOf(
+            conversation.uri to mapOf("color" to "red", "symbol" to "*"),
+            "jami:other" to mapOf("notification" to "off"))
+
+        // Preferences already in the database are kept
+        assertEquals(mapOf("color" to "blue", "symbol" to "*"), service.getConversationPreferences("account", conversation))
+        assertEquals(mapOf("notification" to "off"), service.getConversationPreferences("account", Uri.fromString("jami:other")))
+        assertEquals(mapOf("color" to "blue", "symbol" to "*"), storedPreferences())
+        assertTrue(service.legacyPreferences["account"]!!.isEmpty())
+        assertTrue(service.legacyPreferencesThread!!.name.startsWith("db-writer"))
+    }
+
+    @Test
+    fun failedLoadsAreNotKept() {
+        service.execute("account", "INSERT INTO conversation_preferences (conversation, key, value) VALUES (?, ?, ?)",
+            conversation.uri, "color", "blue")
+        service.legacyPreferencesError = IOException()
+        assertTrue(service.getConversationPreferences("account", conversation).isEmpty())
+
+        service.legacyPreferencesError = null
+        assertEquals(mapOf("color" to "blue"), service.getConversationPreferences("account", conversation))
+        service.setConversationPreferences("account", conversation, mapOf("symbol" to "*"))
+        assertEquals(mapOf("color" to "blue", "symbol" to "*"), service.getConversationPreferences("account", conversation))
+    }
+
+    @Test
+    fun preferencesAreWritten() {
+        service.loadConversationPreferences("account").blockingAwait()
+        service.setConversationPreferences("account", conversation, mapOf("color" to "red", "symbol" to "*"))
+        service.setConversationPreferences("account", conversation, mapOf("symbol" to null))
+        assertEquals(mapOf("color" to "red"), service.getConversationPreferences("account", conversation))
+        service.flushUpdates().blockingAwait()
+        assertEquals(mapOf("color" to "red"), storedPreferences())
+    }
+}
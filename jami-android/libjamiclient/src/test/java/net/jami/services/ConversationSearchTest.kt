@@ -0,0 +1,65 @@
+package net.jami.services
+
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.schedulers.TestScheduler
+import io.reactivex.rxjava3.subjects.PublishSubject
+import net.jami.model.interaction.Interaction
+import net.jami.services.AccountService.ConversationSearchResult
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class ConversationSearchTest {
+    // Legacy interactions, identified by their id
+    private fun result(vararg ids: Int) = ConversationSearchResult(ids.map { Interaction().apply { id = it } })
+
+    private fun ids(result: ConversationSearchResult) = result.results.map { it.id }
+
+    @Test
+    fun daemonResultsFollowLocalResults() {
+        val scheduler = TestScheduler()
+        val daemon = PublishSubject.create<ConversationSearchResult>()
+        var searched = false
+        val results = AccountService.concatSearchResults(Observable.just(result(1, 2)),
+            daemon.doOnSubscribe { searched = true }, scheduler).test()
+        assertEquals(listOf(listOf(1, 2)), results.values().map(::ids))
+
+        scheduler.advanceTimeBy(AccountService.DAEMON_SEARCH_DELAY_MS - 1, TimeUnit.MILLISECONDS)
+        assertFalse(searched)
+        scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS)
+        assertTrue(searched)
+
+        // Messages found locally are only emitted once
+        daemon.onNext(result(2, 3))
+        daemon.onNext(result(3, 2))
+        daemon.onNext(result(4))
+        daemon.onComplete()
+        results.assertComplete()
+        assertEquals(listOf(listOf(1, 2), listOf(3), listOf(4)), results.values().map(::ids))
+    }
+
+    @Test
+    fun replacedSearchesAreOnlyLocal() {
+        val scheduler = TestScheduler()
+        var searched = false
+        val results = AccountService.concatSearchResults(Observable.just(result(1)),
+            Observable.never<ConversationSearchResult>().doOnSubscribe { searched = true }, scheduler).test()
+        results.dispose()
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS)
+        assertFalse(searched)
+        assertEquals(listOf(listOf(1)), results.values().map(::ids))
+    }
+
+    @Test
+    fun eachSubscriptionFindsAllResults() {
+        val scheduler = TestScheduler()
+        val search = AccountService.concatSearchResults(Observable.just(result(1, 1)), Observable.empty(), scheduler)
+        repeat(2) {
+            val results = search.test()
+            scheduler.triggerActions()
+            assertEquals(listOf(listOf(1)), results.values().map(::ids))
+        }
+    }
+}
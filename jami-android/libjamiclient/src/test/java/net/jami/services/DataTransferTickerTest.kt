@@ -0,0 +1,71 @@
+package net.jami.services
+
+import io.reactivex.rxjava3.schedulers.TestScheduler
+import net.jami.model.Conversation
+import net.jami.model.Uri
+import net.jami.model.interaction.DataTransfer
+import net.jami.model.interaction.Interaction.TransferStatus
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class DataTransferTickerTest {
+    private val conversation = Conversation("account", Uri(Uri.SWARM_SCHEME, "c"), Conversation.Mode.OneToOne)
+
+    private fun transfer(fileId: String) =
+        DataTransfer(fileId, "account", "peer", "file$fileId", false, 0L, 1000L, 0L).apply {
+            transferStatus = TransferStatus.TRANSFER_ONGOING
+        }
+
+    @Test
+    fun progressIsReportedInBatches() {
+        val scheduler = TestScheduler()
+        val progress = HashMap<String, Long>()
+        val batches = ArrayList<List<String?>>()
+        var queries = 0
+        val ticker = DataTransferTicker(scheduler, { _, _, fileId -> queries++; FileTransferInfo(null, 1000L, progress[fileId] ?: 0L) }, 500, 2000) {
+            batches.add(it.map(DataTransfer::fileId))
+        }
+        val transfers = (0 until 50).map { transfer("$it") }
+        transfers.forEach { ticker.add("account", conversation, it.fileId!!, it) }
+
+        progress["1"] = 100
+        progress["2"] = 200
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS)
+        assertEquals(listOf(listOf("1", "2")), batches)
+        assertEquals(50, queries)
+
+        // Unchanged progress is not reported
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS)
+        assertEquals(1, batches.size)
+
+        transfers.forEach { it.transferStatus = TransferStatus.TRANSFER_FINISHED }
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS)
+        assertEquals(0, ticker.size)
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS)
+        assertEquals(100, queries)
+    }
+
+    @Test
+    fun visibleAndNearlyCompleteTransfersAreRefreshedFaster() {
+        val scheduler = TestScheduler()
+        val progress = HashMap<String, Long>()
+        val queries = HashMap<String, Int>()
+        val ticker = DataTransferTicker(scheduler, { _, _, fileId ->
+            queries.merge(fileId, 1, Int::plus)
+            FileTransferInfo(null, 1000L, progress[fileId] ?: 0L)
+        }, 500, 2000) {}
+        progress["near"] = 950
+        ticker.add("account", conversation, "slow", transfer("slow"))
+        ticker.add("account", conversation, "near", transfer("near"))
+        scheduler.advanceTimeBy(4, TimeUnit.SECONDS)
+        assertEquals(2, queries["slow"])
+        // First query after the slow period, then every fast period
+        assertEquals(5, queries["near"])
+
+        conversation.isVisible = true
+        ticker.add("account", conversation, "visible", transfer("visible"))
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS)
+        assertEquals(4, queries["visible"])
+    }
+}
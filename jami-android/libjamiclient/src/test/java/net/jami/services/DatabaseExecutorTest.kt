@@ -0,0 +1,74 @@
+package net.jami.services
+
+import io.reactivex.rxjava3.core.Completable
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class DatabaseExecutorTest {
+    private val executor = DatabaseExecutor()
+
+    @Test
+    fun writesForOneAccountAreSerialized() {
+        val running = AtomicInteger()
+        val overlaps = AtomicInteger()
+        val order = Collections.synchronizedList(mutableListOf<Int>())
+        val writes = (0 until 20).map { i ->
+            Completable.fromAction {
+                if (running.incrementAndGet() > 1) overlaps.incrementAndGet()
+                Thread.sleep(1)
+                order.add(i)
+                running.decrementAndGet()
+            }.subscribeOn(executor.writer("account"))
+        }
+        // Subscribe in order: tasks are queued in submission order on the account writer
+        writes.forEach { it.subscribe() }
+        val done = CountDownLatch(1)
+        Completable.fromAction { done.countDown() }.subscribeOn(executor.writer("account")).subscribe()
+
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertEquals(0, overlaps.get())
+        assertEquals((0 until 20).toList(), order)
+    }
+
+    @Test
+    fun longReadDoesNotBlockWrites() {
+        val releaseRead = CountDownLatch(1)
+        val written = CountDownLatch(1)
+
+        Completable.fromAction { releaseRead.await(5, TimeUnit.SECONDS) }
+            .subscribeOn(executor.reader)
+            .subscribe()
+        Completable.fromAction { written.countDown() }
+            .subscribeOn(executor.writer("account"))
+            .subscribe()
+
+        assertTrue(written.await(5, TimeUnit.SECONDS))
+        releaseRead.countDown()
+    }
+
+    @Test
+    fun accountsHaveIndependentWriters() {
+        val releaseFirst = CountDownLatch(1)
+        val firstDone = CountDownLatch(1)
+        val secondDone = CountDownLatch(1)
+
+        Completable.fromAction {
+            releaseFirst.await(5, TimeUnit.SECONDS)
+            firstDone.countDown()
+        }.subscribeOn(executor.writer("first")).subscribe()
+        Completable.fromAction { secondDone.countDown() }
+            .subscribeOn(executor.writer("second"))
+            .subscribe()
+
+        assertTrue(secondDone.await(5, TimeUnit.SECONDS))
+        assertFalse(firstDone.await(50, TimeUnit.MILLISECONDS))
+        releaseFirst.countDown()
+        assertTrue(firstDone.await(5, TimeUnit.SECONDS))
+    }
+}
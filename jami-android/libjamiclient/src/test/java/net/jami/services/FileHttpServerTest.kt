@@ -0,0 +1,165 @@
+package net.jami.services
+
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.InputStream
+import java.net.Socket
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+
+class FileHttpServerTest {
+    private val file = File.createTempFile("served", ".bin").apply {
+        deleteOnExit()
+        writeBytes(ByteArray(256 * 1024) { it.toByte() })
+    }
+    private val largeFile = File.createTempFile("served", ".bin").apply {
+        deleteOnExit()
+        writeBytes(ByteArray(16 * 1024 * 1024) { (it / 7).toByte() })
+    }
+    private val server = object : FileHttpServer() {
+        override fun resolve(path: String): Resource = when (path) {
+            "/file" -> Resource.File(file.length(), file.lastModified(), "application/octet-stream") {
+                FileChannel.open(file.toPath(), StandardOpenOption.READ)
+            }
+            "/large" -> Resource.File(largeFile.length(), largeFile.lastModified(), "application/octet-stream") {
+                FileChannel.open(largeFile.toPath(), StandardOpenOption.READ)
+            }
+            "/stream" -> Resource.Stream("application/octet-stream") { largeFile.inputStream() }
+            else -> Resource.Page(Status.NOT_FOUND, MIME_PLAINTEXT, "Not Found")
+        }
+    }.apply { start() }
+
+    private class Response(val status: Int, val headers: Map<String, String>, val body: ByteArray)
+
+    private fun InputStream.readLine(): String {
+        val line = ByteArrayOutputStream()
+        while (true) {
+            val c = read()
+            if (c < 0 || c == '\n'.code) break
+            if (c != '\r'.code) line.write(c)
+        }
+        return line.toString(Charsets.ISO_8859_1.name())
+    }
+
+    private fun InputStream.readResponse(head: Boolean = false): Response {
+        val status = readLine().split(' ')[1].toInt()
+        val headers = HashMap<String, String>()
+        while (true) {
+            val line = readLine()
+            if (line.isEmpty()) break
+            headers[line.substringBefore(':').lowercase()] = line.substringAfter(':').trim()
+        }
+        val length = if (head) 0 else headers["content-length"]?.toInt() ?: 0
+        return Response(status, headers, readNBytes(length))
+    }
+
+    private fun Socket.request(path: String, vararg headers: String, method: String = "GET") {
+        val request = StringBuilder("$method $path HTTP/1.1\r\nHost: localhost\r\n")
+        headers.forEach { request.append(it).append("\r\n") }
+        getOutputStream().write(request.append("\r\n").toString().toByteArray())
+    }
+
+    @After
+    fun tearDown() {
+        server.stop()
+    }
+
+    @Test
+    fun filesAreServedOnKeptAliveConnections() {
+        Socket("localhost", server.listeningPort).use { socket ->
+            val input = socket.getInputStream()
+            socket.request("/file")
+            val full = input.readResponse()
+            assertEquals(200, full.status)
+            assertArrayEquals(file.readBytes(), full.body)
+            val etag = full.headers["etag"]
+            assertNotNull(etag)
+            assertNotNull(full.headers["last-modified"])
+
+            socket.request("/file", "Range: bytes=1000-1999")
+            val partial = input.readResponse()
+            assertEquals(206, partial.status)
+            assertEquals("bytes 1000-1999/${file.length()}", partial.headers["content-range"])
+            assertArrayEquals(file.readBytes().copyOfRange(1000, 2000), partial.body)
+
+            // Pipelined requests are answered in order
+            socket.request("/file", "If-None-Match: $etag")
+            socket.request("/missing")
+            socket.request("/file", method = "HEAD")
+            val notModified = input.readResponse(head = true)
+            assertEquals(304, notModified.status)
+            assertNull(notModified.headers["content-length"])
+            assertEquals(404, input.readResponse().status)
+            val head = input.readResponse(head = true)
+            assertEquals(200, head.status)
+            assertEquals("${file.length()}", head.headers["content-length"])
+            assertEquals("keep-alive", head.headers["connection"])
+        }
+    }
+
+    @Test
+    fun rangesAreParsed() {
+        assertEquals(0L..99L, FileHttpServer.parseRange("bytes=0-99", 1000))
+        assertEquals(900L..999L, FileHttpServer.parseRange("bytes=900-", 1000))
+        assertEquals(990L..999L, FileHttpServer.parseRange("bytes=-10", 1000))
+        assertEquals(500L..999L, FileHttpServer.parseRange("bytes=500-2000", 1000))
+        assertEquals(LongRange.EMPTY, FileHttpServer.parseRange("bytes=1000-", 1000))
+        assertNull(FileHttpServer.parseRange("bytes=0-1,5-6", 1000))
+        assertNull(FileHttpServer.parseRange("bytes=a-b", 1000))
+        assertNull(FileHttpServer.parseRange(null, 1000))
+
+        Socket("localhost", server.listeningPort).use { socket ->
+            socket.request("/file", "Range: bytes=${file.length()}-")
+            val response = socket.getInputStream().readResponse()
+            assertEquals(416, response.status)
+            assertEquals("bytes */${file.length()}", response.headers["content-range"])
+        }
+    }
+
+    @Test
+    fun slowPeersDontHoldWorkers() {
+        // Peers not reading responses larger than what the sockets can buffer
+        val slow = List(FileHttpServer.DEFAULT_WORKERS * 2) {
+            Socket("localhost", server.listeningPort).apply { request("/large") }
+        }
+        try {
+            // Served while the slow peers don't read their responses
+            Socket("localhost", server.listeningPort).use { socket ->
+                socket.soTimeout = 5000
+                socket.request("/missing")
+                assertEquals(404, socket.getInputStream().readResponse().status)
+            }
+            slow.first().let { socket ->
+                socket.soTimeout = 5000
+                val input = socket.getInputStream()
+                val response = input.readResponse()
+                assertEquals(200, response.status)
+                assertArrayEquals(largeFile.readBytes(), response.body)
+                // The connection is kept alive after the response
+                socket.request("/file", "Range: bytes=0-9")
+                assertArrayEquals(file.readBytes().copyOf(10), input.readResponse().body)
+            }
+        } finally {
+            slow.forEach { it.close() }
+        }
+    }
+
+    @Test
+    fun streamsAreSentUntilTheirEnd() {
+        Socket("localhost", server.listeningPort).use { socket ->
+            socket.soTimeout = 5000
+            socket.request("/stream")
+            val input = socket.getInputStream()
+            val response = input.readResponse()
+            assertEquals(200, response.status)
+            assertEquals("close", response.headers["connection"])
+            assertArrayEquals(largeFile.readBytes(), input.readBytes())
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package net.jami.services
+
+import net.jami.model.Contact
+import net.jami.model.Conversation
+import net.jami.model.ConversationHistory
+import net.jami.model.Uri
+import net.jami.model.interaction.TextMessage
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+
+class HistoryPageTest {
+    private val service = InMemoryHistoryService()
+    private val history = ConversationHistory("jami:1234")
+
+    @Before
+    fun setUp() {
+        service.getConversationDataDao("account").create(history)
+        // Interactions 1 to 6, four of them sharing the same timestamp
+        for (timestamp in listOf(1L, 2L, 2L, 2L, 2L, 3L))
+            service.getInteractionDataDao("account").create(TextMessage(null, "account", timestamp, history, "message", false))
+    }
+
+    @After
+    fun tearDown() {
+        service.close()
+    }
+
+    private fun page(before: HistoryService.HistoryCursor?) =
+        service.getConversationHistoryPage("account", history.id!!, before, 2).blockingGet()
+
+    @Test
+    fun pagesSplitIdenticalTimestamps() {
+        val first = page(null)
+        assertEquals(listOf(5, 6), first.interactions.map { it.id })
+        assertEquals(HistoryService.HistoryCursor(2, 5), first.next)
+        val second = page(first.next)
+        assertEquals(listOf(3, 4), second.interactions.map { it.id })
+        assertEquals(HistoryService.HistoryCursor(2, 3), second.next)
+        val last = page(second.next)
+        assertEquals(listOf(1, 2), last.interactions.map { it.id })
+        assertNull(last.next)
+    }
+
+    @Test
+    fun lastPageHasNoCursor() {
+        val all = service.getConversationHistoryPage("account", history.id!!, null, 6).blockingGet()
+        assertEquals((1..6).toList(), all.interactions.map { it.id })
+        assertNull(all.next)
+        assertEquals(emptyList<Int>(), page(HistoryService.HistoryCursor(1, 1)).interactions.map { it.id })
+    }
+
+    @Test
+    fun pagesAreAddedBeforeTheHistory() {
+        val conversation = Conversation("account", Contact(Uri.fromString(history.participant!!)))
+        val batches = conversation.updatedElementBatches.test()
+        var page = page(null)
+        conversation.setHistory(page.interactions)
+        while (page.next != null) {
+            page = page(page.next)
+            conversation.addHistoryPage(page.interactions)
+        }
+        assertEquals((1..6).toList(), conversation.sortedHistory.blockingGet().map { it.id })
+        assertEquals(listOf(listOf(3, 4), listOf(1, 2)), batches.values().map { batch -> batch.map { it.first.id } })
+    }
+
+    @Test
+    fun errorsArePropagated() {
+        service.close()
+        service.getConversationHistoryPage("account", history.id!!, null).test().await().assertError(Exception::class.java)
+    }
+}
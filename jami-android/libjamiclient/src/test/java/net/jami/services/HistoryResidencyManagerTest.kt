@@ -0,0 +1,94 @@
+package net.jami.services
+
+import io.reactivex.rxjava3.core.Single
+import io.reactivex.rxjava3.schedulers.Schedulers
+import net.jami.model.Conversation
+import net.jami.model.Uri
+import net.jami.model.interaction.Interaction
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class HistoryResidencyManagerTest {
+    /** A conversation with a loaded history, as tracked on its load */
+    private fun conversation(id: Int, messages: Int = 100) =
+        Conversation("account", Uri(Uri.SWARM_SCHEME, "c$id"), Conversation.Mode.OneToOne).apply {
+            loaded = Single.just(this)
+            addSwarmElements((0 until messages).map { i ->
+                Interaction(this, Interaction.InteractionType.TEXT).apply {
+                    setSwarmInfo("c$id", "m$i", if (i == 0) null else "m${i - 1}")
+                    body = "message $i"
+                }
+            }, false)
+        }
+
+    @Test
+    fun leastRecentlyUsedHistoriesAreEvicted() {
+        val conversations = (0 until 4).map { conversation(it) }
+        val size = conversations[0].estimateHistorySize()
+        val manager = HistoryResidencyManager(size * 2, Schedulers.trampoline())
+
+        conversations.forEach { manager.onAccess(it) }
+        assertEquals(2, manager.residentCount)
+        assertTrue(conversations[0].isHistoryEvicted)
+        assertTrue(conversations[1].isHistoryEvicted)
+        assertFalse(conversations[2].isHistoryEvicted)
+        assertEquals(2L, manager.evictions.get())
+
+        // Using a history again makes it the most recently used one
+        manager.onAccess(conversations[2])
+        conversations[0].startHistoryReload()
+        manager.onAccess(conversations[0].apply {
+            loaded = Single.just(this)
+            addSwarmElements(conversation(0).sortedHistory.blockingGet(), false)
+        })
+        assertTrue(conversations[3].isHistoryEvicted)
+        assertFalse(conversations[2].isHistoryEvicted)
+    }
+
+    @Test
+    fun evictionKeepsLastEventAndVisibleHistories() {
+        val visible = conversation(0).apply { isVisible = true }
+        val hidden = conversation(1)
+        val lastEvent = hidden.lastEvent
+        val manager = HistoryResidencyManager(0, Schedulers.trampoline())
+
+        manager.onAccess(visible)
+        manager.onAccess(hidden)
+        assertFalse(visible.isHistoryEvicted)
+        assertTrue(hidden.isHistoryEvicted)
+        assertEquals(0L, hidden.estimateHistorySize())
+        assertNull(hidden.getMessage("m50"))
+        assertNotNull(lastEvent)
+        assertEquals(lastEvent, hidden.lastEvent)
+        assertEquals("m0", hidden.evictedUntil)
+
+        // Closing a conversation makes it a candidate
+        visible.isVisible = false
+        assertTrue(visible.isHistoryEvicted)
+
+        assertEquals("m0", hidden.startHistoryReload())
+        assertFalse(hidden.isHistoryEvicted)
+
+        // Histories not loaded anymore stop being tracked
+        assertEquals(0, manager.residentCount)
+    }
+
+    @Test
+    fun loadingHistoriesStayTracked() {
+        val loading = conversation(0, messages = 0).apply { loaded = Single.never() }
+        val manager = HistoryResidencyManager(0, Schedulers.trampoline())
+
+        // Accessed as its load starts, before the history is added or the conversation shown
+        manager.onAccess(loading)
+        assertEquals(1, manager.residentCount)
+        loading.addSwarmElements(conversation(0).sortedHistory.blockingGet(), false)
+        manager.trim()
+        assertTrue(loading.isHistoryEvicted)
+        assertEquals(0L, loading.estimateHistorySize())
+        assertEquals(0, manager.residentCount)
+    }
+}
@@ -0,0 +1,106 @@
+package net.jami.services
+
+import com.j256.ormlite.dao.Dao
+import com.j256.ormlite.dao.DaoManager
+import com.j256.ormlite.jdbc.JdbcConnectionSource
+import com.j256.ormlite.support.ConnectionSource
+import com.j256.ormlite.table.TableUtils
+import net.jami.model.ConversationHistory
+import net.jami.model.interaction.Interaction
+import net.jami.utils.Log
+
+/**
+ * History service on in-memory SQLite databases, one per account, with the tables of the
+ * application database.
+ */
+class InMemoryHistoryService(writeDelayMs: Long = 0) : HistoryService(writeDelayMs) {
+    private class Database(val connectionSource: ConnectionSource) {
+        val interactions: Dao<Interaction, Int> = DaoManager.createDao(connectionSource, Interaction::class.java)
+        val conversations: Dao<ConversationHistory, Int> = DaoManager.createDao(connectionSource, ConversationHistory::class.java)
+    }
+
+    private val databases = HashMap<String, Database>()
+
+    /** Legacy conversation preferences, by account and conversation uri */
+    val legacyPreferences = HashMap<String, MutableMap<String, Map<String, String>>>()
+    /** Fails the next loads of legacy preferences */
+    var legacyPreferencesError: Exception? = null
+    /** Thread that loaded the legacy preferences last */
+    var legacyPreferencesThread: Thread? = null
+
+    @Synchronized
+    private fun database(accountId: String): Database = databases.getOrPut(accountId) {
+        val connectionSource = JdbcConnectionSource("jdbc:sqlite::memory:")
+        TableUtils.createTable(connectionSource, ConversationHistory::class.java)
+        TableUtils.createTable(connectionSource, Interaction::class.java)
+        Database(connectionSource).apply {
+            SCHEMA.forEach { interactions.executeRaw(it) }
+        }
+    }
+
+    fun execute(accountId: String, statement: String, vararg arguments: String) =
+        getInteractionDataDao(accountId).executeRaw(statement, *arguments)
+
+    fun query(accountId: String, query: String, vararg arguments: String): List<Array<String>> =
+        getInteractionDataDao(accountId).queryRaw(query, *arguments).results
+
+    fun close() {
+        synchronized(this) { databases.values.toList() }.forEach { it.connectionSource.close() }
+    }
+
+    override fun getConnectionSource(dbName: String): ConnectionSource = database(dbName).connectionSource
+    public override fun getInteractionDataDao(dbName: String): Dao<Interaction, Int> = database(dbName).interactions
+    public override fun getConversationDataDao(dbName: String): Dao<ConversationHistory, Int> = database(dbName).conversations
+    override fun getHelper(dbName: String): Any? = null
+
+    override fun deleteAccountHistory(accountId: String) {
+        synchronized(this) { databases.remove(accountId) }?.connectionSource?.close()
+    }
+
+    override fun loadLegacyConversationPreferences(accountId: String): Map<String, Map<String, String>> {
+        legacyPreferencesThread = Thread.currentThread()
+        legacyPreferencesError?.let { throw it }
+        return legacyPreferences[accountId]?.toMap() ?: emptyMap()
+    }
+
+    override fun deleteLegacyConversationPreferences(accountId: String, conversations: Collection<String>) {
+        legacyPreferences[accountId]?.keys?.removeAll(conversations.toSet())
+    }
+
+    private object ConsoleLogService : LogService {
+        override fun e(tag: String, message: String) = System.err.println("E/$tag: $message")
+        override fun d(tag: String, message: String) {}
+        override fun w(tag: String, message: String) = System.err.println("W/$tag: $message")
+        override fun i(tag: String, message: String) {}
+        override fun e(tag: String, message: String, e: Throwable) = System.err.println("E/$tag: $message: $e")
+        override fun d(tag: String, message: String, e: Throwable) {}
+        override fun w(tag: String, message: String, e: Throwable) = System.err.println("W/$tag: $message: $e")
+        override fun i(tag: String, message: String, e: Throwable) {}
+    }
+
+    init {
+        Log.injectLogService(ConsoleLogService)
+    }
+
+    companion object {
+        /** Tables created with raw statements by the application database helper */
+        private val SCHEMA = listOf(
+            "CREATE TABLE `conversation_preferences` (`conversation` TEXT NOT NULL, `key` TEXT NOT NULL, " +
+                    "`value` TEXT NOT NULL, PRIMARY KEY (`conversation`, `key`))",
+            "CREATE TABLE `swarm_messages` (`conversation` TEXT NOT NULL, `message_id` TEXT NOT NULL, " +
+                    "`timestamp` INTEGER NOT NULL, `data` TEXT NOT NULL, PRIMARY KEY (`conversation`, `message_id`))",
+            "CREATE TABLE `message_index` (`id` INTEGER PRIMARY KEY AUTOINCREMENT, `conversation` TEXT NOT NULL, " +
+                    "`message_id` TEXT NOT NULL, `author` TEXT, `type` TEXT, `timestamp` INTEGER NOT NULL, `body` TEXT, " +
+                    "`data` TEXT, `interaction` INTEGER, UNIQUE (`conversation`, `message_id`))",
+            "CREATE VIRTUAL TABLE `message_search` USING fts4(content=`message_index`, `body`, tokenize=unicode61)",
+            "CREATE TRIGGER `message_index_before_update` BEFORE UPDATE ON `message_index` " +
+                    "BEGIN DELETE FROM `message_search` WHERE docid = OLD.id; END",
+            "CREATE TRIGGER `message_index_before_delete` BEFORE DELETE ON `message_index` " +
+                    "BEGIN DELETE FROM `message_search` WHERE docid = OLD.id; END",
+            "CREATE TRIGGER `message_index_after_update` AFTER UPDATE ON `message_index` " +
+                    "BEGIN INSERT INTO `message_search` (docid, `body`) VALUES (NEW.id, NEW.body); END",
+            "CREATE TRIGGER `message_index_after_insert` AFTER INSERT ON `message_index` " +
+                    "BEGIN INSERT INTO `message_search` (docid, `body`) VALUES (NEW.id, NEW.body); END"
+        )
+    }
+}
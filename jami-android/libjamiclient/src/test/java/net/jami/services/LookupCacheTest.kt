@@ -0,0 +1,68 @@
+package net.jami.services
+
+import io.reactivex.rxjava3.core.Single
+import io.reactivex.rxjava3.schedulers.TestScheduler
+import io.reactivex.rxjava3.subjects.SingleSubject
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+class LookupCacheTest {
+    private var now = 0L
+    private val scheduler = TestScheduler()
+    private val cache = LookupCache<String, String>(clock = { now }, timeoutMs = 1000, scheduler = scheduler) { value -> if (value.isEmpty()) 10L else 100L }
+
+    @Test
+    fun resultsAreKeptForTheirDuration() {
+        var lookups = 0
+        val lookup = { key: String -> cache.get(key) { lookups++; Single.just(if (key == "found") "name" else "") } }
+
+        assertEquals("name", lookup("found").blockingGet())
+        assertEquals("", lookup("missing").blockingGet())
+        now = 50
+        assertEquals("name", lookup("found").blockingGet())
+        assertEquals("", lookup("missing").blockingGet())
+        assertEquals(3, lookups)
+        assertEquals(1L, cache.hits.get())
+        assertEquals(3L, cache.misses.get())
+
+        now = 150
+        lookup("found").blockingGet()
+        assertEquals(4, lookups)
+
+        // Failures are not kept
+        cache.get("error") { Single.error(IllegalStateException()) }.test().assertError(IllegalStateException::class.java)
+        cache.get("error") { Single.just("name") }.test().assertValue("name")
+    }
+
+    @Test
+    fun lookupsInProgressAreShared() {
+        val result = SingleSubject.create<String>()
+        var lookups = 0
+        val first = cache.get("key") { lookups++; result }.test()
+        val second = cache.get("key") { lookups++; result }.test()
+        first.dispose()
+
+        result.onSuccess("name")
+        second.assertValue("name")
+        cache.get("key") { lookups++; result }.test().assertValue("name")
+        assertEquals(1, lookups)
+        assertEquals(1L, cache.coalesced.get())
+        assertEquals(1L, cache.hits.get())
+    }
+
+    @Test
+    fun lookupsWithoutResultTimeOut() {
+        val pending = cache.get("key") { SingleSubject.create() }.test()
+        val joined = cache.get("key") { Single.just("unused") }.test()
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS)
+        pending.assertError(TimeoutException::class.java)
+        joined.assertError(TimeoutException::class.java)
+        assertEquals(0, cache.size)
+
+        // The next lookup is performed again
+        cache.get("key") { Single.just("name") }.test().assertValue("name")
+        assertEquals(2L, cache.misses.get())
+    }
+}
@@ -0,0 +1,69 @@
+package net.jami.services
+
+import net.jami.model.Contact
+import net.jami.model.Conversation
+import net.jami.model.Uri
+import net.jami.model.interaction.TextMessage
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+class MessageIndexTest {
+    private val service = InMemoryHistoryService()
+
+    private fun message(id: String, timestamp: Long, author: String, type: String, vararg body: Pair<String, String>) =
+        SwarmMessageData(id, mapOf("id" to id, "timestamp" to timestamp.toString(), "author" to author, "type" to type, *body),
+            emptyList(), emptyList(), emptyMap())
+
+    @Before
+    fun setUp() {
+        // Swarm messages have timestamps in seconds
+        service.indexSwarmMessages("account", "swarm", listOf(
+            message("1", 100, "alice", "text/plain", "body" to "Hello world"),
+            message("2", 200, "bob", "text/plain", "body" to "hello there"),
+            message("3", 300, "alice", "application/data-transfer+json", "displayName" to "hello.jpg")))
+        service.indexSwarmMessages("account", "other", listOf(
+            message("4", 150, "bob", "text/plain", "body" to "Hello")))
+        service.flushUpdates().blockingAwait()
+        // Legacy messages have timestamps in milliseconds
+        service.insertInteraction("account", Conversation("account", Contact(Uri.fromString("jami:1234"))),
+            TextMessage(null, "account", 250_000, null, "hello legacy", false)).blockingAwait()
+    }
+
+    @After
+    fun tearDown() {
+        service.close()
+    }
+
+    private fun search(query: String, conversation: String? = null, author: String = "", type: String = "",
+                       after: Long = 0, before: Long = 0, limit: Int = HistoryService.SEARCH_LIMIT) =
+        service.searchMessages("account", conversation, query, author, type, after, before, limit).blockingGet()
+            .map { it.message?.id ?: it.interaction!!.body }
+
+    @Test
+    fun wordsAreMatchedFromTheMostRecentMessage() {
+        assertEquals(listOf("3", "hello legacy", "2", "4", "1"), search("hel"))
+        assertEquals(listOf("1"), search("hello wor"))
+        assertEquals(listOf("3", "hello legacy", "2"), search("hel", limit = 3))
+        assertEquals(emptyList<String>(), search("world there"))
+    }
+
+    @Test
+    fun criteriaAreCombined() {
+        assertEquals(listOf("3", "2", "1"), search("hello", conversation = "swarm"))
+        assertEquals(listOf("hello legacy"), search("hello", conversation = "jami:1234"))
+        assertEquals(listOf("3", "1"), search("", author = "alice"))
+        assertEquals(listOf("1"), search("", author = "alice", type = "text/plain"))
+        assertEquals(listOf("2"), search("hello", conversation = "swarm", author = "bob"))
+        // At least a word, an author or a type is needed
+        assertEquals(emptyList<String>(), search(" ", conversation = "swarm"))
+    }
+
+    @Test
+    fun boundsAreInMilliseconds() {
+        assertEquals(listOf("hello legacy", "2", "4"), search("hello", after = 150_000, before = 250_000))
+        assertEquals(listOf("4", "1"), search("hello", before = 199_999))
+        assertEquals(listOf("3"), search("hello", after = 250_001))
+    }
+}
@@ -0,0 +1,23 @@
+package net.jami.services
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class MessageSearchTest {
+    @Test
+    fun queryWordsArePrefixes() {
+        assertEquals("hel* wor*", MessageSearch.matchQuery("Hel wor"))
+        assertEquals("café* 42*", MessageSearch.matchQuery("  café, 42!"))
+        // Operators and quotes are read as words
+        assertEquals("a* or* b* not* c*", MessageSearch.matchQuery("\"a\" OR b* NOT -c"))
+        assertNull(MessageSearch.matchQuery(" ?! "))
+    }
+
+    @Test
+    fun textIsIndexedByType() {
+        assertEquals("hello", MessageSearch.textOf(mapOf("type" to "text/plain", "body" to "hello")))
+        assertEquals("photo.jpg", MessageSearch.textOf(mapOf("type" to "application/data-transfer+json", "displayName" to "photo.jpg")))
+        assertNull(MessageSearch.textOf(mapOf("type" to "member", "action" to "join")))
+    }
+}
@@ -0,0 +1,71 @@
+package net.jami.services
+
+import io.reactivex.rxjava3.schedulers.TestScheduler
+import net.jami.model.Contact
+import net.jami.model.Conversation
+import net.jami.model.Uri
+import net.jami.model.interaction.TextMessage
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class TextNotificationCoalescerTest {
+    private fun conversation(id: String) = Conversation("account", Contact(Uri.fromString("jami://$id")))
+
+    private fun Conversation.receive(timestamp: Long) =
+        TextMessage(uri.rawRingId, "account", timestamp, null, "message $timestamp", true).also { addTextMessage(it) }
+
+    @Test
+    fun burstsArePostedOncePerWindow() {
+        val scheduler = TestScheduler()
+        val updates = ArrayList<Pair<Conversation, List<Long>>>()
+        val coalescer = TextNotificationCoalescer(scheduler, 1000) { conversation, texts ->
+            updates.add(Pair(conversation, texts.keys.toList()))
+        }
+        val group = conversation("group")
+        val other = conversation("other")
+
+        // The first message is posted right away
+        coalescer.update(group, group.receive(1))
+        scheduler.triggerActions()
+        assertEquals(listOf(Pair(group, listOf(1L))), updates)
+
+        // Messages received within the window are posted together
+        for (t in 2L..200L)
+            coalescer.update(group, group.receive(t))
+        coalescer.update(other, other.receive(1))
+        scheduler.triggerActions()
+        assertEquals(2, updates.size)
+        assertEquals(Pair(other, listOf(1L)), updates[1])
+        scheduler.advanceTimeBy(999, TimeUnit.MILLISECONDS)
+        assertEquals(2, updates.size)
+        scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS)
+        assertEquals(3, updates.size)
+        assertEquals((151L..200L).toList(), updates[2].second)
+        assertEquals(0, coalescer.pendingCount)
+
+        // Read messages are dropped from the unread messages
+        group.readMessages()
+        coalescer.update(group, group.receive(201))
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS)
+        assertEquals(Pair(group, listOf(201L)), updates[3])
+    }
+
+    @Test
+    fun cancelledUpdatesAreDropped() {
+        val scheduler = TestScheduler()
+        val updates = ArrayList<List<Long>>()
+        val coalescer = TextNotificationCoalescer(scheduler, 1000) { _, texts -> updates.add(texts.keys.toList()) }
+        val conversation = conversation("c")
+        coalescer.update(conversation, conversation.receive(1))
+        coalescer.cancel(conversation.accountId, conversation.uri)
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS)
+        assertEquals(0, updates.size)
+
+        // Without a message, the unread messages are read from the history
+        conversation.receive(2)
+        coalescer.update(conversation)
+        scheduler.triggerActions()
+        assertEquals(listOf(listOf(1L, 2L)), updates)
+    }
+}
@@ -0,0 +1,58 @@
+package net.jami.services
+
+import io.reactivex.rxjava3.schedulers.TestScheduler
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class WriteBehindQueueTest {
+    private val scheduler = TestScheduler()
+    private val writes = mutableListOf<Pair<String, List<String>>>()
+    private val queue = WriteBehindQueue<Int, String>(100, { scheduler }) { accountId, rows ->
+        writes.add(accountId to rows)
+    }
+
+    @Test
+    fun updatesOfTheSameRowAreCoalesced() {
+        val first = queue.enqueue("account", 1, "sending").test()
+        queue.enqueue("account", 2, "sent")
+        val last = queue.enqueue("account", 1, "read").test()
+        assertEquals("read", queue.getPending("account", 1))
+
+        scheduler.advanceTimeBy(99, TimeUnit.MILLISECONDS)
+        assertTrue(writes.isEmpty())
+        scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS)
+
+        assertEquals(listOf("account" to listOf("read", "sent")), writes)
+        first.assertComplete()
+        last.assertComplete()
+        assertEquals(3, queue.queued.get())
+        assertEquals(1, queue.coalesced.get())
+        assertEquals(2, queue.flushed.get())
+    }
+
+    @Test
+    fun accountsAreWrittenSeparately() {
+        queue.enqueue("first", 1, "a")
+        queue.enqueue("second", 1, "b")
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS)
+
+        assertEquals(setOf("first" to listOf("a"), "second" to listOf("b")), writes.toSet())
+    }
+
+    @Test
+    fun flushWritesPendingRows() {
+        val written = queue.enqueue("account", 1, "a").test()
+        val flush = queue.flush().test()
+        scheduler.triggerActions()
+
+        flush.assertComplete()
+        written.assertComplete()
+        assertEquals(listOf("account" to listOf("a")), writes)
+
+        // The delayed write has nothing left to write
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS)
+        assertEquals(1, writes.size)
+    }
+}
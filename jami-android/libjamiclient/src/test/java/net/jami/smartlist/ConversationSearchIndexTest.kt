@@ -0,0 +1,92 @@
+package net.jami.smartlist
+
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.subjects.BehaviorSubject
+import io.reactivex.rxjava3.subjects.CompletableSubject
+import net.jami.model.Contact
+import net.jami.model.Conversation
+import net.jami.model.Profile
+import net.jami.model.Uri
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ConversationSearchIndexTest {
+    private fun conversation(id: String) = Conversation("account", Uri(Uri.SWARM_SCHEME, id), Conversation.Mode.OneToOne)
+
+    @Test
+    fun resultsAreRanked() {
+        val conversations = listOf("a1", "a2", "a3", "a4").map { conversation(it) }
+        val terms = mapOf(
+            conversations[0] to listOf("Group of Sébastien"),
+            conversations[1] to listOf("Alice", "alice.doe"),
+            conversations[2] to listOf("Sébastien", "seb"),
+            conversations[3] to listOf("Bob")
+        )
+        val index = ConversationSearchIndex { Observable.just(terms[it]!!) }
+        index.update(conversations)
+
+        assertEquals(listOf(conversations[2], conversations[0]), index.search("Seb", conversations))
+        assertEquals(listOf(conversations[1]), index.search(" ALICE ", conversations))
+        assertEquals(listOf(conversations[1]), index.search("doe", conversations))
+        assertTrue(index.search("", conversations).isEmpty())
+        // Only the given conversations are searched
+        assertEquals(listOf(conversations[0]), index.search("sebastien", conversations.subList(0, 2)))
+    }
+
+    @Test
+    fun termsAreUpdated() {
+        val conversations = List(5000) { conversation("c$it") }
+        val names = BehaviorSubject.createDefault(listOf("Alice"))
+        val index = ConversationSearchIndex { if (it === conversations[42]) names else Observable.just(listOf("Bob")) }
+        index.update(conversations)
+
+        assertEquals(5000, index.size)
+        assertEquals(listOf(conversations[42]), index.search("ali", conversations))
+        val changes = index.changes.skip(1).test()
+        names.onNext(listOf("Carol"))
+        changes.assertValueCount(1)
+        assertTrue(index.search("ali", conversations).isEmpty())
+        assertEquals(listOf(conversations[42]), index.search("car", conversations))
+
+        // Conversations not listed anymore stop being indexed
+        index.update(conversations.subList(0, 10))
+        assertEquals(10, index.size)
+        assertTrue(names.hasObservers().not())
+    }
+
+    @Test
+    fun termsAreKnownNames() {
+        val conversation = Conversation("account", Contact(Uri.fromString("jami://1234")))
+        val terms = ConversationSearchIndex.termsOf(conversation).test()
+        terms.assertValue(listOf("jami://1234"))
+        conversation.contact!!.setRegisteredName("alice")
+        conversation.setProfile(Profile.EMPTY_PROFILE_SINGLE, "Alice's notes")
+        terms.assertValueAt(terms.values().size - 1, listOf("Alice's notes", "alice", "jami://1234"))
+    }
+
+    @Test
+    fun namesAreResolvedInOrder() {
+        val conversations = List(10) { conversation("c$it") }
+        val names = conversations.associateWith { BehaviorSubject.createDefault(emptyList<String>()) }
+        val pending = ArrayList<Pair<Conversation, CompletableSubject>>()
+        val index = ConversationSearchIndex({ conversation ->
+            CompletableSubject.create().also { pending.add(Pair(conversation, it)) }
+        }) { names[it]!! }
+        index.update(conversations)
+        assertTrue(index.search("alice", conversations).isEmpty())
+
+        // At most a few conversations are resolved at a time
+        assertEquals(conversations.take(ConversationSearchIndex.MAX_RESOLVING), pending.map { it.first })
+        names[conversations[1]]!!.onNext(listOf("Alice"))
+        pending[1].second.onComplete()
+        assertEquals(conversations.take(ConversationSearchIndex.MAX_RESOLVING + 1), pending.map { it.first })
+        assertEquals(listOf(conversations[1]), index.search("alice", conversations))
+
+        // Conversations not indexed anymore are not resolved
+        index.update(conversations.take(5))
+        pending.forEach { it.second.onComplete() }
+        assertEquals(conversations.take(5), pending.map { it.first })
+        index.clear()
+    }
+}